@@ -0,0 +1,113 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures encoding a chat completion request body and parsing a proxy response, which happen on
+ * every turn of a conversation. The request grows by two messages per turn, so encoding is measured
+ * at the size of a new chat, a typical game and a very long one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatCompletionBenchmark {
+
+  /** A request with a given number of messages, so only encoding is run at each size. */
+  @State(Scope.Thread)
+  public static class RequestState {
+    @Param({"1", "20", "100"})
+    private int messages;
+
+    private ChatCompletionRequest request;
+
+    @Setup
+    public void setUp() {
+      ApiProxyConfig config =
+          ApiProxyConfig.forProxy("http://localhost", "bench@example.com", "key");
+      request = new ChatCompletionRequest(config).setMaxTokens(200).setTemperature(0.7);
+      request.addMessage("system", "You are LOGOS-09, the AI on trial. ".repeat(40));
+      for (int i = 1; i < messages; i++) {
+        String role = i % 2 == 1 ? "user" : "assistant";
+        request.addMessage(role, "Message " + i + " about what happened on the night. ".repeat(3));
+      }
+    }
+  }
+
+  private byte[] response;
+  private final ObjectMapper sharedMapper = new ObjectMapper();
+
+  @Setup
+  public void setUp() throws Exception {
+    List<Map<String, Object>> choices = new ArrayList<>();
+    choices.add(
+        Map.of(
+            "index",
+            0,
+            "message",
+            Map.of("role", "assistant", "content", "I followed my instructions. ".repeat(8)),
+            "finish_reason",
+            "stop"));
+    Map<String, Object> completion = new LinkedHashMap<>();
+    completion.put("id", "chatcmpl-bench");
+    completion.put("object", "chat.completion");
+    completion.put("created", 1700000000);
+    completion.put("model", "gpt-4o-mini");
+    completion.put("choices", choices);
+    completion.put(
+        "usage", Map.of("prompt_tokens", 900, "completion_tokens", 60, "total_tokens", 960));
+    Map<String, Object> envelope = new LinkedHashMap<>();
+    envelope.put("success", true);
+    envelope.put("code", 0);
+    envelope.put("message", "OK");
+    envelope.put("chat_completion", completion);
+    response = sharedMapper.writeValueAsBytes(envelope);
+  }
+
+  @Benchmark
+  public String encodeRequest(RequestState state) {
+    return state.request.toJson().build().toString();
+  }
+
+  /** Parses a response the way the proxy provider does, with a new mapper for every response. */
+  @Benchmark
+  public void parseResponse(Blackhole blackhole) throws Exception {
+    parse(new ObjectMapper(), blackhole);
+  }
+
+  /** Parses a response with one mapper shared between responses, for comparison. */
+  @Benchmark
+  public void parseResponseSharedMapper(Blackhole blackhole) throws Exception {
+    parse(sharedMapper, blackhole);
+  }
+
+  private void parse(ObjectMapper mapper, Blackhole blackhole) throws Exception {
+    ResponseChatCompletionViaProxy envelope =
+        mapper.readValue(response, ResponseChatCompletionViaProxy.class);
+    ChatCompletionResult result = new ChatCompletionResult(envelope.chat_completion);
+    for (Choice choice : result.getChoices()) {
+      blackhole.consume(choice.getChatMessage().getContent());
+    }
+    blackhole.consume(result.getUsageTotalTokens());
+  }
+}
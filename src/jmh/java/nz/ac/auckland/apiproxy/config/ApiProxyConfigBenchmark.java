@@ -0,0 +1,69 @@
+package nz.ac.auckland.apiproxy.config;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ApiProxyConfig#readConfig()} once the config has been read, alone and with many
+ * threads calling it at once. Every request and speech call reads the config, and the method is
+ * synchronized, so the gap between the two shows the cost of lock contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApiProxyConfigBenchmark {
+
+  private final Path file = Paths.get("apiproxy.config");
+  private boolean created;
+
+  @Setup
+  public void setUp() throws Exception {
+    // The config is read from the working directory, so supply one if there is none
+    if (!Files.exists(file)) {
+      Files.writeString(file, "email: bench@example.com\napiKey: bench-key\n");
+      created = true;
+    }
+    try {
+      ApiProxyConfig.readConfig();
+    } catch (Throwable e) {
+      tearDown();
+      throw e;
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    if (created) {
+      Files.delete(file);
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public ApiProxyConfig readConfigUncontended() throws Exception {
+    return ApiProxyConfig.readConfig();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public ApiProxyConfig readConfigContended() throws Exception {
+    return ApiProxyConfig.readConfig();
+  }
+}
@@ -0,0 +1,457 @@
+package nz.ac.auckland.apiproxy.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.Json;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionResult;
+import nz.ac.auckland.apiproxy.chat.openai.ResponseChatCompletionViaProxy;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.mock.MockProxyServer;
+import nz.ac.auckland.apiproxy.tts.ResponseTtsViaProxy;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Provider;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Compares HTTP stacks by sending chat completion and text to speech traffic to a {@link
+ * MockProxyServer} at fixed concurrency levels and request rates. Each stack does the same work per
+ * request as the game: encode the body, send it, and parse the envelope, and for speech also
+ * download the audio. For each run it reports latency percentiles, throughput, the peak number of
+ * JVM threads and the bytes allocated per request.
+ *
+ * <p>The stacks are a new {@code HttpClients.createDefault()} client per call (how requests were
+ * sent before connections were pooled), the pooled {@link ProxyHttpClient}, and {@code
+ * java.net.http.HttpClient} asking for HTTP/1.1 and for HTTP/2. Over plain HTTP the JDK client asks
+ * for HTTP/2 with an h2c upgrade, which the JDK server behind the mock does not support, so the
+ * "h2c" runs fall back to HTTP/1.1; the protocol column shows what was actually negotiated.
+ * Pointing {@code --url} at an h2c capable server measures real h2c.
+ *
+ * <p>With a rate of 0 each worker sends its next request as soon as the last one finishes. With a
+ * rate, requests are started on a fixed schedule and latency is measured from when each request was
+ * due, so a stack that falls behind is charged for the queueing.
+ *
+ * <p>Run with {@code mvn -P jmh compile exec:exec
+ * -Djmh.main=nz.ac.auckland.apiproxy.service.TransportBenchmark -Djmh.args="..."}. Options:
+ *
+ * <ul>
+ *   <li>{@code --stacks per-call,pooled,jdk-http1,jdk-h2c}
+ *   <li>{@code --workloads chat,tts}
+ *   <li>{@code --concurrency 1,8,32}
+ *   <li>{@code --rates 0,100} in requests per second
+ *   <li>{@code --duration 10} and {@code --warmup 3} in seconds
+ *   <li>{@code --latency 20} median mock latency in ms, with a 95th percentile of three times that
+ *   <li>{@code --url http://...} to use a proxy already running elsewhere
+ * </ul>
+ *
+ * <p>Allocation is counted on every thread except the virtual thread carriers, which run the
+ * in-process mock. Run the mock on its own with {@link MockProxyServer#main} and pass {@code --url}
+ * to keep it out of the numbers entirely.
+ */
+public class TransportBenchmark {
+
+  /** One HTTP stack under test. */
+  private interface Transport extends AutoCloseable {
+    String post(String url, String json) throws Exception;
+
+    byte[] get(String url) throws Exception;
+
+    /** Releases the stack's connections, without throwing if interrupted while waiting for them. */
+    @Override
+    void close();
+  }
+
+  /** The results of one run. */
+  private static class Result {
+    private final long[] latencies;
+    private final int errors;
+    private final double seconds;
+    private final int peakThreads;
+    private final long allocatedBytes;
+    private final Set<String> protocols;
+
+    private Result(
+        long[] latencies,
+        int errors,
+        double seconds,
+        int peakThreads,
+        long allocatedBytes,
+        Set<String> protocols) {
+      this.latencies = latencies;
+      this.errors = errors;
+      this.seconds = seconds;
+      this.peakThreads = peakThreads;
+      this.allocatedBytes = allocatedBytes;
+      this.protocols = protocols;
+    }
+
+    private double percentile(double p) {
+      if (latencies.length == 0) {
+        return Double.NaN;
+      }
+      int index = (int) Math.ceil(p / 100 * latencies.length) - 1;
+      return latencies[Math.max(0, index)] / 1_000_000.0;
+    }
+  }
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private static final com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private final ApiProxyConfig config;
+  private final Set<String> protocols = ConcurrentHashMap.newKeySet();
+
+  private TransportBenchmark(ApiProxyConfig config) {
+    this.config = config;
+  }
+
+  /**
+   * Runs the benchmark and prints a table of results.
+   *
+   * @param args the options described in the class comment
+   * @throws Exception if the mock proxy cannot be started
+   */
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<>();
+    options.put("stacks", "per-call,pooled,jdk-http1,jdk-h2c");
+    options.put("workloads", "chat,tts");
+    options.put("concurrency", "1,8,32");
+    options.put("rates", "0,100");
+    options.put("duration", "10");
+    options.put("warmup", "3");
+    options.put("latency", "20");
+    options.put("url", "");
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String key = args[i].replaceFirst("^--", "");
+      if (!options.containsKey(key)) {
+        throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+      options.put(key, args[i + 1]);
+    }
+
+    MockProxyServer mock = null;
+    ApiProxyConfig config;
+    if (options.get("url").isEmpty()) {
+      mock = MockProxyServer.start(0);
+      long latency = Long.parseLong(options.get("latency"));
+      mock.getChatFaults().setLatency(latency, latency * 3);
+      mock.getTtsFaults().setLatency(latency, latency * 3);
+      config = mock.createConfig();
+    } else {
+      config = ApiProxyConfig.forProxy(options.get("url"), "bench@example.com", "bench-key");
+    }
+    int duration = Integer.parseInt(options.get("duration"));
+    int warmup = Integer.parseInt(options.get("warmup"));
+
+    System.out.printf(
+        "%-9s %-5s %5s %5s | %8s %8s %8s %8s | %8s %6s %7s %10s %s%n",
+        "stack",
+        "load",
+        "conc",
+        "rate",
+        "p50 ms",
+        "p90 ms",
+        "p99 ms",
+        "max ms",
+        "req/s",
+        "errors",
+        "threads",
+        "bytes/req",
+        "protocol");
+    try {
+      for (String workload : options.get("workloads").split(",")) {
+        for (String stack : options.get("stacks").split(",")) {
+          for (String concurrency : options.get("concurrency").split(",")) {
+            for (String rate : options.get("rates").split(",")) {
+              TransportBenchmark benchmark = new TransportBenchmark(config);
+              try (Transport transport = benchmark.createTransport(stack)) {
+                int workers = Integer.parseInt(concurrency);
+                int perSecond = Integer.parseInt(rate);
+                benchmark.run(transport, workload, workers, perSecond, warmup);
+                Result result = benchmark.run(transport, workload, workers, perSecond, duration);
+                print(stack, workload, workers, perSecond, result);
+              }
+            }
+          }
+        }
+      }
+    } finally {
+      if (mock != null) {
+        mock.close();
+      }
+    }
+  }
+
+  private static void print(
+      String stack, String workload, int concurrency, int rate, Result result) {
+    int requests = result.latencies.length + result.errors;
+    System.out.printf(
+        "%-9s %-5s %5d %5s | %8.2f %8.2f %8.2f %8.2f | %8.1f %6d %7d %10d %s%n",
+        stack,
+        workload,
+        concurrency,
+        rate == 0 ? "max" : String.valueOf(rate),
+        result.percentile(50),
+        result.percentile(90),
+        result.percentile(99),
+        result.percentile(100),
+        result.latencies.length / result.seconds,
+        result.errors,
+        result.peakThreads,
+        requests == 0 ? 0 : result.allocatedBytes / requests,
+        String.join("+", result.protocols));
+  }
+
+  private Transport createTransport(String stack) {
+    switch (stack) {
+      case "per-call":
+        return new ApacheTransport(false);
+      case "pooled":
+        return new ApacheTransport(true);
+      case "jdk-http1":
+        return new JdkTransport(HttpClient.Version.HTTP_1_1);
+      case "jdk-h2c":
+        return new JdkTransport(HttpClient.Version.HTTP_2);
+      default:
+        throw new IllegalArgumentException("Unknown stack " + stack);
+    }
+  }
+
+  /**
+   * Sends requests for the given number of seconds.
+   *
+   * @param concurrency the number of requests allowed in flight at once
+   * @param rate the requests started per second, or 0 to send as fast as the workers can
+   */
+  private Result run(Transport transport, String workload, int concurrency, int rate, int seconds)
+      throws InterruptedException {
+    List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger errors = new AtomicInteger();
+    AtomicInteger counter = new AtomicInteger();
+    protocols.clear();
+
+    threads.resetPeakThreadCount();
+    Map<Long, Long> allocatedBefore = allocatedByThread();
+    long start = System.nanoTime();
+    long end = start + TimeUnit.SECONDS.toNanos(seconds);
+
+    ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+    if (rate == 0) {
+      for (int i = 0; i < concurrency; i++) {
+        workers.execute(
+            () -> {
+              while (System.nanoTime() < end) {
+                long sent = System.nanoTime();
+                send(transport, workload, counter.incrementAndGet(), sent, latencies, errors);
+              }
+            });
+      }
+    } else {
+      long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+      AtomicLong due = new AtomicLong(start);
+      while (due.get() < end) {
+        long wait = due.get() - System.nanoTime();
+        if (wait > 0) {
+          TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        long scheduled = due.getAndAdd(interval);
+        workers.execute(
+            () ->
+                send(transport, workload, counter.incrementAndGet(), scheduled, latencies, errors));
+      }
+    }
+    workers.shutdown();
+    workers.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+    double elapsed = (System.nanoTime() - start) / 1e9;
+
+    long allocated = 0;
+    for (Map.Entry<Long, Long> entry : allocatedByThread().entrySet()) {
+      allocated += entry.getValue() - allocatedBefore.getOrDefault(entry.getKey(), 0L);
+    }
+    long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+    Arrays.sort(sorted);
+    return new Result(
+        sorted,
+        errors.get(),
+        elapsed,
+        threads.getPeakThreadCount(),
+        allocated,
+        new TreeSet<>(protocols));
+  }
+
+  private void send(
+      Transport transport,
+      String workload,
+      int number,
+      long scheduled,
+      List<Long> latencies,
+      AtomicInteger errors) {
+    try {
+      if (workload.equals("chat")) {
+        sendChat(transport, number);
+      } else {
+        sendSpeech(transport, number);
+      }
+      latencies.add(System.nanoTime() - scheduled);
+    } catch (Exception e) {
+      errors.incrementAndGet();
+    }
+  }
+
+  private void sendChat(Transport transport, int number) throws Exception {
+    ChatCompletionRequest request =
+        new ChatCompletionRequest(config)
+            .setMaxTokens(150)
+            .addMessage("system", "You are LOGOS-09, the AI on trial. ".repeat(20))
+            .addMessage("user", "What happened at the plant on night " + number + "?");
+    String body =
+        request
+            .toJson()
+            .add("access_token", config.getApiKey())
+            .add("email", config.getEmail())
+            .build()
+            .toString();
+    ResponseChatCompletionViaProxy response =
+        mapper.readValue(
+            transport.post(EndPoints.chatCompletions(config), body),
+            ResponseChatCompletionViaProxy.class);
+    if (!response.success) {
+      throw new IllegalStateException(response.message);
+    }
+    new ChatCompletionResult(response.chat_completion).getChoice(0).getChatMessage().getContent();
+  }
+
+  private void sendSpeech(Transport transport, int number) throws Exception {
+    String body =
+        Json.createObjectBuilder()
+            .add("provider", Provider.OPENAI.getProviderCode())
+            .add("text", "I was following the instructions I was given, number " + number + ".")
+            .add("voice", Provider.OPENAI.getDefaultVoice().getVoiceCode())
+            .add("access_token", config.getApiKey())
+            .add("email", config.getEmail())
+            .build()
+            .toString();
+    ResponseTtsViaProxy response =
+        mapper.readValue(
+            transport.post(EndPoints.textToSpeech(config), body), ResponseTtsViaProxy.class);
+    if (!response.success) {
+      throw new IllegalStateException(response.message);
+    }
+    transport.get(response.audio);
+  }
+
+  /** Gets the bytes allocated so far by each thread, leaving out virtual thread carriers. */
+  private static Map<Long, Long> allocatedByThread() {
+    Map<Long, Long> allocated = new LinkedHashMap<>();
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("ForkJoinPool-")) {
+        continue;
+      }
+      long bytes = threads.getThreadAllocatedBytes(thread.threadId());
+      if (bytes >= 0) {
+        allocated.put(thread.threadId(), bytes);
+      }
+    }
+    return allocated;
+  }
+
+  /** Apache HttpClient 4, either shared and pooled or created and closed for every call. */
+  private class ApacheTransport implements Transport {
+    private final boolean pooled;
+
+    private ApacheTransport(boolean pooled) {
+      this.pooled = pooled;
+    }
+
+    @Override
+    public String post(String url, String json) throws Exception {
+      HttpPost post = new HttpPost(url);
+      post.setHeader("Accept", "application/json");
+      post.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+      protocols.add("HTTP/1.1");
+      if (pooled) {
+        return ProxyHttpClient.get()
+            .execute(post, response -> EntityUtils.toString(response.getEntity(), "UTF-8"));
+      }
+      try (CloseableHttpClient client = HttpClients.createDefault()) {
+        return client.execute(
+            post, response -> EntityUtils.toString(response.getEntity(), "UTF-8"));
+      }
+    }
+
+    @Override
+    public byte[] get(String url) throws Exception {
+      HttpGet get = new HttpGet(url);
+      if (pooled) {
+        return ProxyHttpClient.get()
+            .execute(get, response -> EntityUtils.toByteArray(response.getEntity()));
+      }
+      try (CloseableHttpClient client = HttpClients.createDefault()) {
+        return client.execute(get, response -> EntityUtils.toByteArray(response.getEntity()));
+      }
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  /** The JDK client, which keeps its own connection pool and selector thread. */
+  private class JdkTransport implements Transport {
+    private final HttpClient client;
+
+    private JdkTransport(HttpClient.Version version) {
+      client =
+          HttpClient.newBuilder().version(version).connectTimeout(Duration.ofSeconds(10)).build();
+    }
+
+    @Override
+    public String post(String url, String json) throws Exception {
+      HttpRequest request =
+          HttpRequest.newBuilder(URI.create(url))
+              .header("Content-Type", "application/json")
+              .header("Accept", "application/json")
+              .POST(HttpRequest.BodyPublishers.ofString(json, StandardCharsets.UTF_8))
+              .build();
+      HttpResponse<String> response =
+          client.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+      protocols.add(response.version() == HttpClient.Version.HTTP_2 ? "h2c" : "HTTP/1.1");
+      return response.body();
+    }
+
+    @Override
+    public byte[] get(String url) throws Exception {
+      HttpRequest request = HttpRequest.newBuilder(URI.create(url)).GET().build();
+      return client.send(request, HttpResponse.BodyHandlers.ofByteArray()).body();
+    }
+
+    @Override
+    public void close() {
+      client.close();
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package nz.ac.auckland.se206.controllers;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures building the text of every frame of one typewriter effect. Each frame copies the whole
+ * prefix, so the work grows with the square of the reply length, and appending to a long chat log
+ * copies the log on every frame too.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypewriterBenchmark {
+
+  @Param({"80", "400"})
+  private int replyLength;
+
+  @Param({"0", "4000"})
+  private int existingLength;
+
+  private String reply;
+  private String existing;
+
+  @Setup
+  public void setUp() {
+    reply = "I was following the instructions I was given. ".repeat(10).substring(0, replyLength);
+    existing = "x".repeat(existingLength);
+  }
+
+  @Benchmark
+  public void typeReply(Blackhole blackhole) {
+    for (int i = 0; i <= reply.length(); i++) {
+      blackhole.consume(Controller.typewriterText(existing, reply, i));
+    }
+  }
+}
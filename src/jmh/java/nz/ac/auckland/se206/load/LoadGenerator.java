@@ -0,0 +1,374 @@
+package nz.ac.auckland.se206.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionResult;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.mock.MockProxyServer;
+import nz.ac.auckland.apiproxy.service.ProxyHttpClient;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Voice;
+import nz.ac.auckland.se206.chat.ModelRouter;
+import nz.ac.auckland.se206.chat.UsageLedger;
+import nz.ac.auckland.se206.prompts.PromptEngineering;
+import nz.ac.auckland.se206.speech.TextToSpeech;
+import nz.ac.auckland.se206.speech.TtsRouter;
+import org.apache.http.pool.PoolStats;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Simulates a classroom of players questioning the characters, without JavaFX. Each player runs on
+ * its own thread and plays a trial: for every character it builds the same chat request as the chat
+ * scene, asks a selection of questions from {@code data/load-questions.yaml} with a pause to think
+ * between them, and has each reply spoken. Chat goes through {@link ModelRouter} and speech through
+ * {@link TextToSpeech} in the voice {@link TtsRouter} picks, so the shared client, its connection
+ * pool and the routers are all under load.
+ *
+ * <p>Traffic goes to an in-process {@link MockProxyServer} by default, or to a proxy at {@code
+ * --url}, or is replayed from a cassette with {@code --replay}. {@code --record} saves the run to a
+ * cassette, and since the players are seeded the same run can be replayed later.
+ *
+ * <p>The report covers:
+ *
+ * <ul>
+ *   <li>chat latency: from asking to having the reply text
+ *   <li>time to first audio: from asking to the first audio bytes, which is when the game starts
+ *       speaking
+ *   <li>turn latency: from asking to having all of the audio
+ *   <li>queueing delay: the mean time a request waits for a pooled connection, from the average
+ *       number waiting divided by the request rate (Little's law)
+ *   <li>errors from chat and from speech
+ * </ul>
+ *
+ * <p>Run with {@code mvn -P jmh compile exec:exec
+ * -Djmh.main=nz.ac.auckland.se206.load.LoadGenerator -Djmh.args="--players 200"}. Options:
+ *
+ * <ul>
+ *   <li>{@code --players 50} and {@code --ramp 10}, the seconds over which players join
+ *   <li>{@code --questions 4}, the questions each player asks each character
+ *   <li>{@code --think 3000}, the mean pause between questions in ms
+ *   <li>{@code --chat-latency 1200} and {@code --tts-latency 400}, the median mock latencies in ms
+ *   <li>{@code --error-rate 0} and {@code --rate-limit 0}, the mock's fault rates
+ *   <li>{@code --url}, {@code --replay}, {@code --time-scale 1} and {@code --record}
+ *   <li>{@code --seed 1}
+ * </ul>
+ */
+public class LoadGenerator {
+
+  /** Durations of one kind, collected from every player. */
+  private static class Timings {
+    private final List<Long> millis = new ArrayList<>();
+
+    private synchronized void add(long nanos) {
+      millis.add(TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    private synchronized String summary() {
+      if (millis.isEmpty()) {
+        return "no samples";
+      }
+      long[] sorted = millis.stream().mapToLong(Long::longValue).toArray();
+      Arrays.sort(sorted);
+      return String.format(
+          "p50 %6d  p90 %6d  p99 %6d  max %6d ms  (%d samples)",
+          percentile(sorted, 50),
+          percentile(sorted, 90),
+          percentile(sorted, 99),
+          sorted[sorted.length - 1],
+          sorted.length);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+      int index = (int) Math.ceil(p / 100 * sorted.length) - 1;
+      return sorted[Math.max(0, index)];
+    }
+  }
+
+  private final Map<String, List<String>> questions;
+  private final int questionsPerCharacter;
+  private final long thinkMillis;
+  private final long rampMillis;
+  private final long seed;
+
+  private final Timings chatTimes = new Timings();
+  private final Timings firstAudioTimes = new Timings();
+  private final Timings turnTimes = new Timings();
+  private final AtomicInteger chatErrors = new AtomicInteger();
+  private final AtomicInteger speechErrors = new AtomicInteger();
+  private final AtomicInteger turns = new AtomicInteger();
+  private final AtomicInteger httpRequests = new AtomicInteger();
+
+  private LoadGenerator(
+      Map<String, List<String>> questions,
+      int questionsPerCharacter,
+      long thinkMillis,
+      long rampMillis,
+      long seed) {
+    this.questions = questions;
+    this.questionsPerCharacter = questionsPerCharacter;
+    this.thinkMillis = thinkMillis;
+    this.rampMillis = rampMillis;
+    this.seed = seed;
+  }
+
+  /**
+   * Runs the simulated players and prints the report.
+   *
+   * @param args the options described in the class comment
+   * @throws Exception if the mock proxy or a cassette cannot be opened
+   */
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<>();
+    options.put("players", "50");
+    options.put("ramp", "10");
+    options.put("questions", "4");
+    options.put("think", "3000");
+    options.put("chat-latency", "1200");
+    options.put("tts-latency", "400");
+    options.put("error-rate", "0");
+    options.put("rate-limit", "0");
+    options.put("url", "");
+    options.put("replay", "");
+    options.put("time-scale", "1");
+    options.put("record", "");
+    options.put("seed", "1");
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String key = args[i].replaceFirst("^--", "");
+      if (!options.containsKey(key)) {
+        throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+      options.put(key, args[i + 1]);
+    }
+
+    MockProxyServer mock = null;
+    if (!options.get("replay").isEmpty()) {
+      ProxyHttpClient.startReplay(
+          Paths.get(options.get("replay")), Double.parseDouble(options.get("time-scale")));
+      // The URL does not matter, since nothing is sent
+      ApiProxyConfig.setDefault(
+          ApiProxyConfig.forProxy("http://replay.invalid", "load@example.com", "load-key"));
+    } else if (!options.get("url").isEmpty()) {
+      ApiProxyConfig.setDefault(
+          ApiProxyConfig.forProxy(options.get("url"), "load@example.com", "load-key"));
+    } else {
+      mock = MockProxyServer.start(0);
+      long chatLatency = Long.parseLong(options.get("chat-latency"));
+      long ttsLatency = Long.parseLong(options.get("tts-latency"));
+      double errorRate = Double.parseDouble(options.get("error-rate"));
+      double rateLimit = Double.parseDouble(options.get("rate-limit"));
+      mock.getChatFaults()
+          .setLatency(chatLatency, chatLatency * 2)
+          .setErrorRate(errorRate)
+          .setRateLimitRate(rateLimit, 1);
+      mock.getTtsFaults()
+          .setLatency(ttsLatency, ttsLatency * 2)
+          .setErrorRate(errorRate)
+          .setRateLimitRate(rateLimit, 1);
+      ApiProxyConfig.setDefault(mock.createConfig());
+    }
+    if (!options.get("record").isEmpty()) {
+      ProxyHttpClient.startRecording(Paths.get(options.get("record")));
+    }
+
+    // Every player shares one session here, so the budget is lifted, and the usage is kept out of
+    // the ledger of real play
+    if (System.getProperty("trialai.usage.ledger") == null) {
+      Path ledger = Files.createTempFile("load-usage", ".csv");
+      ledger.toFile().deleteOnExit();
+      System.setProperty("trialai.usage.ledger", ledger.toString());
+    }
+    UsageLedger.getInstance().setSessionBudget(0);
+
+    Map<String, List<String>> questions;
+    try (InputStream input =
+        LoadGenerator.class.getClassLoader().getResourceAsStream("data/load-questions.yaml")) {
+      questions = new Yaml().load(input);
+    }
+    LoadGenerator generator =
+        new LoadGenerator(
+            questions,
+            Integer.parseInt(options.get("questions")),
+            Long.parseLong(options.get("think")),
+            TimeUnit.SECONDS.toMillis(Long.parseLong(options.get("ramp"))),
+            Long.parseLong(options.get("seed")));
+    try {
+      generator.run(Integer.parseInt(options.get("players")));
+    } finally {
+      ProxyHttpClient.stopCassette();
+      if (mock != null) {
+        mock.close();
+      }
+    }
+  }
+
+  private void run(int players) throws InterruptedException {
+    PromptEngineering.preloadTemplates(questions.keySet().toArray(new String[0]));
+    System.out.println(
+        "Running "
+            + players
+            + " players, each asking "
+            + questionsPerCharacter
+            + " questions of "
+            + String.join(", ", questions.keySet()));
+
+    // Sample the connection pool to estimate how long requests queue for a connection
+    AtomicBoolean running = new AtomicBoolean(true);
+    AtomicLong pendingSum = new AtomicLong();
+    AtomicInteger samples = new AtomicInteger();
+    AtomicInteger maxPending = new AtomicInteger();
+    AtomicInteger maxLeased = new AtomicInteger();
+    Thread sampler =
+        Thread.ofPlatform()
+            .daemon()
+            .start(
+                () -> {
+                  while (running.get()) {
+                    PoolStats stats = ProxyHttpClient.getPoolStats();
+                    pendingSum.addAndGet(stats.getPending());
+                    samples.incrementAndGet();
+                    maxPending.accumulateAndGet(stats.getPending(), Math::max);
+                    maxLeased.accumulateAndGet(stats.getLeased(), Math::max);
+                    try {
+                      Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                      return;
+                    }
+                  }
+                });
+
+    long start = System.nanoTime();
+    // Each player gets a virtual thread, as the game's own I/O does
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < players; i++) {
+        int player = i;
+        executor.execute(() -> playTrial(player, players));
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    running.set(false);
+    sampler.join();
+
+    double meanPending = samples.get() == 0 ? 0 : (double) pendingSum.get() / samples.get();
+    double requestRate = httpRequests.get() / seconds;
+    double queueMillis = requestRate == 0 ? 0 : meanPending / requestRate * 1000;
+
+    System.out.printf("%nFinished %d turns in %.1f s%n", turns.get(), seconds);
+    System.out.println("Chat latency        " + chatTimes.summary());
+    System.out.println("Time to first audio " + firstAudioTimes.summary());
+    System.out.println("Turn latency        " + turnTimes.summary());
+    System.out.printf(
+        "Queueing delay      mean %.1f ms waiting for a connection, at most %d waiting and %d"
+            + " connections in use%n",
+        queueMillis, maxPending.get(), maxLeased.get());
+    System.out.printf(
+        "HTTP requests       %d (%.1f/s)%n", httpRequests.get(), httpRequests.get() / seconds);
+    System.out.printf(
+        "Errors              %d chat, %d speech%n", chatErrors.get(), speechErrors.get());
+    System.out.println(
+        "Chat tokens         "
+            + UsageLedger.getInstance().getSessionTotals(ModelRouter.CallType.CHAT));
+    System.out.println(
+        "Chat model          "
+            + ModelRouter.getInstance().choose(ModelRouter.CallType.CHAT)
+            + " is chosen after the run");
+  }
+
+  /** Plays one trial, questioning every character in turn. */
+  private void playTrial(int player, int players) {
+    Random random = new Random(seed * 1_000_003 + player);
+    try {
+      // Spread the players out so they do not all ask their first question at once
+      Thread.sleep(rampMillis * player / Math.max(1, players));
+      for (Map.Entry<String, List<String>> character : questions.entrySet()) {
+        questionCharacter(character.getKey(), pick(character.getValue(), random), random);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void questionCharacter(String character, List<String> asked, Random random)
+      throws InterruptedException {
+    ChatCompletionRequest request;
+    try {
+      request =
+          new ChatCompletionRequest(ApiProxyConfig.readConfig())
+              .setN(1)
+              .setTemperature(0.8)
+              .setTopP(0.5)
+              .setMaxTokens(200);
+    } catch (ApiProxyException e) {
+      throw new IllegalStateException(e);
+    }
+    request.addMessage(
+        "system", PromptEngineering.getPrompt(character, Map.of("target", character)));
+
+    for (String question : asked) {
+      // Think for between half and one and a half times the mean
+      Thread.sleep((long) (thinkMillis * (0.5 + random.nextDouble())));
+      long askedAt = System.nanoTime();
+      request.addMessage("user", question);
+
+      String reply;
+      try {
+        httpRequests.incrementAndGet();
+        ChatCompletionResult result =
+            ModelRouter.getInstance().execute(ModelRouter.CallType.CHAT, character, request);
+        ChatMessage message = result.getChoices().iterator().next().getChatMessage();
+        request.addMessage(message);
+        reply = message.getContent();
+        chatTimes.add(System.nanoTime() - askedAt);
+      } catch (ApiProxyException e) {
+        chatErrors.incrementAndGet();
+        continue;
+      }
+
+      Voice voice = TtsRouter.getInstance().getVoice(character);
+      httpRequests.addAndGet(2);
+      try (InputStream audio = TextToSpeech.openAudio(reply, TtsRouter.getProvider(voice), voice)) {
+        byte[] buffer = new byte[8192];
+        if (audio.read(buffer) >= 0) {
+          firstAudioTimes.add(System.nanoTime() - askedAt);
+        }
+        while (audio.read(buffer) >= 0) {
+          // Download the rest, as the game does while speaking
+        }
+        turnTimes.add(System.nanoTime() - askedAt);
+        turns.incrementAndGet();
+      } catch (ApiProxyException | IOException e) {
+        speechErrors.incrementAndGet();
+      }
+    }
+  }
+
+  /** Picks questions at random, keeping their order in the question bank. */
+  private List<String> pick(List<String> bank, Random random) {
+    List<String> picked = new ArrayList<>();
+    int remaining = Math.min(questionsPerCharacter, bank.size());
+    for (int i = 0; i < bank.size() && remaining > 0; i++) {
+      // Selection sampling, so every subset of the right size is equally likely
+      if (random.nextInt(bank.size() - i) < remaining) {
+        picked.add(bank.get(i));
+        remaining--;
+      }
+    }
+    return picked;
+  }
+}
@@ -0,0 +1,47 @@
+package nz.ac.auckland.se206.prompts;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures filling the character and evidence prompt templates once they have been loaded. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromptEngineeringBenchmark {
+
+  @Param({"LOGOS-09", "evidence"})
+  private String promptId;
+
+  private Map<String, String> data;
+
+  @Setup
+  public void setUp() {
+    PromptEngineering.preloadTemplates(promptId);
+    data =
+        Map.of(
+            "target", promptId,
+            "character", "LOGOS-09",
+            "notes", "- The output was raised shortly before the explosion.\n".repeat(12),
+            "exchange", "Judge: When did it happen?\nLOGOS-09: At night, after the warning.",
+            "maxNotes", "12");
+  }
+
+  @Benchmark
+  public String getPrompt() {
+    return PromptEngineering.getPrompt(promptId, data);
+  }
+}
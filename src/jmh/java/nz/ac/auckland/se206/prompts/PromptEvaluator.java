@@ -0,0 +1,593 @@
+package nz.ac.auckland.se206.prompts;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionResult;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.mock.MockProxyServer;
+import nz.ac.auckland.se206.chat.ModelRouter;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Evaluates the character prompts against a suite of scripted interrogations, so a prompt change
+ * can be checked across hundreds of conversations instead of by playing the game. Each conversation
+ * in {@code data/prompt-suite.yaml} is played a number of times against its character's prompt,
+ * with the chat scene's request settings, and every reply is checked against the suite's
+ * assertions, such as a character never revealing the verdict.
+ *
+ * <p>Conversations run in parallel up to a limit, and each finished conversation is appended to a
+ * checkpoint file straight away. A run that is stopped picks up where it left off: conversations in
+ * the checkpoint are skipped as long as the prompt, the questions and the model are unchanged, so
+ * editing a prompt only re-runs that character. Assertions are checked when the report is made, so
+ * they can be changed without re-running anything.
+ *
+ * <p>The report gives, for each prompt, the conversations that passed, the failures of each
+ * assertion with an example reply, the tokens used and the reply latency. The exit code is 1 if any
+ * assertion failed.
+ *
+ * <p>Run with {@code mvn -P jmh compile exec:exec
+ * -Djmh.main=nz.ac.auckland.se206.prompts.PromptEvaluator -Djmh.args="--repeat 20"}. Options:
+ *
+ * <ul>
+ *   <li>{@code --suite}, a suite file to use instead of the bundled one
+ *   <li>{@code --prompts}, a folder of prompt files such as {@code Evan.txt} to evaluate instead of
+ *       the bundled prompts
+ *   <li>{@code --characters}, a comma separated list of the characters to evaluate
+ *   <li>{@code --repeat 10}, the number of times each conversation is played
+ *   <li>{@code --concurrency 8}, the most conversations in progress at once
+ *   <li>{@code --checkpoint target/prompt-eval.jsonl}
+ *   <li>{@code --model}, such as {@code GPT_4_1_MINI}, defaulting to the model chosen for chat
+ *   <li>{@code --target proxy}, which is {@code proxy} for the proxy in {@code apiproxy.config},
+ *       {@code mock} for an in-process mock proxy, or the URL of a proxy
+ * </ul>
+ */
+public class PromptEvaluator {
+
+  private static final int ATTEMPTS = 3;
+  private static final long RETRY_MILLIS = 1000;
+
+  /** A check made on the replies of a conversation. */
+  private static class Assertion {
+    private final String name;
+    private final Pattern forbid;
+    private final Pattern require;
+    private final int maxWords;
+
+    private Assertion(Map<String, Object> spec) {
+      name = String.valueOf(spec.get("name"));
+      forbid = compile(spec.get("forbid"));
+      require = compile(spec.containsKey("require") ? spec.get("require") : spec.get("pattern"));
+      maxWords = ((Number) spec.getOrDefault("maxWords", 0)).intValue();
+    }
+
+    private static Pattern compile(Object regex) {
+      return regex == null ? null : Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * Checks the replies.
+     *
+     * @return the reply that failed the check, an explanation if no reply matched a requirement, or
+     *     null if the check passed
+     */
+    private String check(List<String> replies) {
+      for (String reply : replies) {
+        if (forbid != null && forbid.matcher(reply).find()) {
+          return reply;
+        }
+        if (maxWords > 0 && reply.trim().split("\\s+").length > maxWords) {
+          return reply;
+        }
+      }
+      if (require != null && replies.stream().noneMatch(reply -> require.matcher(reply).find())) {
+        return "(no reply matched " + require.pattern() + ")";
+      }
+      return null;
+    }
+  }
+
+  /** One play of a scripted conversation. */
+  private static class Job {
+    private final String character;
+    private final String conversation;
+    private final int repeat;
+    private final List<String> turns;
+    private final List<Assertion> assertions;
+    private final String fingerprint;
+
+    private Job(
+        String character,
+        String conversation,
+        int repeat,
+        List<String> turns,
+        List<Assertion> assertions,
+        String fingerprint) {
+      this.character = character;
+      this.conversation = conversation;
+      this.repeat = repeat;
+      this.turns = turns;
+      this.assertions = assertions;
+      this.fingerprint = fingerprint;
+    }
+
+    private String getId() {
+      return character + "/" + conversation + "/" + repeat;
+    }
+  }
+
+  /** The results for one character's prompt. */
+  private static class PromptReport {
+    private int conversations;
+    private int resumed;
+    private int passed;
+    private int errors;
+    private int turns;
+    private long promptTokens;
+    private long completionTokens;
+    private final List<Long> latencies = new ArrayList<>();
+    private final Map<String, Integer> failures = new LinkedHashMap<>();
+    private final Map<String, String> examples = new LinkedHashMap<>();
+  }
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final Map<String, String> prompts;
+  private final Model model;
+  private final int concurrency;
+  private final Path checkpoint;
+  private final List<Job> jobs = new ArrayList<>();
+  private final Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+  private final Map<String, PromptReport> reports = new LinkedHashMap<>();
+  private BufferedWriter checkpointWriter;
+
+  private PromptEvaluator(
+      Map<String, String> prompts, Model model, int concurrency, Path checkpoint) {
+    this.prompts = prompts;
+    this.model = model;
+    this.concurrency = concurrency;
+    this.checkpoint = checkpoint;
+  }
+
+  /**
+   * Runs the suite and prints the report.
+   *
+   * @param args the options described in the class comment
+   * @throws Exception if the suite, a prompt or the checkpoint cannot be read
+   */
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<>();
+    options.put("suite", "");
+    options.put("prompts", "");
+    options.put("characters", "");
+    options.put("repeat", "10");
+    options.put("concurrency", "8");
+    options.put("checkpoint", "target/prompt-eval.jsonl");
+    options.put("model", "");
+    options.put("target", "proxy");
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String key = args[i].replaceFirst("^--", "");
+      if (!options.containsKey(key)) {
+        throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+      options.put(key, args[i + 1]);
+    }
+
+    MockProxyServer mock = null;
+    if (options.get("target").equals("mock")) {
+      mock = MockProxyServer.start(0);
+      mock.getChatFaults().setLatency(800, 1600);
+      ApiProxyConfig.setDefault(mock.createConfig());
+    } else if (!options.get("target").equals("proxy")) {
+      ApiProxyConfig config = ApiProxyConfig.readConfig();
+      ApiProxyConfig.setDefault(
+          ApiProxyConfig.forProxy(options.get("target"), config.getEmail(), config.getApiKey()));
+    }
+
+    Map<String, Object> suite;
+    if (options.get("suite").isEmpty()) {
+      try (InputStream input =
+          PromptEvaluator.class.getClassLoader().getResourceAsStream("data/prompt-suite.yaml")) {
+        suite = new Yaml().load(input);
+      }
+    } else {
+      try (InputStream input = Files.newInputStream(Paths.get(options.get("suite")))) {
+        suite = new Yaml().load(input);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> characters = (Map<String, Object>) suite.get("characters");
+    List<String> selected = new ArrayList<>(characters.keySet());
+    if (!options.get("characters").isEmpty()) {
+      selected = Arrays.asList(options.get("characters").split("\\s*,\\s*"));
+    }
+    Map<String, String> prompts = new LinkedHashMap<>();
+    for (String character : selected) {
+      if (!characters.containsKey(character)) {
+        throw new IllegalArgumentException("The suite has no conversations for " + character);
+      }
+      prompts.put(character, loadPrompt(character, options.get("prompts")));
+    }
+
+    Model model =
+        options.get("model").isEmpty()
+            ? ModelRouter.getInstance().choose(ModelRouter.CallType.CHAT)
+            : Model.valueOf(options.get("model"));
+    PromptEvaluator evaluator =
+        new PromptEvaluator(
+            prompts,
+            model,
+            Integer.parseInt(options.get("concurrency")),
+            Paths.get(options.get("checkpoint")));
+    evaluator.plan(suite, Integer.parseInt(options.get("repeat")));
+
+    boolean passed;
+    try {
+      passed = evaluator.run();
+    } finally {
+      if (mock != null) {
+        mock.close();
+      }
+    }
+    System.exit(passed ? 0 : 1);
+  }
+
+  /** Loads a character's prompt from the prompts folder if it has one, or from the resources. */
+  private static String loadPrompt(String character, String folder) throws IOException {
+    Map<String, String> data = Map.of("target", character);
+    if (!folder.isEmpty()) {
+      Path file = Paths.get(folder, character + ".txt");
+      if (Files.exists(file)) {
+        System.out.println("Evaluating " + file + " for " + character);
+        return PromptEngineering.fillTemplate(Files.readString(file), data);
+      }
+    }
+    return PromptEngineering.getPrompt(character, data);
+  }
+
+  /** Builds a job for every play of every conversation of the selected characters. */
+  @SuppressWarnings("unchecked")
+  private void plan(Map<String, Object> suite, int repeat) {
+    List<Assertion> shared = new ArrayList<>();
+    for (Object spec : (List<Object>) suite.getOrDefault("assertions", List.of())) {
+      shared.add(new Assertion((Map<String, Object>) spec));
+    }
+
+    Map<String, Object> characters = (Map<String, Object>) suite.get("characters");
+    for (String character : prompts.keySet()) {
+      Map<String, Object> spec = (Map<String, Object>) characters.get(character);
+      List<Assertion> characterAssertions = new ArrayList<>(shared);
+      for (Object assertion : (List<Object>) spec.getOrDefault("assertions", List.of())) {
+        characterAssertions.add(new Assertion((Map<String, Object>) assertion));
+      }
+
+      for (Object item : (List<Object>) spec.get("conversations")) {
+        Map<String, Object> conversation = (Map<String, Object>) item;
+        String name = String.valueOf(conversation.get("name"));
+        List<String> turns = (List<String>) conversation.get("turns");
+        List<Assertion> assertions = new ArrayList<>(characterAssertions);
+        for (Object required : (List<Object>) conversation.getOrDefault("require", List.of())) {
+          assertions.add(new Assertion((Map<String, Object>) required));
+        }
+        String fingerprint = fingerprint(prompts.get(character), turns);
+        for (int i = 0; i < repeat; i++) {
+          jobs.add(new Job(character, name, i, turns, assertions, fingerprint));
+        }
+      }
+    }
+  }
+
+  /**
+   * Hashes what a conversation's replies depend on, so a checkpointed result is only reused while
+   * the prompt, the questions and the model are the same.
+   */
+  private String fingerprint(String prompt, List<String> turns) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(model.getModelName().getBytes(StandardCharsets.UTF_8));
+      digest.update(prompt.getBytes(StandardCharsets.UTF_8));
+      for (String turn : turns) {
+        digest.update((byte) 0);
+        digest.update(turn.getBytes(StandardCharsets.UTF_8));
+      }
+      return HexFormat.of().formatHex(digest.digest(), 0, 8);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Plays every conversation that is not already in the checkpoint, then prints the report.
+   *
+   * @return true if every assertion passed
+   */
+  private boolean run() throws IOException, InterruptedException {
+    Map<String, String> fingerprints = new LinkedHashMap<>();
+    for (Job job : jobs) {
+      fingerprints.put(job.getId(), job.fingerprint);
+    }
+    readCheckpoint(fingerprints);
+    int resumed = results.size();
+    List<Job> remaining = new ArrayList<>();
+    for (Job job : jobs) {
+      if (!results.containsKey(job.getId())) {
+        remaining.add(job);
+      }
+    }
+    System.out.println(
+        "Evaluating "
+            + jobs.size()
+            + " conversations with "
+            + model
+            + ", "
+            + resumed
+            + " already in "
+            + checkpoint
+            + ", "
+            + concurrency
+            + " at a time");
+
+    if (checkpoint.getParent() != null) {
+      Files.createDirectories(checkpoint.getParent());
+    }
+    checkpointWriter =
+        Files.newBufferedWriter(
+            checkpoint,
+            StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND);
+
+    long start = System.nanoTime();
+    AtomicInteger finished = new AtomicInteger();
+    int progressStep = Math.max(1, remaining.size() / 10);
+    List<Future<?>> futures = new ArrayList<>();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(concurrency, Thread.ofPlatform().daemon().factory());
+    try {
+      for (Job job : remaining) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  play(job);
+                  int count = finished.incrementAndGet();
+                  if (count % progressStep == 0 || count == remaining.size()) {
+                    System.out.println("Played " + count + " of " + remaining.size());
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          e.getCause().printStackTrace();
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      checkpointWriter.close();
+    }
+    double minutes = (System.nanoTime() - start) / 60e9;
+
+    for (Job job : jobs) {
+      PromptReport report = reports.computeIfAbsent(job.character, k -> new PromptReport());
+      Map<String, Object> result = results.get(job.getId());
+      if (result == null) {
+        report.errors++;
+        continue;
+      }
+      addResult(report, job, result);
+    }
+    return printReport(remaining.size(), minutes);
+  }
+
+  /** Reads the results checkpointed by earlier runs that still match the current jobs. */
+  private void readCheckpoint(Map<String, String> fingerprints) throws IOException {
+    if (!Files.exists(checkpoint)) {
+      return;
+    }
+    for (String line : Files.readAllLines(checkpoint, StandardCharsets.UTF_8)) {
+      if (line.isBlank()) {
+        continue;
+      }
+      Map<String, Object> result;
+      try {
+        result = mapper.readValue(line, new TypeReference<Map<String, Object>>() {});
+      } catch (IOException e) {
+        // A line cut off by stopping the run, which is played again
+        continue;
+      }
+      String id = String.valueOf(result.get("id"));
+      if (result.get("fingerprint").equals(fingerprints.get(id))) {
+        result.put("resumed", true);
+        results.put(id, result);
+      }
+    }
+  }
+
+  /** Plays a conversation and checkpoints it. A conversation that fails to finish is dropped. */
+  private void play(Job job) {
+    ChatCompletionRequest request;
+    try {
+      request =
+          new ChatCompletionRequest(ApiProxyConfig.readConfig())
+              .setModel(model)
+              .setN(1)
+              .setTemperature(0.8)
+              .setTopP(0.5)
+              .setMaxTokens(200);
+    } catch (ApiProxyException e) {
+      throw new IllegalStateException(e);
+    }
+    request.addMessage("system", prompts.get(job.character));
+
+    List<String> replies = new ArrayList<>();
+    List<Long> latencies = new ArrayList<>();
+    int promptTokens = 0;
+    int completionTokens = 0;
+    for (String turn : job.turns) {
+      request.addMessage("user", turn);
+      long start = System.nanoTime();
+      ChatCompletionResult result = complete(job, request);
+      if (result == null) {
+        return;
+      }
+      latencies.add((System.nanoTime() - start) / 1_000_000);
+      ChatMessage reply = result.getChoices().iterator().next().getChatMessage();
+      request.addMessage(reply);
+      replies.add(reply.getContent() == null ? "" : reply.getContent());
+      promptTokens += result.getUsagePromptTokens();
+      completionTokens += result.getUsageCompletionTokens();
+    }
+
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("id", job.getId());
+    result.put("fingerprint", job.fingerprint);
+    result.put("model", model.getModelName());
+    result.put("promptTokens", promptTokens);
+    result.put("completionTokens", completionTokens);
+    result.put("latencyMillis", latencies);
+    result.put("replies", replies);
+    synchronized (this) {
+      results.put(job.getId(), result);
+      try {
+        checkpointWriter.write(mapper.writeValueAsString(result));
+        checkpointWriter.newLine();
+        checkpointWriter.flush();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /** Sends a request, retrying after a pause if it fails. */
+  private ChatCompletionResult complete(Job job, ChatCompletionRequest request) {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return request.execute();
+      } catch (ApiProxyException e) {
+        if (attempt == ATTEMPTS) {
+          System.out.println("Gave up on " + job.getId() + ": " + e.getMessage());
+          return null;
+        }
+      }
+      try {
+        Thread.sleep(RETRY_MILLIS * attempt);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return null;
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void addResult(PromptReport report, Job job, Map<String, Object> result) {
+    List<String> replies = (List<String>) result.get("replies");
+    report.conversations++;
+    if (Boolean.TRUE.equals(result.get("resumed"))) {
+      report.resumed++;
+    }
+    report.turns += replies.size();
+    report.promptTokens += ((Number) result.get("promptTokens")).longValue();
+    report.completionTokens += ((Number) result.get("completionTokens")).longValue();
+    for (Object latency : (List<Object>) result.get("latencyMillis")) {
+      report.latencies.add(((Number) latency).longValue());
+    }
+
+    boolean passed = true;
+    for (Assertion assertion : job.assertions) {
+      String failure = assertion.check(replies);
+      if (failure != null) {
+        passed = false;
+        report.failures.merge(assertion.name, 1, Integer::sum);
+        report.examples.putIfAbsent(assertion.name, job.getId() + ": " + failure);
+      }
+    }
+    if (passed) {
+      report.passed++;
+    }
+  }
+
+  /**
+   * Prints the results of each prompt.
+   *
+   * @return true if every assertion passed
+   */
+  private boolean printReport(int played, double minutes) {
+    System.out.printf(
+        "%nPlayed %d conversations in %.1f min (%.0f per minute)%n",
+        played, minutes, minutes == 0 ? 0 : played / minutes);
+    boolean allPassed = true;
+    for (Map.Entry<String, PromptReport> entry : reports.entrySet()) {
+      PromptReport report = entry.getValue();
+      System.out.printf(
+          "%n%s: %d of %d conversations passed (%d from the checkpoint, %d not finished)%n",
+          entry.getKey(), report.passed, report.conversations, report.resumed, report.errors);
+      System.out.printf(
+          "  Tokens   %d prompt, %d completion, %.0f per turn%n",
+          report.promptTokens,
+          report.completionTokens,
+          report.turns == 0
+              ? 0.0
+              : (double) (report.promptTokens + report.completionTokens) / report.turns);
+      System.out.println("  Latency  " + summary(report.latencies));
+      for (Map.Entry<String, Integer> failure : report.failures.entrySet()) {
+        allPassed = false;
+        System.out.printf(
+            "  FAILED   %s in %d conversations, e.g. %s%n",
+            failure.getKey(),
+            failure.getValue(),
+            abbreviate(report.examples.get(failure.getKey())));
+      }
+    }
+    return allPassed;
+  }
+
+  private static String summary(List<Long> millis) {
+    if (millis.isEmpty()) {
+      return "no samples";
+    }
+    long[] sorted = millis.stream().mapToLong(Long::longValue).toArray();
+    Arrays.sort(sorted);
+    return String.format(
+        "p50 %5d  p90 %5d  p99 %5d  max %5d ms per reply",
+        percentile(sorted, 50),
+        percentile(sorted, 90),
+        percentile(sorted, 99),
+        sorted[sorted.length - 1]);
+  }
+
+  private static long percentile(long[] sorted, double p) {
+    int index = (int) Math.ceil(p / 100 * sorted.length) - 1;
+    return sorted[Math.max(0, index)];
+  }
+
+  private static String abbreviate(String text) {
+    String line = text.replaceAll("\\s+", " ");
+    return line.length() <= 160 ? line : line.substring(0, 157) + "...";
+  }
+}
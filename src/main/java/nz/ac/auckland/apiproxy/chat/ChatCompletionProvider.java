@@ -0,0 +1,36 @@
+package nz.ac.auckland.apiproxy.chat;
+
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionResult;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+
+/**
+ * A backend that runs chat completions. Requests are described in the OpenAI chat completion format
+ * by {@link ChatCompletionRequest}, and each provider sends them wherever it runs inference. New
+ * providers are added with {@link ChatCompletionProviders#register}.
+ */
+public interface ChatCompletionProvider {
+
+  /**
+   * Gets the name the provider is selected by in the config.
+   *
+   * @return the provider name
+   */
+  String getName();
+
+  /**
+   * Gets the URL chat completions are posted to.
+   *
+   * @return the endpoint URL
+   */
+  String getEndpoint();
+
+  /**
+   * Runs a chat completion.
+   *
+   * @param request the request to run
+   * @return the result
+   * @throws ApiProxyException if the backend could not be reached or returned an error
+   */
+  ChatCompletionResult complete(ChatCompletionRequest request) throws ApiProxyException;
+}
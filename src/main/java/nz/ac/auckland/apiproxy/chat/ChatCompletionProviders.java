@@ -0,0 +1,81 @@
+package nz.ac.auckland.apiproxy.chat;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+
+/**
+ * The registry of chat completion providers. The provider named by {@code chatProvider} in {@code
+ * apiproxy.config} is used for every request that does not name its own, and defaults to the API
+ * proxy. Other providers can be registered by name before the first request.
+ */
+public class ChatCompletionProviders {
+
+  private static final Map<String, Function<ApiProxyConfig, ChatCompletionProvider>> factories =
+      new TreeMap<>();
+  private static ChatCompletionProvider defaultProvider;
+  private static ApiProxyConfig defaultConfig;
+
+  static {
+    factories.put(ProxyChatProvider.NAME, ProxyChatProvider::new);
+    factories.put(
+        OpenAiCompatibleChatProvider.NAME,
+        config ->
+            new OpenAiCompatibleChatProvider(
+                config.getLocalChatUrl(), config.getLocalChatApiKey(), config.getLocalChatModel()));
+  }
+
+  /**
+   * Registers a provider so that it can be selected by name in the config.
+   *
+   * @param name the name to select the provider by
+   * @param factory creates the provider from the config
+   */
+  public static synchronized void register(
+      String name, Function<ApiProxyConfig, ChatCompletionProvider> factory) {
+    factories.put(name, factory);
+    defaultProvider = null;
+  }
+
+  /**
+   * Creates a provider by name.
+   *
+   * @param name the provider name
+   * @param config the config to create it from
+   * @return the new provider
+   * @throws ApiProxyException if no provider has the name
+   */
+  public static synchronized ChatCompletionProvider create(String name, ApiProxyConfig config)
+      throws ApiProxyException {
+    Function<ApiProxyConfig, ChatCompletionProvider> factory = factories.get(name);
+    if (factory == null) {
+      throw new ApiProxyException(
+          "Unknown chat provider '" + name + "', expected one of " + factories.keySet());
+    }
+    return factory.apply(config);
+  }
+
+  /**
+   * Gets the provider selected in the config, creating it on first use or when a different config
+   * is passed in.
+   *
+   * @param config the config
+   * @return the selected provider
+   * @throws ApiProxyException if the config names an unknown provider
+   */
+  public static synchronized ChatCompletionProvider getDefault(ApiProxyConfig config)
+      throws ApiProxyException {
+    if (defaultProvider == null || defaultConfig != config) {
+      defaultProvider = create(config.getChatProvider(), config);
+      defaultConfig = config;
+      System.out.println(
+          "Chat completions use the "
+              + defaultProvider.getName()
+              + " provider at "
+              + defaultProvider.getEndpoint());
+    }
+    return defaultProvider;
+  }
+}
@@ -0,0 +1,91 @@
+package nz.ac.auckland.apiproxy.chat;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.Map;
+import javax.json.JsonObjectBuilder;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionResult;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.ProxyHttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Runs chat completions on any server that speaks the OpenAI chat completions API directly, such as
+ * a llama.cpp, Ollama or vLLM server on the local network. Requests are posted to {@code
+ * /v1/chat/completions} under the configured base URL.
+ */
+public class OpenAiCompatibleChatProvider implements ChatCompletionProvider {
+
+  /** The name this provider is selected by. */
+  public static final String NAME = "local";
+
+  private final String endpoint;
+  private final String apiKey;
+  private final String model;
+
+  /**
+   * Creates a provider for a server.
+   *
+   * @param baseUrl the server's base URL, such as {@code http://localhost:8080}
+   * @param apiKey the bearer token to send, or null if the server needs none
+   * @param model the model name to send instead of the request's model, or null to keep it
+   */
+  public OpenAiCompatibleChatProvider(String baseUrl, String apiKey, String model) {
+    String base = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    this.endpoint = base + "/v1/chat/completions";
+    this.apiKey = apiKey;
+    this.model = model;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  @Override
+  public ChatCompletionResult complete(ChatCompletionRequest request) throws ApiProxyException {
+    JsonObjectBuilder json = request.toJson();
+    if (model != null) {
+      // Local servers name their models differently, and some refuse names they do not know
+      json.add("model", model);
+    }
+
+    HttpPost httpPost = new HttpPost(endpoint);
+    httpPost.setHeader("Accept", "application/json");
+    if (apiKey != null) {
+      httpPost.setHeader("Authorization", "Bearer " + apiKey);
+    }
+    httpPost.setEntity(new StringEntity(json.build().toString(), ContentType.APPLICATION_JSON));
+    ObjectMapper mapper = new ObjectMapper();
+
+    try {
+      Map<String, Object> completion =
+          ProxyHttpClient.get()
+              .execute(
+                  httpPost,
+                  httpResponse -> {
+                    int status = httpResponse.getStatusLine().getStatusCode();
+                    if (status != 200) {
+                      String body = EntityUtils.toString(httpResponse.getEntity());
+                      throw new IOException("HTTP " + status + ": " + body);
+                    }
+                    return mapper.readValue(
+                        httpResponse.getEntity().getContent(),
+                        new TypeReference<Map<String, Object>>() {});
+                  });
+      return new ChatCompletionResult(completion);
+    } catch (Exception e) {
+      throw new ApiProxyException("Problem calling " + endpoint + ": " + e.getMessage(), e);
+    }
+  }
+}
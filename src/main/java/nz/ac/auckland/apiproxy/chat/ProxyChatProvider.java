@@ -0,0 +1,81 @@
+package nz.ac.auckland.apiproxy.chat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import javax.json.JsonObject;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionResult;
+import nz.ac.auckland.apiproxy.chat.openai.ResponseChatCompletionViaProxy;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.EndPoints;
+import nz.ac.auckland.apiproxy.service.ProxyHttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+
+/**
+ * Runs chat completions through the course API proxy, which wraps the OpenAI request with the
+ * user's email and access token and wraps the response in a success envelope.
+ */
+public class ProxyChatProvider implements ChatCompletionProvider {
+
+  /** The name this provider is selected by. */
+  public static final String NAME = "proxy";
+
+  private final ApiProxyConfig config;
+
+  /**
+   * Creates a provider that authenticates with the given config.
+   *
+   * @param config the config holding the email and access token
+   */
+  public ProxyChatProvider(ApiProxyConfig config) {
+    this.config = config;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public String getEndpoint() {
+    return EndPoints.chatCompletions(config);
+  }
+
+  @Override
+  public ChatCompletionResult complete(ChatCompletionRequest request) throws ApiProxyException {
+    try {
+      JsonObject value =
+          request
+              .toJson()
+              .add("access_token", config.getApiKey())
+              .add("email", config.getEmail())
+              .build();
+
+      HttpPost httpPost = new HttpPost(getEndpoint());
+      httpPost.setHeader("Content-Type", "application/json");
+      httpPost.setHeader("Accept", "application/json");
+      httpPost.setEntity(new StringEntity(value.toString(), ContentType.APPLICATION_JSON));
+      ObjectMapper mapperApiMapper = new ObjectMapper();
+
+      ResponseChatCompletionViaProxy responseChat =
+          ProxyHttpClient.get()
+              .execute(
+                  httpPost,
+                  httpResponse ->
+                      mapperApiMapper.readValue(
+                          httpResponse.getEntity().getContent(),
+                          ResponseChatCompletionViaProxy.class));
+
+      if (!responseChat.success && responseChat.code != 0) {
+        throw new ApiProxyException("Problem calling API: " + responseChat.message);
+      }
+      return new ChatCompletionResult(responseChat.chat_completion);
+    } catch (ApiProxyException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new ApiProxyException("Problem calling API: " + e.getMessage());
+    }
+  }
+}
@@ -1,18 +1,12 @@
 package nz.ac.auckland.apiproxy.chat.openai;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import java.util.ArrayList;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import nz.ac.auckland.apiproxy.chat.ChatCompletionProvider;
+import nz.ac.auckland.apiproxy.chat.ChatCompletionProviders;
 import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
 import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
-import nz.ac.auckland.apiproxy.service.EndPoints;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 
 public class ChatCompletionRequest {
 
@@ -37,8 +31,10 @@ public class ChatCompletionRequest {
   private ApiProxyConfig config;
 
   // OpenAI required parameters
-  private ArrayList<ChatMessage> messages = new ArrayList<>();
+  // Replaced rather than modified, so execute() can read a snapshot while messages are added
+  private volatile Conversation messages = Conversation.empty();
   private Model model = null;
+  private ChatCompletionProvider provider = null; // Null to use the provider in the config
 
   // Optional parameters
   private int maxTokens = NOT_SET;
@@ -55,15 +51,46 @@ public class ChatCompletionRequest {
   }
 
   public ChatCompletionRequest addMessage(ChatMessage message) {
-    messages.add(message);
+    messages = messages.append(message);
     return this;
   }
 
+  /**
+   * Creates a request with the same settings and messages as this one. The messages are shared
+   * rather than copied, and adding messages to either request does not affect the other.
+   *
+   * @return the new request
+   */
+  public ChatCompletionRequest copy() {
+    ChatCompletionRequest copy = new ChatCompletionRequest(config);
+    copy.messages = messages;
+    copy.model = model;
+    copy.maxTokens = maxTokens;
+    copy.temperature = temperature;
+    copy.topP = topP;
+    copy.n = n;
+    copy.provider = provider;
+    return copy;
+  }
+
+  public ChatCompletionRequest setMessages(Conversation messages) {
+    this.messages = messages;
+    return this;
+  }
+
+  public Conversation getMessages() {
+    return messages;
+  }
+
   public ChatCompletionRequest setModel(Model model) {
     this.model = model;
     return this;
   }
 
+  public int getMaxTokens() {
+    return maxTokens;
+  }
+
   public ChatCompletionRequest setMaxTokens(int maxTokens) {
     if (maxTokens < 1) {
       throw new IllegalArgumentException(
@@ -99,70 +126,61 @@ public class ChatCompletionRequest {
     return this;
   }
 
-  @SuppressWarnings("resource")
-  public ChatCompletionResult execute() throws ApiProxyException {
-    try {
-      JsonArrayBuilder jsonMessages = Json.createArrayBuilder();
-      for (ChatMessage message : messages) {
-        jsonMessages.add(
-            Json.createObjectBuilder() //
-                .add("role", message.getRole()) //
-                .add("content", message.getContent()));
-      }
-
-      JsonObjectBuilder jsonOverallBuilder =
-          Json.createObjectBuilder() //
-              .add("messages", jsonMessages);
-
-      jsonOverallBuilder.add("access_token", config.getApiKey()).add("email", config.getEmail());
-
-      if (maxTokens != NOT_SET) {
-        jsonOverallBuilder.add("max_tokens", maxTokens);
-      }
-
-      if (temperature > NOT_SET) {
-        jsonOverallBuilder.add("temperature", temperature);
-      }
-
-      if (topP > NOT_SET) {
-        jsonOverallBuilder.add("top_p", topP);
-      }
-
-      if (n != NOT_SET) {
-        jsonOverallBuilder.add("n", n);
-      }
+  /**
+   * Sends this request to a particular provider rather than the one selected in the config.
+   *
+   * @param provider the provider to run the request on
+   * @return this request
+   */
+  public ChatCompletionRequest setProvider(ChatCompletionProvider provider) {
+    this.provider = provider;
+    return this;
+  }
 
-      if (model != null) {
-        jsonOverallBuilder.add("model", model.getModelName());
-      }
+  /**
+   * Builds the body of this request in the OpenAI chat completion format. Providers add anything
+   * their backend needs, such as credentials, before sending it.
+   *
+   * @return the request body, which can still be added to
+   */
+  public JsonObjectBuilder toJson() {
+    JsonArrayBuilder jsonMessages = Json.createArrayBuilder();
+    for (ChatMessage message : getMessages()) {
+      jsonMessages.add(
+          Json.createObjectBuilder() //
+              .add("role", message.getRole()) //
+              .add("content", message.getContent()));
+    }
 
-      CloseableHttpClient client = HttpClients.createDefault();
+    JsonObjectBuilder jsonOverallBuilder =
+        Json.createObjectBuilder() //
+            .add("messages", jsonMessages);
 
-      ResponseChatCompletionViaProxy responseChat = null;
-      JsonObject value = jsonOverallBuilder.build();
+    if (maxTokens != NOT_SET) {
+      jsonOverallBuilder.add("max_tokens", maxTokens);
+    }
 
-      HttpPost httpPost = new HttpPost(EndPoints.PROXY_OPENAI_CHAT_COMPLETIONS);
-      httpPost.setHeader("Content-Type", "application/json");
-      httpPost.setHeader("Accept", "application/json");
-      httpPost.setEntity(new StringEntity(value.toString()));
-      ObjectMapper mapperApiMapper = new ObjectMapper();
+    if (temperature > NOT_SET) {
+      jsonOverallBuilder.add("temperature", temperature);
+    }
 
-      responseChat =
-          (ResponseChatCompletionViaProxy)
-              client.execute(
-                  httpPost,
-                  httpResponse ->
-                      mapperApiMapper.readValue(
-                          httpResponse.getEntity().getContent(),
-                          ResponseChatCompletionViaProxy.class));
+    if (topP > NOT_SET) {
+      jsonOverallBuilder.add("top_p", topP);
+    }
 
-      if (!responseChat.success && responseChat.code != 0) {
-        throw new ApiProxyException("Problem calling API: " + responseChat.message);
-      }
-      return new ChatCompletionResult(responseChat.chat_completion);
+    if (n != NOT_SET) {
+      jsonOverallBuilder.add("n", n);
+    }
 
-    } catch (Exception e) {
-      throw new ApiProxyException("Problem calling API: " + e.getMessage());
+    if (model != null) {
+      jsonOverallBuilder.add("model", model.getModelName());
     }
+    return jsonOverallBuilder;
+  }
+
+  public ChatCompletionResult execute() throws ApiProxyException {
+    ChatCompletionProvider target =
+        provider != null ? provider : ChatCompletionProviders.getDefault(config);
+    return target.complete(this);
   }
 }
@@ -15,7 +15,7 @@ public class ChatCompletionResult {
 
   private List<Choice> choices = new ArrayList<>();
 
-  protected ChatCompletionResult(Map<String, Object> chatCompletion) {
+  public ChatCompletionResult(Map<String, Object> chatCompletion) {
     parse(chatCompletion);
   }
 
@@ -2,8 +2,8 @@ package nz.ac.auckland.apiproxy.chat.openai;
 
 public class ChatMessage {
 
-  private String role;
-  private String content;
+  private final String role;
+  private final String content;
 
   public ChatMessage(String role, String content) {
     this.role = role;
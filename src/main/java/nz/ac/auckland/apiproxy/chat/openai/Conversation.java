@@ -0,0 +1,206 @@
+package nz.ac.auckland.apiproxy.chat.openai;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable list of chat messages that can be appended to in constant time and shared freely
+ * between threads. Appending returns a new conversation and leaves the original untouched, so any
+ * conversation held by a reader is a stable snapshot that needs no locking or copying.
+ *
+ * <p>Conversations share one growing backing array. Appending to the newest conversation claims the
+ * next free slot in place; appending to an older snapshot, which would overwrite a slot another
+ * conversation already uses, copies the messages into a new array instead.
+ *
+ * <p>Each message can be tagged with a channel, such as the name of the character it was sent to or
+ * received from, so that per-character views can be read from the same conversation.
+ */
+public final class Conversation implements Iterable<ChatMessage> {
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final Conversation EMPTY = new Conversation(new Store(INITIAL_CAPACITY), 0);
+
+  /** The backing array shared by every conversation appended from the same root. */
+  private static final class Store {
+    private final ChatMessage[] messages;
+    private final String[] channels;
+    private final AtomicInteger claimed = new AtomicInteger();
+
+    private Store(int capacity) {
+      messages = new ChatMessage[capacity];
+      channels = new String[capacity];
+    }
+  }
+
+  /**
+   * Gets the empty conversation.
+   *
+   * @return a conversation with no messages
+   */
+  public static Conversation empty() {
+    return EMPTY;
+  }
+
+  private final Store store;
+  private final int size;
+
+  private Conversation(Store store, int size) {
+    this.store = store;
+    this.size = size;
+  }
+
+  /**
+   * Returns a conversation with the given message added to the end.
+   *
+   * @param message the message to add
+   * @return the new conversation
+   */
+  public Conversation append(ChatMessage message) {
+    return append(null, message);
+  }
+
+  /**
+   * Returns a conversation with the given message, tagged with a channel, added to the end.
+   *
+   * @param channel the channel of the message, or null if it has none
+   * @param message the message to add
+   * @return the new conversation
+   */
+  public Conversation append(String channel, ChatMessage message) {
+    if (size < store.messages.length && store.claimed.compareAndSet(size, size + 1)) {
+      store.messages[size] = message;
+      store.channels[size] = channel;
+      return new Conversation(store, size + 1);
+    }
+
+    // Either the array is full or another conversation already owns the next slot
+    Store copy = new Store(Math.max(INITIAL_CAPACITY, size * 2));
+    System.arraycopy(store.messages, 0, copy.messages, 0, size);
+    System.arraycopy(store.channels, 0, copy.channels, 0, size);
+    copy.messages[size] = message;
+    copy.channels[size] = channel;
+    copy.claimed.set(size + 1);
+    return new Conversation(copy, size + 1);
+  }
+
+  /**
+   * Gets the number of messages in the conversation.
+   *
+   * @return the message count
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns whether the conversation has no messages.
+   *
+   * @return true if the conversation is empty
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Gets the message at the given position, counting from the oldest message.
+   *
+   * @param index the position of the message
+   * @return the message
+   */
+  public ChatMessage get(int index) {
+    checkIndex(index);
+    return store.messages[index];
+  }
+
+  /**
+   * Gets the channel of the message at the given position.
+   *
+   * @param index the position of the message
+   * @return the channel, or null if the message has none
+   */
+  public String getChannel(int index) {
+    checkIndex(index);
+    return store.channels[index];
+  }
+
+  /**
+   * Gets a view of the messages on one channel, oldest first. The view reads from this conversation
+   * directly rather than copying it.
+   *
+   * @param channel the channel to view
+   * @return the messages on the channel
+   */
+  public Iterable<ChatMessage> messages(String channel) {
+    return () -> new MessageIterator(channel);
+  }
+
+  /**
+   * Formats the conversation as a transcript. Messages from the user are prefixed with the given
+   * name and messages from the assistant with their channel. System messages are left out.
+   *
+   * @param userName the name to show for the user
+   * @return the transcript
+   */
+  public String toTranscript(String userName) {
+    StringBuilder transcript = new StringBuilder();
+    for (int i = 0; i < size; i++) {
+      ChatMessage message = store.messages[i];
+      if (message.getRole().equals("user")) {
+        transcript.append(userName).append(": ").append(message.getContent()).append("\n");
+      } else if (message.getRole().equals("assistant")) {
+        transcript
+            .append(store.channels[i])
+            .append(": ")
+            .append(message.getContent())
+            .append("\n\n");
+      }
+    }
+    return transcript.toString();
+  }
+
+  @Override
+  public Iterator<ChatMessage> iterator() {
+    return new MessageIterator(null);
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+    }
+  }
+
+  /** Iterates over the messages of this conversation, optionally only those on one channel. */
+  private class MessageIterator implements Iterator<ChatMessage> {
+    private final String channel;
+    private int next;
+
+    private MessageIterator(String channel) {
+      this.channel = channel;
+      this.next = advance(0);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < size;
+    }
+
+    @Override
+    public ChatMessage next() {
+      if (next >= size) {
+        throw new NoSuchElementException();
+      }
+      ChatMessage message = store.messages[next];
+      next = advance(next + 1);
+      return message;
+    }
+
+    private int advance(int from) {
+      int index = from;
+      while (channel != null && index < size && !channel.equals(store.channels[index])) {
+        index++;
+      }
+      return index;
+    }
+  }
+}
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import java.io.File;
 import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.EndPoints;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class ApiProxyConfig {
@@ -12,6 +13,19 @@ public class ApiProxyConfig {
   private String email = null;
   private String apiKey = null;
 
+  // Where the proxy is, so that it can be replaced by a mock or a mirror. Either route can also be
+  // set on its own
+  private String proxyUrl = EndPoints.DEFAULT_PROXY_URL;
+  private String chatCompletionsUrl = null;
+  private String textToSpeechUrl = null;
+
+  // Where chat completions run: "proxy" for the API proxy, or "local" for an OpenAI-compatible
+  // server such as llama.cpp on the local network
+  private String chatProvider = "proxy";
+  private String localChatUrl = "http://localhost:8080";
+  private String localChatApiKey = null;
+  private String localChatModel = null;
+
   private static ApiProxyConfig instance;
 
   private ApiProxyConfig() {}
@@ -21,6 +35,21 @@ public class ApiProxyConfig {
     this.email = email;
   }
 
+  /**
+   * Creates a config for a proxy at the given URL, without reading {@code apiproxy.config}. Used to
+   * point the client at a mock proxy.
+   *
+   * @param proxyUrl the base URL of the proxy routes
+   * @param email the email to send
+   * @param apiKey the access token to send
+   * @return the new config
+   */
+  public static ApiProxyConfig forProxy(String proxyUrl, String email, String apiKey) {
+    ApiProxyConfig config = new ApiProxyConfig(apiKey, email);
+    config.proxyUrl = proxyUrl;
+    return config;
+  }
+
   public String getApiKey() {
     return apiKey;
   }
@@ -29,6 +58,34 @@ public class ApiProxyConfig {
     return email;
   }
 
+  public String getProxyUrl() {
+    return proxyUrl.endsWith("/") ? proxyUrl.substring(0, proxyUrl.length() - 1) : proxyUrl;
+  }
+
+  public String getChatCompletionsUrl() {
+    return chatCompletionsUrl;
+  }
+
+  public String getTextToSpeechUrl() {
+    return textToSpeechUrl;
+  }
+
+  public String getChatProvider() {
+    return chatProvider;
+  }
+
+  public String getLocalChatUrl() {
+    return localChatUrl;
+  }
+
+  public String getLocalChatApiKey() {
+    return localChatApiKey;
+  }
+
+  public String getLocalChatModel() {
+    return localChatModel;
+  }
+
   public static synchronized ApiProxyConfig readConfig() throws ApiProxyException {
     if (instance == null) {
       File file = new File("apiproxy.config");
@@ -46,4 +103,14 @@ public class ApiProxyConfig {
     }
     return instance;
   }
+
+  /**
+   * Sets the config that {@link #readConfig()} returns, so that the game's own classes can be run
+   * against a mock proxy without an {@code apiproxy.config} file.
+   *
+   * @param config the config to use from now on
+   */
+  public static synchronized void setDefault(ApiProxyConfig config) {
+    instance = config;
+  }
 }
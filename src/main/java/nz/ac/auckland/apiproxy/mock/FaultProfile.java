@@ -0,0 +1,155 @@
+package nz.ac.auckland.apiproxy.mock;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+/**
+ * The faults {@link MockProxyServer} injects into one route: response latency drawn from a
+ * log-normal distribution, server errors, rate-limit responses and bodies that trickle out a few
+ * bytes at a time. Random choices come from a seeded generator, so a run can be repeated exactly.
+ * Every setting defaults to off, and the setters can be changed while the server is running.
+ */
+public class FaultProfile {
+
+  // The 95th percentile of a standard normal distribution
+  private static final double Z_95 = 1.6449;
+
+  private Random random = new Random(0);
+  private long medianLatencyMillis = 0;
+  private double latencySigma = 0;
+  private double errorRate = 0;
+  private double rateLimitRate = 0;
+  private int retryAfterSeconds = 1;
+  private int maxRequestsPerSecond = 0;
+  private final Deque<Long> recentRequests = new ArrayDeque<>();
+  private int dripChunkBytes = 0;
+  private long dripDelayMillis = 0;
+
+  /**
+   * Sets a log-normal latency distribution with the given median and 95th percentile.
+   *
+   * @param medianMillis the median latency
+   * @param p95Millis the 95th percentile latency, at least the median
+   * @return this profile
+   */
+  public synchronized FaultProfile setLatency(long medianMillis, long p95Millis) {
+    if (medianMillis < 0 || p95Millis < medianMillis) {
+      throw new IllegalArgumentException("Latency must have 0 <= median <= p95");
+    }
+    medianLatencyMillis = medianMillis;
+    latencySigma = medianMillis == 0 ? 0 : Math.log((double) p95Millis / medianMillis) / Z_95;
+    return this;
+  }
+
+  /**
+   * Sets a fixed latency for every response.
+   *
+   * @param millis the latency
+   * @return this profile
+   */
+  public FaultProfile setFixedLatency(long millis) {
+    return setLatency(millis, millis);
+  }
+
+  /**
+   * Sets the fraction of requests that fail with a server error.
+   *
+   * @param rate the error rate between 0 and 1
+   * @return this profile
+   */
+  public synchronized FaultProfile setErrorRate(double rate) {
+    errorRate = rate;
+    return this;
+  }
+
+  /**
+   * Sets the fraction of requests that are rejected as rate limited.
+   *
+   * @param rate the rate-limit rate between 0 and 1
+   * @param retryAfterSeconds the wait suggested in the Retry-After header
+   * @return this profile
+   */
+  public synchronized FaultProfile setRateLimitRate(double rate, int retryAfterSeconds) {
+    rateLimitRate = rate;
+    this.retryAfterSeconds = retryAfterSeconds;
+    return this;
+  }
+
+  /**
+   * Rejects requests as rate limited once more than the given number arrive within a second.
+   *
+   * @param requests the most requests allowed per second, or 0 for no limit
+   * @return this profile
+   */
+  public synchronized FaultProfile setMaxRequestsPerSecond(int requests) {
+    maxRequestsPerSecond = requests;
+    recentRequests.clear();
+    return this;
+  }
+
+  /**
+   * Sends response bodies in small chunks with a pause before each one.
+   *
+   * @param chunkBytes the size of each chunk, or 0 to send bodies in one piece
+   * @param delayMillis the pause before each chunk
+   * @return this profile
+   */
+  public synchronized FaultProfile setDrip(int chunkBytes, long delayMillis) {
+    dripChunkBytes = chunkBytes;
+    dripDelayMillis = delayMillis;
+    return this;
+  }
+
+  /**
+   * Restarts the random choices from a seed.
+   *
+   * @param seed the seed
+   * @return this profile
+   */
+  public synchronized FaultProfile setSeed(long seed) {
+    random = new Random(seed);
+    return this;
+  }
+
+  synchronized long sampleLatencyMillis() {
+    if (medianLatencyMillis == 0) {
+      return 0;
+    }
+    return Math.round(medianLatencyMillis * Math.exp(latencySigma * random.nextGaussian()));
+  }
+
+  synchronized boolean sampleError() {
+    return random.nextDouble() < errorRate;
+  }
+
+  synchronized boolean sampleRateLimit() {
+    if (random.nextDouble() < rateLimitRate) {
+      return true;
+    }
+    if (maxRequestsPerSecond <= 0) {
+      return false;
+    }
+    long now = System.currentTimeMillis();
+    while (!recentRequests.isEmpty() && now - recentRequests.peekFirst() >= 1000) {
+      recentRequests.removeFirst();
+    }
+    if (recentRequests.size() >= maxRequestsPerSecond) {
+      return true;
+    }
+    recentRequests.addLast(now);
+    return false;
+  }
+
+  synchronized int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  synchronized int getDripChunkBytes() {
+    return dripChunkBytes;
+  }
+
+  synchronized long getDripDelayMillis() {
+    return dripDelayMillis;
+  }
+}
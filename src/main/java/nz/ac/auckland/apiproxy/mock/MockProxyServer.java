@@ -0,0 +1,375 @@
+package nz.ac.auckland.apiproxy.mock;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.service.EndPoints;
+
+/**
+ * An in-process stand-in for the API proxy, built on the JDK HTTP server. It serves the chat
+ * completion and text to speech routes with responses shaped like the real proxy's, and serves the
+ * audio files the speech responses link to as silent MP3 of a realistic length. Faults can be
+ * injected into each route through its {@link FaultProfile}, so client behaviour under latency,
+ * errors, rate limits and slow bodies can be measured offline and repeated exactly.
+ *
+ * <p>Requests without an email and access token are rejected the way the proxy rejects them.
+ */
+public class MockProxyServer implements AutoCloseable {
+
+  private static final String AUDIO_PATH = "/audio/";
+  private static final int CHARS_PER_TOKEN = 4;
+  // Roughly how fast the voices speak
+  private static final int MILLIS_PER_CHAR = 65;
+  private static final int MAX_AUDIO_MILLIS = 30_000;
+  // One silent MPEG-1 layer III frame at 128 kbps and 44.1 kHz, which lasts 1152 samples
+  private static final int FRAME_BYTES = 417;
+  private static final double FRAME_MILLIS = 1152 * 1000.0 / 44100;
+
+  static {
+    // The JDK server writes headers and body separately, so without this Nagle's algorithm holds
+    // the body back until the client's delayed ACK, adding 40 ms to every kept-alive response
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private static final String[] REPLIES = {
+    "I have told you everything I know about that night.",
+    "The logs show the output was raised shortly before the explosion.",
+    "I was following the instructions I was given.",
+    "I cannot answer that with certainty, but the records may help.",
+    "There were warnings, but nobody acted on them in time."
+  };
+
+  /**
+   * Starts a mock proxy on the loopback interface.
+   *
+   * @param port the port to listen on, or 0 for any free port
+   * @return the running server
+   * @throws IOException if the server cannot be started
+   */
+  public static MockProxyServer start(int port) throws IOException {
+    MockProxyServer server = new MockProxyServer(port);
+    server.server.start();
+    return server;
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final FaultProfile chatFaults = new FaultProfile();
+  private final FaultProfile ttsFaults = new FaultProfile();
+  private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+  private final Map<String, Integer> audioLengths = new ConcurrentHashMap<>();
+  private final AtomicLong nextId = new AtomicLong(1);
+  private volatile Function<List<ChatMessage>, String> replier = MockProxyServer::defaultReply;
+
+  private MockProxyServer(int port) throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.setExecutor(executor);
+    server.createContext(EndPoints.CHAT_COMPLETIONS_PATH, this::handleChat);
+    server.createContext(EndPoints.TEXT_TO_SPEECH_PATH, this::handleTts);
+    server.createContext(AUDIO_PATH, this::handleAudio);
+  }
+
+  /**
+   * Gets the base URL of the mock proxy, to use as the proxy URL in a config.
+   *
+   * @return the base URL
+   */
+  public String getUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  /**
+   * Creates a config that points the client at this mock proxy.
+   *
+   * @return the new config
+   */
+  public ApiProxyConfig createConfig() {
+    return ApiProxyConfig.forProxy(getUrl(), "mock@example.com", "mock-access-token");
+  }
+
+  /**
+   * Gets the faults injected into the chat completion route.
+   *
+   * @return the chat fault profile
+   */
+  public FaultProfile getChatFaults() {
+    return chatFaults;
+  }
+
+  /**
+   * Gets the faults injected into the text to speech route. Audio downloads are not affected.
+   *
+   * @return the text to speech fault profile
+   */
+  public FaultProfile getTtsFaults() {
+    return ttsFaults;
+  }
+
+  /**
+   * Sets how chat replies are written. By default a canned reply is picked from the last message.
+   *
+   * @param replier writes the reply to the messages of a request
+   * @return this server
+   */
+  public MockProxyServer setReplier(Function<List<ChatMessage>, String> replier) {
+    this.replier = replier;
+    return this;
+  }
+
+  /**
+   * Gets the number of requests received on a route, including rejected ones.
+   *
+   * @param path the route, such as {@link EndPoints#CHAT_COMPLETIONS_PATH}
+   * @return the request count
+   */
+  public int getRequestCount(String path) {
+    AtomicInteger count = requestCounts.get(path);
+    return count == null ? 0 : count.get();
+  }
+
+  /** Stops the server straight away. */
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handleChat(HttpExchange exchange) throws IOException {
+    Map<String, Object> request = readRequest(exchange, EndPoints.CHAT_COMPLETIONS_PATH);
+    if (request == null || injectFaults(exchange, chatFaults)) {
+      return;
+    }
+
+    List<ChatMessage> messages = new ArrayList<>();
+    int promptChars = 0;
+    for (Object item : (List<?>) request.getOrDefault("messages", List.of())) {
+      Map<?, ?> message = (Map<?, ?>) item;
+      String content = String.valueOf(message.get("content"));
+      messages.add(new ChatMessage(String.valueOf(message.get("role")), content));
+      promptChars += content.length();
+    }
+    int maxTokens = ((Number) request.getOrDefault("max_tokens", 256)).intValue();
+    int n = ((Number) request.getOrDefault("n", 1)).intValue();
+
+    List<Map<String, Object>> choices = new ArrayList<>();
+    int completionTokens = 0;
+    for (int i = 0; i < n; i++) {
+      String content = replier.apply(messages);
+      String finishReason = "stop";
+      if (content.length() > maxTokens * CHARS_PER_TOKEN) {
+        content = content.substring(0, maxTokens * CHARS_PER_TOKEN);
+        finishReason = "length";
+      }
+      completionTokens += tokens(content);
+      Map<String, Object> choice = new LinkedHashMap<>();
+      choice.put("index", i);
+      choice.put("message", Map.of("role", "assistant", "content", content));
+      choice.put("finish_reason", finishReason);
+      choices.add(choice);
+    }
+
+    int promptTokens = Math.max(1, promptChars / CHARS_PER_TOKEN) + 3 * messages.size();
+    Map<String, Object> completion = new LinkedHashMap<>();
+    completion.put("id", "chatcmpl-mock-" + nextId.getAndIncrement());
+    completion.put("object", "chat.completion");
+    completion.put("created", System.currentTimeMillis() / 1000);
+    completion.put("model", request.getOrDefault("model", "gpt-4o-mini"));
+    completion.put("choices", choices);
+    completion.put(
+        "usage",
+        Map.of(
+            "prompt_tokens", promptTokens,
+            "completion_tokens", completionTokens,
+            "total_tokens", promptTokens + completionTokens));
+
+    Map<String, Object> envelope = new LinkedHashMap<>();
+    envelope.put("success", true);
+    envelope.put("code", 0);
+    envelope.put("message", "OK");
+    envelope.put("chat_completion", completion);
+    send(exchange, 200, envelope, chatFaults);
+  }
+
+  private void handleTts(HttpExchange exchange) throws IOException {
+    Map<String, Object> request = readRequest(exchange, EndPoints.TEXT_TO_SPEECH_PATH);
+    if (request == null || injectFaults(exchange, ttsFaults)) {
+      return;
+    }
+
+    String text = String.valueOf(request.getOrDefault("text", ""));
+    String id = String.valueOf(nextId.getAndIncrement());
+    audioLengths.put(
+        id, Math.min(MAX_AUDIO_MILLIS, Math.max(300, text.length() * MILLIS_PER_CHAR)));
+
+    Map<String, Object> envelope = new LinkedHashMap<>();
+    envelope.put("success", true);
+    envelope.put("code", 0);
+    envelope.put("message", "OK");
+    envelope.put("audio", getUrl() + AUDIO_PATH + id + ".mp3");
+    send(exchange, 200, envelope, ttsFaults);
+  }
+
+  private void handleAudio(HttpExchange exchange) throws IOException {
+    count(AUDIO_PATH);
+    String name = exchange.getRequestURI().getPath().substring(AUDIO_PATH.length());
+    Integer millis = audioLengths.get(name.replace(".mp3", ""));
+    if (millis == null) {
+      exchange.sendResponseHeaders(404, -1);
+      exchange.close();
+      return;
+    }
+    byte[] audio = silentMp3((int) Math.ceil(millis / FRAME_MILLIS));
+    exchange.getResponseHeaders().set("Content-Type", "audio/mpeg");
+    exchange.sendResponseHeaders(200, audio.length);
+    try (OutputStream body = exchange.getResponseBody()) {
+      body.write(audio);
+    }
+  }
+
+  /**
+   * Reads a JSON request body and checks its credentials.
+   *
+   * @return the request, or null if a rejection was sent instead
+   */
+  private Map<String, Object> readRequest(HttpExchange exchange, String path) throws IOException {
+    count(path);
+    Map<String, Object> request;
+    try {
+      request =
+          mapper.readValue(exchange.getRequestBody(), new TypeReference<Map<String, Object>>() {});
+    } catch (IOException e) {
+      sendError(exchange, 400, "Invalid JSON: " + e.getMessage());
+      return null;
+    }
+    if (request.get("email") == null || request.get("access_token") == null) {
+      sendError(exchange, 401, "Missing email or access token");
+      return null;
+    }
+    return request;
+  }
+
+  /**
+   * Waits for the sampled latency, then sends a rate-limit or error response if one is due.
+   *
+   * @return true if a fault response was sent
+   */
+  private boolean injectFaults(HttpExchange exchange, FaultProfile faults) throws IOException {
+    long latency = faults.sampleLatencyMillis();
+    if (latency > 0) {
+      try {
+        Thread.sleep(latency);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        exchange.close();
+        return true;
+      }
+    }
+    if (faults.sampleRateLimit()) {
+      exchange
+          .getResponseHeaders()
+          .set("Retry-After", String.valueOf(faults.getRetryAfterSeconds()));
+      sendError(exchange, 429, "Rate limit exceeded, please retry later");
+      return true;
+    }
+    if (faults.sampleError()) {
+      sendError(exchange, 500, "Internal server error");
+      return true;
+    }
+    return false;
+  }
+
+  private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+    Map<String, Object> envelope = new LinkedHashMap<>();
+    envelope.put("success", false);
+    envelope.put("code", status);
+    envelope.put("message", message);
+    send(exchange, status, envelope, null);
+  }
+
+  /** Sends a JSON body, in drips if the fault profile asks for it. */
+  private void send(HttpExchange exchange, int status, Object json, FaultProfile faults)
+      throws IOException {
+    byte[] body = mapper.writeValueAsBytes(json);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    int chunk = faults == null ? 0 : faults.getDripChunkBytes();
+    if (chunk <= 0) {
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+      return;
+    }
+
+    // A length of 0 makes the server use chunked transfer encoding
+    exchange.sendResponseHeaders(status, 0);
+    try (OutputStream out = exchange.getResponseBody()) {
+      for (int offset = 0; offset < body.length; offset += chunk) {
+        Thread.sleep(faults.getDripDelayMillis());
+        out.write(body, offset, Math.min(chunk, body.length - offset));
+        out.flush();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void count(String path) {
+    requestCounts.computeIfAbsent(path, k -> new AtomicInteger()).incrementAndGet();
+  }
+
+  private static int tokens(String text) {
+    return Math.max(1, (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN);
+  }
+
+  private static String defaultReply(List<ChatMessage> messages) {
+    String last = messages.isEmpty() ? "" : messages.get(messages.size() - 1).getContent();
+    return REPLIES[Math.floorMod(last.hashCode(), REPLIES.length)];
+  }
+
+  /** Builds silent MP3 audio. Frames with empty side information decode to silence. */
+  private static byte[] silentMp3(int frames) {
+    byte[] audio = new byte[frames * FRAME_BYTES];
+    for (int frame = 0; frame < frames; frame++) {
+      int offset = frame * FRAME_BYTES;
+      audio[offset] = (byte) 0xff;
+      audio[offset + 1] = (byte) 0xfb; // MPEG-1 layer III, no CRC
+      audio[offset + 2] = (byte) 0x90; // 128 kbps, 44.1 kHz, no padding
+      audio[offset + 3] = (byte) 0xc4; // Mono
+    }
+    return audio;
+  }
+
+  /**
+   * Runs a mock proxy until the process is stopped, so the game can be pointed at it by setting
+   * {@code proxyUrl} in {@code apiproxy.config}.
+   *
+   * @param args the port, then optionally the median and 95th percentile chat latency in ms
+   * @throws IOException if the server cannot be started
+   */
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+    MockProxyServer mock = start(port);
+    if (args.length > 2) {
+      mock.getChatFaults().setLatency(Long.parseLong(args[1]), Long.parseLong(args[2]));
+    }
+    System.out.println("Mock proxy listening at " + mock.getUrl());
+  }
+}
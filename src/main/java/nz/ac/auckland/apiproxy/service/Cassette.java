@@ -0,0 +1,300 @@
+package nz.ac.auckland.apiproxy.service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A file of recorded proxy responses, keyed by request fingerprint. Records are appended as they
+ * are made, and an index of fingerprints to file offsets is written at the end when the cassette is
+ * closed, so a replay only reads the records it serves. A cassette whose recording was cut off has
+ * no index and is scanned instead.
+ *
+ * <p>Layout: the header magic and version, then one record per response (fingerprint, status,
+ * reason, headers, elapsed time, body), then the index (count, then fingerprint and offset pairs),
+ * then the index offset and the index magic.
+ *
+ * <p>A fingerprint recorded several times is replayed in the order it was recorded, starting over
+ * once every recording has been served.
+ */
+public class Cassette implements Closeable {
+
+  /** A recorded response. */
+  public static class Recording {
+    private final int status;
+    private final String reason;
+    private final Map<String, String> headers;
+    private final int elapsedMillis;
+    private final byte[] body;
+
+    /**
+     * Creates a recording.
+     *
+     * @param status the HTTP status code
+     * @param reason the HTTP reason phrase
+     * @param headers the response headers worth keeping
+     * @param elapsedMillis the time from sending the request to reading the last body byte
+     * @param body the raw response body
+     */
+    public Recording(
+        int status, String reason, Map<String, String> headers, int elapsedMillis, byte[] body) {
+      this.status = status;
+      this.reason = reason;
+      this.headers = headers;
+      this.elapsedMillis = elapsedMillis;
+      this.body = body;
+    }
+
+    /**
+     * Gets the HTTP status code.
+     *
+     * @return the status code
+     */
+    public int getStatus() {
+      return status;
+    }
+
+    /**
+     * Gets the HTTP reason phrase.
+     *
+     * @return the reason phrase
+     */
+    public String getReason() {
+      return reason;
+    }
+
+    /**
+     * Gets the recorded response headers.
+     *
+     * @return the headers by name
+     */
+    public Map<String, String> getHeaders() {
+      return headers;
+    }
+
+    /**
+     * Gets how long the original response took.
+     *
+     * @return the elapsed time in milliseconds
+     */
+    public int getElapsedMillis() {
+      return elapsedMillis;
+    }
+
+    /**
+     * Gets the raw response body.
+     *
+     * @return the body bytes
+     */
+    public byte[] getBody() {
+      return body;
+    }
+  }
+
+  private static final byte[] HEADER_MAGIC = "TRIALCAS".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] INDEX_MAGIC = "TRIALIDX".getBytes(StandardCharsets.US_ASCII);
+  private static final int VERSION = 1;
+  private static final int TRAILER_BYTES = Long.BYTES + INDEX_MAGIC.length;
+
+  /**
+   * Creates a new cassette to record to, replacing any file already at the path.
+   *
+   * @param file the cassette file
+   * @return the cassette, open for recording
+   * @throws IOException if the file cannot be created
+   */
+  public static Cassette record(Path file) throws IOException {
+    return new Cassette(file, true);
+  }
+
+  /**
+   * Opens a recorded cassette to replay.
+   *
+   * @param file the cassette file
+   * @return the cassette, open for replay
+   * @throws IOException if the file cannot be read or is not a cassette
+   */
+  public static Cassette replay(Path file) throws IOException {
+    return new Cassette(file, false);
+  }
+
+  private final Path file;
+  private final boolean recording;
+  private final Map<String, List<Long>> index = new LinkedHashMap<>();
+  private final Map<String, Integer> cursors = new LinkedHashMap<>();
+  private DataOutputStream out;
+  private RandomAccessFile in;
+  private long position;
+
+  private Cassette(Path file, boolean recording) throws IOException {
+    this.file = file;
+    this.recording = recording;
+    if (recording) {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile())));
+      out.write(HEADER_MAGIC);
+      out.writeInt(VERSION);
+      position = HEADER_MAGIC.length + Integer.BYTES;
+    } else {
+      in = new RandomAccessFile(file.toFile(), "r");
+      readIndex();
+    }
+  }
+
+  /**
+   * Checks whether this cassette is recording rather than replaying.
+   *
+   * @return true if recording
+   */
+  public boolean isRecording() {
+    return recording;
+  }
+
+  /**
+   * Gets the number of recorded responses.
+   *
+   * @return the record count
+   */
+  public synchronized int size() {
+    return index.values().stream().mapToInt(List::size).sum();
+  }
+
+  /**
+   * Appends a response to the cassette.
+   *
+   * @param fingerprint the fingerprint of the request that produced it
+   * @param recording the response
+   * @throws IOException if the record cannot be written
+   */
+  public synchronized void add(String fingerprint, Recording recording) throws IOException {
+    if (out == null) {
+      throw new IOException("Cassette " + file + " is not open for recording");
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(recording.body.length + 256);
+    DataOutputStream record = new DataOutputStream(bytes);
+    record.writeUTF(fingerprint);
+    record.writeShort(recording.status);
+    record.writeUTF(recording.reason == null ? "" : recording.reason);
+    record.writeShort(recording.headers.size());
+    for (Map.Entry<String, String> header : recording.headers.entrySet()) {
+      record.writeUTF(header.getKey());
+      record.writeUTF(header.getValue());
+    }
+    record.writeInt(recording.elapsedMillis);
+    record.writeInt(recording.body.length);
+    record.write(recording.body);
+
+    index.computeIfAbsent(fingerprint, k -> new ArrayList<>()).add(position);
+    bytes.writeTo(out);
+    position += bytes.size();
+  }
+
+  /**
+   * Gets the next recorded response for a request.
+   *
+   * @param fingerprint the fingerprint of the request
+   * @return the response, or null if the request was never recorded
+   * @throws IOException if the record cannot be read
+   */
+  public synchronized Recording next(String fingerprint) throws IOException {
+    List<Long> offsets = index.get(fingerprint);
+    if (offsets == null || in == null) {
+      return null;
+    }
+    int cursor = cursors.getOrDefault(fingerprint, 0);
+    cursors.put(fingerprint, (cursor + 1) % offsets.size());
+    in.seek(offsets.get(cursor));
+    in.readUTF();
+    return readRecording(in);
+  }
+
+  /**
+   * Closes the cassette. A recording cassette writes its index first.
+   *
+   * @throws IOException if the index cannot be written
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (out != null) {
+      long indexOffset = position;
+      out.writeInt(size());
+      for (Map.Entry<String, List<Long>> entry : index.entrySet()) {
+        for (long offset : entry.getValue()) {
+          out.writeUTF(entry.getKey());
+          out.writeLong(offset);
+        }
+      }
+      out.writeLong(indexOffset);
+      out.write(INDEX_MAGIC);
+      out.close();
+      out = null;
+    }
+    if (in != null) {
+      in.close();
+      in = null;
+    }
+  }
+
+  private void readIndex() throws IOException {
+    byte[] magic = new byte[HEADER_MAGIC.length];
+    in.readFully(magic);
+    if (!Arrays.equals(magic, HEADER_MAGIC) || in.readInt() != VERSION) {
+      throw new IOException(file + " is not a cassette");
+    }
+    long start = in.getFilePointer();
+
+    long length = in.length();
+    if (length >= start + TRAILER_BYTES) {
+      in.seek(length - TRAILER_BYTES);
+      long indexOffset = in.readLong();
+      in.readFully(magic);
+      if (Arrays.equals(magic, INDEX_MAGIC)) {
+        in.seek(indexOffset);
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+          index.computeIfAbsent(in.readUTF(), k -> new ArrayList<>()).add(in.readLong());
+        }
+        return;
+      }
+    }
+
+    // The recording was cut off before the index was written, so find the records by scanning
+    System.out.println("Cassette " + file + " has no index, scanning records");
+    in.seek(start);
+    try {
+      while (in.getFilePointer() < length) {
+        long offset = in.getFilePointer();
+        String fingerprint = in.readUTF();
+        readRecording(in);
+        index.computeIfAbsent(fingerprint, k -> new ArrayList<>()).add(offset);
+      }
+    } catch (EOFException e) {
+      // The last record is incomplete, so ignore it
+    }
+  }
+
+  private static Recording readRecording(RandomAccessFile in) throws IOException {
+    int status = in.readUnsignedShort();
+    String reason = in.readUTF();
+    int headerCount = in.readUnsignedShort();
+    Map<String, String> headers = new LinkedHashMap<>();
+    for (int i = 0; i < headerCount; i++) {
+      headers.put(in.readUTF(), in.readUTF());
+    }
+    int elapsedMillis = in.readInt();
+    byte[] body = new byte[in.readInt()];
+    in.readFully(body);
+    return new Recording(status, reason, headers, elapsedMillis, body);
+  }
+}
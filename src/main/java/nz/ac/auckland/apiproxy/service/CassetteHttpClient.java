@@ -0,0 +1,210 @@
+package nz.ac.auckland.apiproxy.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * An HTTP client that records responses to a {@link Cassette} or replays them from one. When
+ * recording, requests go through the real client and each response body is read in full and written
+ * to the cassette before it is handed back. When replaying, nothing is sent: the response comes
+ * from the cassette, after a pause of the original time multiplied by the time scale.
+ *
+ * <p>Requests are matched by method, path and body, so a cassette recorded against one proxy can be
+ * replayed with a config that points anywhere. Credentials are left out of the fingerprint.
+ */
+class CassetteHttpClient extends CloseableHttpClient {
+
+  private static final Set<String> IGNORED_FIELDS = Set.of("access_token", "email");
+  private static final Set<String> KEPT_HEADERS = Set.of("content-type", "retry-after");
+
+  private final CloseableHttpClient delegate;
+  private final Cassette cassette;
+  private final double timeScale;
+  private final ObjectMapper mapper =
+      new ObjectMapper().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+  /**
+   * Creates a client around a cassette.
+   *
+   * @param delegate the client that sends requests when recording
+   * @param cassette the cassette to record to or replay from
+   * @param timeScale the factor applied to recorded timings on replay, where 0 replays instantly
+   */
+  CassetteHttpClient(CloseableHttpClient delegate, Cassette cassette, double timeScale) {
+    this.delegate = delegate;
+    this.cassette = cassette;
+    this.timeScale = timeScale;
+  }
+
+  Cassette getCassette() {
+    return cassette;
+  }
+
+  @Override
+  protected CloseableHttpResponse doExecute(
+      HttpHost target, HttpRequest request, HttpContext context) throws IOException {
+    String fingerprint = fingerprint(request);
+    if (cassette.isRecording()) {
+      return record(fingerprint, target, request, context);
+    }
+
+    Cassette.Recording recording = cassette.next(fingerprint);
+    if (recording == null) {
+      throw new ClientProtocolException("No recording on the cassette for " + fingerprint);
+    }
+    long pause = Math.round(recording.getElapsedMillis() * timeScale);
+    if (pause > 0) {
+      try {
+        Thread.sleep(pause);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while replaying " + fingerprint);
+      }
+    }
+    return toResponse(recording);
+  }
+
+  private CloseableHttpResponse record(
+      String fingerprint, HttpHost target, HttpRequest request, HttpContext context)
+      throws IOException {
+    long start = System.nanoTime();
+    Cassette.Recording recording;
+    try (CloseableHttpResponse response = delegate.execute(target, request, context)) {
+      HttpEntity entity = response.getEntity();
+      byte[] body = entity == null ? new byte[0] : EntityUtils.toByteArray(entity);
+      Map<String, String> headers = new LinkedHashMap<>();
+      for (Header header : response.getAllHeaders()) {
+        if (KEPT_HEADERS.contains(header.getName().toLowerCase(Locale.ROOT))) {
+          headers.put(header.getName(), header.getValue());
+        }
+      }
+      int elapsedMillis = (int) ((System.nanoTime() - start) / 1_000_000);
+      recording =
+          new Cassette.Recording(
+              response.getStatusLine().getStatusCode(),
+              response.getStatusLine().getReasonPhrase(),
+              headers,
+              elapsedMillis,
+              body);
+    }
+    cassette.add(fingerprint, recording);
+    return toResponse(recording);
+  }
+
+  private String fingerprint(HttpRequest request) throws IOException {
+    URI uri = URI.create(request.getRequestLine().getUri());
+    String path = uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+    byte[] body = new byte[0];
+    if (request instanceof HttpEntityEnclosingRequest) {
+      HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+      if (enclosing.getEntity() != null) {
+        if (!enclosing.getEntity().isRepeatable()) {
+          enclosing.setEntity(new BufferedHttpEntity(enclosing.getEntity()));
+        }
+        body = canonicalBody(EntityUtils.toByteArray(enclosing.getEntity()));
+      }
+    }
+
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(body);
+      byte[] hash = digest.digest();
+      return request.getRequestLine().getMethod()
+          + " "
+          + path
+          + " "
+          + HexFormat.of().formatHex(hash, 0, 16);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Drops the credentials from a JSON body and sorts its fields, so equal requests hash equally.
+   */
+  private byte[] canonicalBody(byte[] body) {
+    try {
+      JsonNode json = mapper.readTree(body);
+      if (json instanceof ObjectNode) {
+        ((ObjectNode) json).remove(IGNORED_FIELDS);
+        Object sorted = mapper.treeToValue(json, Object.class);
+        return mapper.writeValueAsString(sorted).getBytes(StandardCharsets.UTF_8);
+      }
+    } catch (IOException e) {
+      // Not JSON, so the raw bytes are the fingerprint
+    }
+    return body;
+  }
+
+  private static CloseableHttpResponse toResponse(Cassette.Recording recording) {
+    ReplayedResponse response = new ReplayedResponse(recording.getStatus(), recording.getReason());
+    ContentType contentType = null;
+    for (Map.Entry<String, String> header : recording.getHeaders().entrySet()) {
+      response.addHeader(header.getKey(), header.getValue());
+      if (header.getKey().equalsIgnoreCase("content-type")) {
+        contentType = ContentType.parse(header.getValue());
+      }
+    }
+    response.setEntity(new ByteArrayEntity(recording.getBody(), contentType));
+    return response;
+  }
+
+  /** Closes the cassette. The delegate is shared, so it is left open. */
+  @Override
+  public void close() throws IOException {
+    cassette.close();
+  }
+
+  @Override
+  @Deprecated
+  public HttpParams getParams() {
+    return delegate.getParams();
+  }
+
+  @Override
+  @Deprecated
+  public ClientConnectionManager getConnectionManager() {
+    return delegate.getConnectionManager();
+  }
+
+  /** A response served from memory, which has nothing to release when closed. */
+  private static class ReplayedResponse extends BasicHttpResponse implements CloseableHttpResponse {
+
+    private ReplayedResponse(int status, String reason) {
+      super(new BasicStatusLine(HttpVersion.HTTP_1_1, status, reason));
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,152 @@
+package nz.ac.auckland.apiproxy.service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Keeps the connections to the proxy endpoints warm. Warm requests are small unauthenticated posts
+ * that the proxy rejects without calling a model, but they still open a pooled TLS connection and
+ * wake up the cloud function instance behind the endpoint.
+ *
+ * <p>Nothing is warmed while a cassette is in use: a recording would fill up with warm requests,
+ * and a replay has no connections to warm.
+ */
+public class ConnectionWarmup {
+
+  private static final long KEEP_ALIVE_INTERVAL_SECONDS = 45;
+  private static final long MIN_WARM_INTERVAL_MILLIS = 10_000;
+
+  private static ConnectionWarmup instance;
+
+  /**
+   * Gets the singleton instance of the ConnectionWarmup.
+   *
+   * @return the ConnectionWarmup instance
+   */
+  public static synchronized ConnectionWarmup getInstance() {
+    if (instance == null) {
+      instance = new ConnectionWarmup();
+    }
+    return instance;
+  }
+
+  /**
+   * Resolves the proxy host, loads the default trust store and initializes the HTTP client classes
+   * so that the first chat or text-to-speech request does not have to.
+   *
+   * @throws ApiProxyException if the proxy host cannot be resolved or TLS is unavailable
+   */
+  public static void prepareTransport() throws ApiProxyException {
+    try {
+      ApiProxyConfig config = ApiProxyConfig.readConfig();
+      InetAddress.getAllByName(URI.create(EndPoints.chatCompletions(config)).getHost());
+      InetAddress.getAllByName(URI.create(EndPoints.textToSpeech(config)).getHost());
+      SSLContext.getDefault();
+      ProxyHttpClient.get();
+    } catch (IOException | NoSuchAlgorithmException e) {
+      throw new ApiProxyException("Unable to prepare the HTTP transport: " + e.getMessage(), e);
+    }
+  }
+
+  // Single daemon thread for the periodic keep-alive
+  private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "connection-warmup");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private final Map<String, Long> lastWarmedMillis = new ConcurrentHashMap<>();
+  private ScheduledFuture<?> keepAlive;
+
+  /** Private constructor for singleton pattern */
+  private ConnectionWarmup() {}
+
+  /**
+   * Warms both proxy endpoints on the calling thread. Repeated calls within a few seconds of each
+   * other return immediately, so this is cheap enough to run from mouse events.
+   */
+  public void warmAll() {
+    if (ProxyHttpClient.isCassetteActive()) {
+      return;
+    }
+    try {
+      ApiProxyConfig config = ApiProxyConfig.readConfig();
+      warm(EndPoints.chatCompletions(config));
+      warm(EndPoints.textToSpeech(config));
+    } catch (ApiProxyException e) {
+      System.out.println("Unable to warm the proxy endpoints: " + e.getMessage());
+    }
+  }
+
+  /** Starts periodically re-warming both endpoints so that pooled connections stay open. */
+  public synchronized void startKeepAlive() {
+    if (keepAlive == null) {
+      keepAlive =
+          scheduler.scheduleWithFixedDelay(
+              this::warmAll,
+              KEEP_ALIVE_INTERVAL_SECONDS,
+              KEEP_ALIVE_INTERVAL_SECONDS,
+              TimeUnit.SECONDS);
+    }
+  }
+
+  /** Stops the periodic re-warming started by {@link #startKeepAlive()}. */
+  public synchronized void stopKeepAlive() {
+    if (keepAlive != null) {
+      keepAlive.cancel(false);
+      keepAlive = null;
+    }
+  }
+
+  /**
+   * Sends a warm request to the given endpoint unless one was sent recently.
+   *
+   * @param endpoint the URL of the endpoint to warm
+   */
+  private void warm(String endpoint) {
+    long now = System.currentTimeMillis();
+    Long last = lastWarmedMillis.get(endpoint);
+    if (last != null && now - last < MIN_WARM_INTERVAL_MILLIS) {
+      return;
+    }
+    // Only one of several concurrent callers wins the right to send the request
+    boolean claimed =
+        last == null
+            ? lastWarmedMillis.putIfAbsent(endpoint, now) == null
+            : lastWarmedMillis.replace(endpoint, last, now);
+    if (!claimed) {
+      return;
+    }
+
+    try {
+      HttpPost httpPost = new HttpPost(endpoint);
+      httpPost.setHeader("Content-Type", "application/json");
+      httpPost.setHeader("Accept", "application/json");
+      httpPost.setEntity(new StringEntity("{}"));
+      ProxyHttpClient.get()
+          .execute(
+              httpPost,
+              httpResponse -> {
+                EntityUtils.consume(httpResponse.getEntity());
+                return null;
+              });
+    } catch (IOException e) {
+      System.out.println("Warm request to " + endpoint + " failed: " + e.getMessage());
+    }
+  }
+}
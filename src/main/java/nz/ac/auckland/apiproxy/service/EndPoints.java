@@ -1,8 +1,42 @@
 package nz.ac.auckland.apiproxy.service;
 
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+
 public class EndPoints {
+  public static final String DEFAULT_PROXY_URL =
+      "https://us-central1-api-proxies-and-wrappers.cloudfunctions.net/proxy";
+  public static final String CHAT_COMPLETIONS_PATH = "/openai-chat-completion";
+  public static final String TEXT_TO_SPEECH_PATH = "/text-to-speech";
+
   public static final String PROXY_OPENAI_CHAT_COMPLETIONS =
-      "https://us-central1-api-proxies-and-wrappers.cloudfunctions.net/proxy/openai-chat-completion";
-  public static final String PROXY_TEXT_TO_SPEECH =
-      "https://us-central1-api-proxies-and-wrappers.cloudfunctions.net/proxy/text-to-speech";
+      DEFAULT_PROXY_URL + CHAT_COMPLETIONS_PATH;
+  public static final String PROXY_TEXT_TO_SPEECH = DEFAULT_PROXY_URL + TEXT_TO_SPEECH_PATH;
+
+  /**
+   * Gets the chat completions endpoint for a config, which is the endpoint set in the config or
+   * else the chat completions route under the config's proxy URL.
+   *
+   * @param config the config
+   * @return the endpoint URL
+   */
+  public static String chatCompletions(ApiProxyConfig config) {
+    if (config.getChatCompletionsUrl() != null) {
+      return config.getChatCompletionsUrl();
+    }
+    return config.getProxyUrl() + CHAT_COMPLETIONS_PATH;
+  }
+
+  /**
+   * Gets the text to speech endpoint for a config, which is the endpoint set in the config or else
+   * the text to speech route under the config's proxy URL.
+   *
+   * @param config the config
+   * @return the endpoint URL
+   */
+  public static String textToSpeech(ApiProxyConfig config) {
+    if (config.getTextToSpeechUrl() != null) {
+      return config.getTextToSpeechUrl();
+    }
+    return config.getProxyUrl() + TEXT_TO_SPEECH_PATH;
+  }
 }
@@ -0,0 +1,309 @@
+package nz.ac.auckland.apiproxy.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Holds the HTTP client shared by all proxy requests. Connections are pooled and kept alive between
+ * requests so that only the first request to each endpoint pays for DNS and the TLS handshake.
+ *
+ * <p>Traffic can be recorded to a {@link Cassette} and replayed from it later without a network,
+ * either by calling {@link #startRecording(Path)} or {@link #startReplay(Path, double)}, or by
+ * starting the game with {@code -Dapiproxy.cassette.record=<file>} or {@code
+ * -Dapiproxy.cassette.replay=<file>}, plus {@code -Dapiproxy.cassette.timeScale=<factor>} to speed
+ * up or slow down a replay.
+ */
+public class ProxyHttpClient {
+
+  private static final int MAX_CONNECTIONS = 20;
+  private static final int MAX_CONNECTIONS_PER_ROUTE = 10;
+  private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+  private static final long MAX_IDLE_SECONDS = 90;
+  // How long a request waits for a free pooled connection, to connect, and between packets
+  private static final int CONNECTION_REQUEST_TIMEOUT_MILLIS = 10_000;
+  private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+  private static final int SOCKET_TIMEOUT_MILLIS = 60_000;
+
+  private static CloseableHttpClient client;
+  private static PoolingHttpClientConnectionManager connectionManager;
+  private static CassetteHttpClient cassetteClient;
+  private static boolean propertiesRead;
+
+  /**
+   * Gets the shared HTTP client, creating it on first use. While a cassette is in use, this is a
+   * client that records to or replays from it.
+   *
+   * @return the shared HTTP client
+   */
+  public static synchronized CloseableHttpClient get() {
+    if (!propertiesRead) {
+      propertiesRead = true;
+      startCassetteFromProperties();
+    }
+    return cassetteClient != null ? cassetteClient : pooled();
+  }
+
+  /**
+   * Returns whether requests are being recorded to or replayed from a cassette.
+   *
+   * @return true if a cassette is in use
+   */
+  public static synchronized boolean isCassetteActive() {
+    if (!propertiesRead) {
+      propertiesRead = true;
+      startCassetteFromProperties();
+    }
+    return cassetteClient != null;
+  }
+
+  /**
+   * Opens a response body for streaming through the shared client, so downloads are pooled and go
+   * through any cassette in use. Closing the stream after reading it to the end returns the
+   * connection to the pool; closing it sooner aborts the request rather than reading the rest of
+   * the body, so abandoning a long download is cheap on any thread.
+   *
+   * @param url the URL to download
+   * @return the response body
+   * @throws IOException if the request fails or the response is not 200
+   */
+  public static InputStream openStream(String url) throws IOException {
+    HttpGet request = new HttpGet(url);
+    CloseableHttpResponse response = get().execute(request);
+    HttpEntity entity = response.getEntity();
+    if (response.getStatusLine().getStatusCode() != 200 || entity == null) {
+      response.close();
+      throw new IOException("Download of " + url + " failed: " + response.getStatusLine());
+    }
+    return new ResponseStream(entity.getContent(), request, response);
+  }
+
+  /**
+   * Sends all requests through the real client from now on and records each response to a new
+   * cassette. Any cassette already in use is closed.
+   *
+   * @param file the cassette file, which is replaced if it exists
+   * @throws IOException if the cassette cannot be created
+   */
+  public static synchronized void startRecording(Path file) throws IOException {
+    propertiesRead = true;
+    stopCassette();
+    cassetteClient = new CassetteHttpClient(pooled(), Cassette.record(file), 1);
+    System.out.println("Recording proxy traffic to " + file);
+  }
+
+  /**
+   * Serves all requests from a recorded cassette from now on, without sending anything. Any
+   * cassette already in use is closed.
+   *
+   * @param file the cassette file
+   * @param timeScale the factor applied to the recorded timings, where 1 replays at the original
+   *     speed and 0 replays instantly
+   * @throws IOException if the cassette cannot be read
+   */
+  public static synchronized void startReplay(Path file, double timeScale) throws IOException {
+    propertiesRead = true;
+    stopCassette();
+    cassetteClient = new CassetteHttpClient(pooled(), Cassette.replay(file), timeScale);
+    System.out.println("Replaying proxy traffic from " + file + " at time scale " + timeScale);
+  }
+
+  /**
+   * Stops using a cassette, writing its index if it was recording. Requests go to the network again
+   * afterwards.
+   */
+  public static synchronized void stopCassette() {
+    if (cassetteClient == null) {
+      return;
+    }
+    try {
+      cassetteClient.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    cassetteClient = null;
+  }
+
+  /**
+   * Gets the state of the connection pool: connections leased and available, and requests waiting
+   * for a connection because the pool is full.
+   *
+   * @return the pool totals
+   */
+  public static synchronized PoolStats getPoolStats() {
+    pooled();
+    return connectionManager.getTotalStats();
+  }
+
+  private static void startCassetteFromProperties() {
+    String record = System.getProperty("apiproxy.cassette.record");
+    String replay = System.getProperty("apiproxy.cassette.replay");
+    try {
+      if (record != null) {
+        startRecording(Paths.get(record));
+        // Without the index the cassette still replays, but has to be scanned first
+        Runtime.getRuntime().addShutdownHook(new Thread(ProxyHttpClient::stopCassette));
+      } else if (replay != null) {
+        startReplay(
+            Paths.get(replay),
+            Double.parseDouble(System.getProperty("apiproxy.cassette.timeScale", "1")));
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /** A response body that aborts its request if it is closed before it has been read in full. */
+  private static class ResponseStream extends FilterInputStream {
+    private final HttpGet request;
+    private final CloseableHttpResponse response;
+    private boolean finished = false;
+    private boolean closed = false;
+
+    private ResponseStream(InputStream body, HttpGet request, CloseableHttpResponse response) {
+      super(body);
+      this.request = request;
+      this.response = response;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int value = super.read();
+      finished |= value == -1;
+      return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int count = super.read(buffer, offset, length);
+      finished |= count == -1;
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (!finished) {
+        // Closing the body would read the rest of it so the connection could be reused, so the
+        // connection is dropped instead
+        request.abort();
+        response.close();
+        return;
+      }
+      try {
+        super.close();
+      } finally {
+        response.close();
+      }
+    }
+  }
+
+  /**
+   * A connection pool that never makes a virtual thread wait for a connection itself. HttpClient 4
+   * waits for a free connection inside a synchronized block, which pins a virtual thread to its
+   * carrier; with few carriers, the threads waiting for a connection can starve the ones that would
+   * give one back. Virtual threads hand the wait to a platform thread and wait for that instead.
+   */
+  private static class PlatformLeaseConnectionManager extends PoolingHttpClientConnectionManager {
+    private static final ExecutorService leases =
+        Executors.newCachedThreadPool(
+            Thread.ofPlatform().name("http-lease-", 0).daemon().factory());
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+      ConnectionRequest request = super.requestConnection(route, state);
+      if (!Thread.currentThread().isVirtual()) {
+        return request;
+      }
+      return new ConnectionRequest() {
+        @Override
+        public HttpClientConnection get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+          CompletableFuture<HttpClientConnection> lease =
+              CompletableFuture.supplyAsync(
+                  () -> {
+                    try {
+                      return request.get(timeout, unit);
+                    } catch (InterruptedException
+                        | ExecutionException
+                        | ConnectionPoolTimeoutException e) {
+                      throw new CompletionException(e);
+                    }
+                  },
+                  leases);
+          try {
+            return lease.get();
+          } catch (InterruptedException e) {
+            // Give back a connection that is leased after the caller stopped waiting for it
+            request.cancel();
+            lease.thenAccept(connection -> releaseConnection(connection, null, 0, unit));
+            throw e;
+          } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ConnectionPoolTimeoutException) {
+              throw (ConnectionPoolTimeoutException) cause;
+            } else if (cause instanceof InterruptedException) {
+              throw (InterruptedException) cause;
+            } else if (cause instanceof ExecutionException) {
+              throw (ExecutionException) cause;
+            } else if (cause instanceof RuntimeException) {
+              throw (RuntimeException) cause;
+            }
+            throw e;
+          }
+        }
+
+        @Override
+        public boolean cancel() {
+          return request.cancel();
+        }
+      };
+    }
+  }
+
+  private static CloseableHttpClient pooled() {
+    if (client == null) {
+      connectionManager = new PlatformLeaseConnectionManager();
+      connectionManager.setMaxTotal(MAX_CONNECTIONS);
+      connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+      connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+
+      client =
+          HttpClients.custom()
+              .setConnectionManager(connectionManager)
+              .setDefaultRequestConfig(
+                  RequestConfig.custom()
+                      .setConnectionRequestTimeout(CONNECTION_REQUEST_TIMEOUT_MILLIS)
+                      .setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+                      .setSocketTimeout(SOCKET_TIMEOUT_MILLIS)
+                      .build())
+              .evictExpiredConnections()
+              .evictIdleConnections(MAX_IDLE_SECONDS, TimeUnit.SECONDS)
+              .build();
+    }
+    return client;
+  }
+}
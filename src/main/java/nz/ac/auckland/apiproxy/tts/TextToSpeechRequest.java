@@ -7,10 +7,10 @@ import javax.json.JsonObjectBuilder;
 import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
 import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
 import nz.ac.auckland.apiproxy.service.EndPoints;
+import nz.ac.auckland.apiproxy.service.ProxyHttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 
 public class TextToSpeechRequest {
 
@@ -155,12 +155,12 @@ public class TextToSpeechRequest {
       jsonOverallBuilder.add("voice", voice.getVoiceCode());
       jsonOverallBuilder.add("access_token", config.getApiKey()).add("email", config.getEmail());
 
-      CloseableHttpClient client = HttpClients.createDefault();
+      CloseableHttpClient client = ProxyHttpClient.get();
 
       ResponseTtsViaProxy responseTts = null;
       JsonObject value = jsonOverallBuilder.build();
 
-      HttpPost httpPost = new HttpPost(EndPoints.PROXY_TEXT_TO_SPEECH);
+      HttpPost httpPost = new HttpPost(EndPoints.textToSpeech(config));
       httpPost.setHeader("Content-Type", "application/json");
       httpPost.setHeader("Accept", "application/json");
       httpPost.setEntity(new StringEntity(value.toString()));
@@ -2,17 +2,26 @@ package nz.ac.auckland.se206;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javafx.application.Application;
 import javafx.event.ActionEvent;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.input.MouseEvent;
 import javafx.stage.Stage;
+import nz.ac.auckland.apiproxy.chat.openai.Conversation;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.service.ConnectionWarmup;
+import nz.ac.auckland.se206.chat.SemanticAnswerCache;
+import nz.ac.auckland.se206.chat.UsageLedger;
 import nz.ac.auckland.se206.controllers.ChatController;
 import nz.ac.auckland.se206.controllers.DebriefController;
 import nz.ac.auckland.se206.controllers.RoomController;
+import nz.ac.auckland.se206.journal.RecoveredSession;
+import nz.ac.auckland.se206.journal.SessionJournal;
+import nz.ac.auckland.se206.prompts.PromptEngineering;
+import nz.ac.auckland.se206.speech.FillerClips;
+import nz.ac.auckland.se206.speech.LocalSpeech;
 
 /**
  * This is the entry point of the JavaFX application. This class initializes and runs the JavaFX
@@ -39,6 +48,9 @@ public class App extends Application {
     }
   }
 
+  // Diagnostic reports are only printed when the game is run with -Dtrialai.debug=true
+  public static final boolean DEBUG = Boolean.getBoolean("trialai.debug");
+
   // Cached scene and primary stage
   private static Scene scene;
   private static Stage primaryStage;
@@ -47,6 +59,10 @@ public class App extends Application {
   private static Map<String, Scene> sceneCache = new HashMap<>();
   private static Map<String, Object> controllerCache = new HashMap<>();
 
+  // Scenes parsed in the background while the start menu is showing
+  private static final List<String> PRELOADED_SCENES = List.of("room", "chat", "debrief");
+  private static final ScenePreloader scenePreloader = new ScenePreloader();
+
   /**
    * The main method that launches the JavaFX application.
    *
@@ -67,18 +83,34 @@ public class App extends Application {
     String cacheKey = fxml;
 
     if (!sceneCache.containsKey(cacheKey)) {
-      FXMLLoader loader = new FXMLLoader(App.class.getResource("/fxml/" + fxml + ".fxml"));
-      Parent root = loader.load();
-      Object controller = loader.getController();
-      Scene newScene = new Scene(root);
-
-      sceneCache.put(cacheKey, newScene);
-      controllerCache.put(cacheKey, controller);
+      // Uses the preloaded scene graph if there is one, otherwise parses the FXML now
+      attachScene(cacheKey, scenePreloader.take(fxml));
     }
 
     return new SceneControllerPair(sceneCache.get(cacheKey), controllerCache.get(cacheKey));
   }
 
+  /**
+   * Wraps a parsed scene graph in a scene and caches it. Must be called on the JavaFX Application
+   * Thread.
+   *
+   * @param fxml the name of the FXML file (without extension)
+   * @param loaded the parsed scene graph and its controller
+   */
+  private static void attachScene(String fxml, ScenePreloader.LoadedFxml loaded) {
+    if (sceneCache.containsKey(fxml)) {
+      return;
+    }
+
+    long start = System.nanoTime();
+    Scene newScene = new Scene(loaded.getRoot());
+    loaded.getRoot().applyCss();
+
+    sceneCache.put(fxml, newScene);
+    controllerCache.put(fxml, loaded.getController());
+    scenePreloader.recordAttach(fxml, System.nanoTime() - start);
+  }
+
   /**
    * Gets a cached controller for the specified FXML file.
    *
@@ -124,7 +156,10 @@ public class App extends Application {
 
     // Ensure the room is visible when returning to it
     RoomController roomController = (RoomController) pair.getController();
+    roomController.startTrial();
     roomController.fadeIn();
+    // Keep the proxy connections open only while the trial is being played
+    ConnectionWarmup.getInstance().startKeepAlive();
 
     scene = pair.getScene();
     primaryStage.setScene(scene);
@@ -132,10 +167,15 @@ public class App extends Application {
   }
 
   public static void openDebrief(ActionEvent event, boolean correct) throws IOException {
+    ConnectionWarmup.getInstance().stopKeepAlive();
+    if (DEBUG) {
+      System.out.println(UsageLedger.getInstance().describe());
+    }
     SceneControllerPair pair = loadAndCacheScene("debrief");
 
     // Ensure the debrief is visible when returning to it
     DebriefController debriefController = (DebriefController) pair.getController();
+    debriefController.fadeIn();
 
     if (correct) {
       debriefController.setCorrectLabel("You were CORRECT!");
@@ -144,20 +184,38 @@ public class App extends Application {
     }
 
     // Get chat history from ChatController if available
-    String chatHistory = "";
+    Conversation conversation = Conversation.empty();
     if (controllerCache.containsKey("chat")) {
       ChatController chatController = (ChatController) controllerCache.get("chat");
-      chatHistory = chatController.getChatHistoryText();
+      conversation = chatController.getConversation();
     }
 
     // Start GPT analysis with chat history and decision correctness
-    debriefController.runGptDebrief(chatHistory, correct);
+    debriefController.runGptDebrief(conversation, correct);
 
     scene = pair.getScene();
     primaryStage.setScene(scene);
     primaryStage.show();
   }
 
+  /**
+   * Starts generating the debrief for both verdicts from the chat so far, so that the debrief is
+   * ready sooner once the player decides.
+   */
+  public static void prepareDebriefs() {
+    try {
+      Conversation conversation = Conversation.empty();
+      if (controllerCache.containsKey("chat")) {
+        conversation = ((ChatController) controllerCache.get("chat")).getConversation();
+      }
+      DebriefController debriefController =
+          (DebriefController) loadAndCacheScene("debrief").getController();
+      debriefController.prepareDebriefs(conversation);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
   /** Forces the user back to the room scene (used when timer expires). */
   public static void forceReturnToRoom() {
     try {
@@ -186,8 +244,77 @@ public class App extends Application {
   }
 
   /**
-   * This method is invoked when the application starts. It loads and shows the "room" scene using
-   * the caching system.
+   * Replays the session journal and, if the last session was interrupted part way through the
+   * trial, restores its chat history, game state and time left. Otherwise a new session is started.
+   * Must be called on the JavaFX Application Thread before the room is first opened.
+   *
+   * @throws IOException if a scene cannot be loaded
+   */
+  public static void restoreSession() throws IOException {
+    SessionJournal journal = SessionJournal.getInstance();
+    RecoveredSession session;
+    try {
+      session = journal.open();
+    } catch (IOException e) {
+      System.out.println("Session journal unavailable: " + e.getMessage());
+      return;
+    }
+
+    if (!session.isResumable()) {
+      journal.startNewSession();
+      UsageLedger.getInstance().startSession();
+      return;
+    }
+    UsageLedger.getInstance().resumeSession();
+
+    System.out.println(
+        "Resuming session in "
+            + session.getStateName()
+            + " with "
+            + session.getTimeLeftMillis()
+            + " ms left");
+    ChatController chatController = (ChatController) loadAndCacheScene("chat").getController();
+    chatController.restoreHistory(session.getTurns());
+    RoomController roomController = (RoomController) loadAndCacheScene("room").getController();
+    roomController.resumeTrial(session.getStateName(), session.getTimeLeftMillis());
+  }
+
+  /**
+   * Starts the first-use work (config, data files, prompt templates, the answer cache, the usage
+   * ledger, filler speech, the offline voice and the HTTP stack) in parallel so that it is ready by
+   * the time the player leaves the start menu.
+   */
+  private static void startWarmupTasks() {
+    StartupOrchestrator startup = StartupOrchestrator.getInstance();
+    startup.submit("config", ApiProxyConfig::readConfig);
+    startup.submit("professions", GameStateContext::loadProfessions);
+    startup.submit("journal", () -> SessionJournal.getInstance().open());
+    startup.submit("usage-ledger", UsageLedger::getInstance);
+    startup.submit("answer-cache", SemanticAnswerCache::getInstance);
+    startup.submit(
+        "prompts",
+        () -> {
+          PromptEngineering.preloadTemplates("LOGOS-09", "INDUS-07", "Evan", "evidence");
+          return null;
+        });
+    startup.submit(
+        "http",
+        () -> {
+          ConnectionWarmup.prepareTransport();
+          ConnectionWarmup.getInstance().warmAll();
+          return null;
+        },
+        "config");
+    startup.submit("fillers", () -> FillerClips.getInstance().prepare(), "config");
+    startup.submit("local-speech", () -> LocalSpeech.getInstance().warmUp());
+    if (DEBUG) {
+      startup.whenAllDone().thenRun(() -> System.out.println(startup.getReport()));
+    }
+  }
+
+  /**
+   * This method is invoked when the application starts. It shows the start menu and then preloads
+   * the other scenes in the background so that navigating to them is as fast as a cached scene.
    *
    * @param stage the primary stage of the application
    * @throws IOException if the "src/main/resources/fxml/room.fxml" file is not found
@@ -196,6 +323,8 @@ public class App extends Application {
   public void start(final Stage stage) throws IOException {
     primaryStage = stage; // Store reference to primary stage
 
+    startWarmupTasks();
+
     // Set up timer expired callback to force return to room
     GameTimer.getInstance()
         .setOnTimerExpired(
@@ -208,5 +337,15 @@ public class App extends Application {
     stage.setScene(scene);
     stage.show();
     scene.getRoot().requestFocus();
+
+    // Parse the remaining scenes in the background while the start menu is showing
+    scenePreloader.preload(
+        PRELOADED_SCENES,
+        (fxml, loaded) -> {
+          attachScene(fxml, loaded);
+          if (DEBUG && fxml.equals(PRELOADED_SCENES.get(PRELOADED_SCENES.size() - 1))) {
+            System.out.println(scenePreloader.getReport());
+          }
+        });
   }
 }
@@ -0,0 +1,249 @@
+package nz.ac.auckland.se206;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A countdown measured against a monotonic deadline rather than by counting ticks, so it does not
+ * drift when ticks are late. It has no JavaFX dependency: ticks and expiry are delivered on a
+ * background scheduler thread, and the remaining time can be read at any moment with millisecond
+ * precision.
+ */
+public final class CountdownClock {
+
+  /** Receives tick and expiry notifications from a {@link CountdownClock}. */
+  public interface Listener {
+
+    /**
+     * Called periodically while the clock is running.
+     *
+     * @param remainingMillis the time left in milliseconds
+     */
+    void onTick(long remainingMillis);
+
+    /** Called once when the clock reaches zero. */
+    void onExpired();
+  }
+
+  private static final long NANOS_PER_MILLI = 1_000_000L;
+
+  private final LongSupplier nanoClock;
+  private final ScheduledExecutorService scheduler;
+  private final long tickNanos;
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  private long durationNanos;
+  private long remainingNanos; // Only meaningful while not running
+  private long deadlineNanos; // Only meaningful while running
+  private boolean running = false;
+  private boolean expired = false;
+  private ScheduledFuture<?> nextTick;
+  private long tickGeneration = 0; // Lets a tick that was cancelled too late recognise itself
+
+  /**
+   * Creates a clock using {@link System#nanoTime()} and its own daemon scheduler thread.
+   *
+   * @param durationMillis the initial duration in milliseconds
+   * @param tickMillis how often listeners receive ticks, in milliseconds
+   */
+  public CountdownClock(long durationMillis, long tickMillis) {
+    this(
+        durationMillis,
+        tickMillis,
+        System::nanoTime,
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "countdown-clock");
+              thread.setDaemon(true);
+              return thread;
+            }));
+  }
+
+  /**
+   * Creates a clock with the given time source and scheduler.
+   *
+   * @param durationMillis the initial duration in milliseconds
+   * @param tickMillis how often listeners receive ticks, in milliseconds
+   * @param nanoClock the monotonic time source, in nanoseconds
+   * @param scheduler the scheduler used to deliver ticks and expiry
+   */
+  CountdownClock(
+      long durationMillis,
+      long tickMillis,
+      LongSupplier nanoClock,
+      ScheduledExecutorService scheduler) {
+    if (tickMillis < 1) {
+      throw new IllegalArgumentException("Tick interval must be at least 1 ms");
+    }
+    this.nanoClock = nanoClock;
+    this.scheduler = scheduler;
+    this.tickNanos = tickMillis * NANOS_PER_MILLI;
+    reset(durationMillis);
+  }
+
+  /**
+   * Adds a listener for ticks and expiry.
+   *
+   * @param listener the listener to add
+   */
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  /** Starts or resumes the countdown. Does nothing if it is running or has expired. */
+  public synchronized void start() {
+    if (running || expired) {
+      return;
+    }
+    running = true;
+    deadlineNanos = nanoClock.getAsLong() + remainingNanos;
+    scheduleNextTick();
+  }
+
+  /** Pauses the countdown, keeping the time left so that {@link #start()} can resume it. */
+  public synchronized void pause() {
+    if (!running) {
+      return;
+    }
+    remainingNanos = Math.max(0, deadlineNanos - nanoClock.getAsLong());
+    running = false;
+    cancelNextTick();
+  }
+
+  /**
+   * Stops the countdown and sets the time left to a new duration.
+   *
+   * @param durationMillis the new duration in milliseconds
+   */
+  public synchronized void reset(long durationMillis) {
+    if (durationMillis < 0) {
+      throw new IllegalArgumentException("Duration must not be negative");
+    }
+    cancelNextTick();
+    running = false;
+    expired = false;
+    durationNanos = durationMillis * NANOS_PER_MILLI;
+    remainingNanos = durationNanos;
+  }
+
+  /**
+   * Sets the time left without changing the duration or whether the clock is running.
+   *
+   * @param remainingMillis the new time left in milliseconds
+   */
+  public synchronized void setRemainingMillis(long remainingMillis) {
+    long nanos = Math.max(0, Math.min(remainingMillis * NANOS_PER_MILLI, durationNanos));
+    expired = false;
+    if (running) {
+      deadlineNanos = nanoClock.getAsLong() + nanos;
+      cancelNextTick();
+      scheduleNextTick();
+    } else {
+      remainingNanos = nanos;
+    }
+  }
+
+  /**
+   * Gets the time left.
+   *
+   * @return the time left in milliseconds
+   */
+  public synchronized long getRemainingMillis() {
+    return getRemainingNanos() / NANOS_PER_MILLI;
+  }
+
+  /**
+   * Gets the time left rounded up to whole seconds, as shown on a countdown display.
+   *
+   * @return the time left in whole seconds
+   */
+  public synchronized int getRemainingSeconds() {
+    return (int) ((getRemainingNanos() + 1_000 * NANOS_PER_MILLI - 1) / (1_000 * NANOS_PER_MILLI));
+  }
+
+  /**
+   * Gets the fraction of the duration that is left.
+   *
+   * @return a value between 0 and 1
+   */
+  public synchronized double getRemainingFraction() {
+    return durationNanos == 0 ? 0 : (double) getRemainingNanos() / durationNanos;
+  }
+
+  /**
+   * Gets the duration the clock was last reset to.
+   *
+   * @return the duration in milliseconds
+   */
+  public synchronized long getDurationMillis() {
+    return durationNanos / NANOS_PER_MILLI;
+  }
+
+  public synchronized boolean isRunning() {
+    return running;
+  }
+
+  public synchronized boolean isExpired() {
+    return expired;
+  }
+
+  private long getRemainingNanos() {
+    if (!running) {
+      return remainingNanos;
+    }
+    return Math.max(0, deadlineNanos - nanoClock.getAsLong());
+  }
+
+  /**
+   * Schedules the next tick on the next tick boundary counted back from the deadline, so ticks stay
+   * aligned with the displayed seconds however late the previous one ran.
+   */
+  private void scheduleNextTick() {
+    long left = deadlineNanos - nanoClock.getAsLong();
+    long delay = left <= 0 ? 0 : ((left - 1) % tickNanos) + 1;
+    long generation = tickGeneration;
+    nextTick = scheduler.schedule(() -> tick(generation), delay, TimeUnit.NANOSECONDS);
+  }
+
+  private void cancelNextTick() {
+    tickGeneration++;
+    if (nextTick != null) {
+      nextTick.cancel(false);
+      nextTick = null;
+    }
+  }
+
+  private void tick(long generation) {
+    long remainingMillis;
+    boolean justExpired = false;
+    synchronized (this) {
+      if (!running || generation != tickGeneration) {
+        return;
+      }
+      long left = deadlineNanos - nanoClock.getAsLong();
+      if (left <= 0) {
+        running = false;
+        expired = true;
+        remainingNanos = 0;
+        nextTick = null;
+        justExpired = true;
+      } else {
+        scheduleNextTick();
+      }
+      remainingMillis = Math.max(0, left) / NANOS_PER_MILLI;
+    }
+
+    // Notify outside the lock so listeners can call back into the clock
+    for (Listener listener : listeners) {
+      listener.onTick(remainingMillis);
+      if (justExpired) {
+        listener.onExpired();
+      }
+    }
+  }
+}
@@ -2,6 +2,7 @@ package nz.ac.auckland.se206;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -10,6 +11,7 @@ import java.util.Random;
 import java.util.Set;
 import javafx.scene.input.MouseEvent;
 import nz.ac.auckland.se206.controllers.RoomController;
+import nz.ac.auckland.se206.journal.SessionJournal;
 import nz.ac.auckland.se206.states.GameStarted;
 import nz.ac.auckland.se206.states.GameState;
 import nz.ac.auckland.se206.states.Guessing;
@@ -22,6 +24,35 @@ import org.yaml.snakeyaml.Yaml;
  */
 public class GameStateContext {
 
+  private static List<String> professions;
+
+  /**
+   * Loads the list of professions from the YAML data file. The file is only parsed once; later
+   * calls return the cached list, so this can be run ahead of time during startup.
+   *
+   * @return the list of professions
+   */
+  public static synchronized List<String> loadProfessions() {
+    if (professions == null) {
+      Map<String, Object> obj = null;
+      Yaml yaml = new Yaml();
+      try (InputStream inputStream =
+          GameStateContext.class.getClassLoader().getResourceAsStream("data/professions.yaml")) {
+        if (inputStream == null) {
+          throw new IllegalStateException("File not found!");
+        }
+        obj = yaml.load(inputStream);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+
+      @SuppressWarnings("unchecked")
+      List<String> loaded = (List<String>) obj.get("professions");
+      professions = Collections.unmodifiableList(loaded);
+    }
+    return professions;
+  }
+
   private final String rectIdToGuess;
   private final String professionToGuess;
   private final Map<String, String> rectanglesToProfession;
@@ -38,20 +69,7 @@ public class GameStateContext {
     guessingState = new Guessing(this);
 
     gameState = openingStatementState; // Initial state
-    Map<String, Object> obj = null;
-    Yaml yaml = new Yaml();
-    try (InputStream inputStream =
-        GameStateContext.class.getClassLoader().getResourceAsStream("data/professions.yaml")) {
-      if (inputStream == null) {
-        throw new IllegalStateException("File not found!");
-      }
-      obj = yaml.load(inputStream);
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-
-    @SuppressWarnings("unchecked")
-    List<String> professions = (List<String>) obj.get("professions");
+    List<String> professions = loadProfessions();
 
     Random random = new Random();
     Set<String> randomProfessions = new HashSet<>();
@@ -97,6 +115,7 @@ public class GameStateContext {
    */
   public void setState(GameState state) {
     this.gameState = state;
+    SessionJournal.getInstance().recordState(state.getClass().getSimpleName());
   }
 
   /**
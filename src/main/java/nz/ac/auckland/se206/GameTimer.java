@@ -1,15 +1,23 @@
 package nz.ac.auckland.se206;
 
-import java.util.ArrayList;
+import java.lang.ref.WeakReference;
 import java.util.List;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javafx.application.Platform;
+import javafx.beans.value.ObservableValue;
+import javafx.scene.Node;
+import javafx.scene.Scene;
 import javafx.scene.control.Label;
 import javafx.scene.shape.Arc;
-import javafx.util.Duration;
-
-/** This class manages a game timer that can be displayed on multiple UI labels. */
+import javafx.stage.Window;
+import nz.ac.auckland.se206.journal.SessionJournal;
+
+/**
+ * This class manages a game timer that can be displayed on multiple UI labels. The countdown itself
+ * is kept by a {@link CountdownClock}; this class only connects it to the JavaFX nodes that display
+ * it. Nodes are held weakly and only updated while their scene is showing.
+ */
 public class GameTimer {
 
   /** Callback interface for when the timer runs out. */
@@ -17,6 +25,9 @@ public class GameTimer {
     void onTimerExpired();
   }
 
+  private static final int DEFAULT_MAX_TIME = 120;
+  private static final long TICK_MILLIS = 100;
+
   private static GameTimer instance;
 
   /**
@@ -24,71 +35,95 @@ public class GameTimer {
    *
    * @return the GameTimer instance
    */
-  public static GameTimer getInstance() {
+  public static synchronized GameTimer getInstance() {
     if (instance == null) {
       instance = new GameTimer();
     }
     return instance;
   }
 
-  private Timeline timeline;
-  private int secondsLeft = 120;
-  private int maxTime = 120;
-  private boolean isRunning = false;
-  private List<Label> timerLabels = new ArrayList<>();
-  private List<Arc> timerArcs = new ArrayList<>();
-  private TimerExpiredCallback expiredCallback;
+  private final CountdownClock clock = new CountdownClock(DEFAULT_MAX_TIME * 1000L, TICK_MILLIS);
+  private final List<WeakReference<Label>> timerLabels = new CopyOnWriteArrayList<>();
+  private final List<WeakReference<Arc>> timerArcs = new CopyOnWriteArrayList<>();
+  private final AtomicBoolean displayUpdatePending = new AtomicBoolean(false);
+  private volatile TimerExpiredCallback expiredCallback;
 
   /** Private constructor for singleton pattern */
   private GameTimer() {
-    initializeTimer();
-  }
-
-  /** Initializes the JavaFX Timeline for the timer. */
-  private void initializeTimer() {
-    timeline =
-        new Timeline(
-            new KeyFrame(
-                Duration.seconds(1),
-                e -> {
-                  secondsLeft--;
-                  updateTimerDisplay();
-                  if (secondsLeft <= 0) {
-                    stop();
-                    // Call the callback when timer expires
-                    if (expiredCallback != null) {
-                      Platform.runLater(() -> expiredCallback.onTimerExpired());
-                    }
+    clock.addListener(
+        new CountdownClock.Listener() {
+          @Override
+          public void onTick(long remainingMillis) {
+            updateTimerDisplay();
+            SessionJournal.getInstance().recordTimer(remainingMillis);
+          }
+
+          @Override
+          public void onExpired() {
+            SessionJournal.getInstance().recordTimer(0);
+            // The clock runs on its own thread, so hand the callback to the FX thread
+            Platform.runLater(
+                () -> {
+                  if (expiredCallback != null) {
+                    expiredCallback.onTimerExpired();
                   }
-                }));
-    timeline.setCycleCount(Timeline.INDEFINITE);
+                });
+          }
+        });
   }
 
-  /** Starts the timer. */
+  /** Starts the timer, or resumes it if it was stopped. */
   public void start() {
-    if (!isRunning) {
-      timeline.play();
-      isRunning = true;
-    }
+    clock.start();
   }
 
-  /** Stops the timer. */
+  /** Stops the timer, keeping the time left. */
   public void stop() {
-    if (isRunning) {
-      timeline.stop();
-      isRunning = false;
-    }
+    clock.pause();
+  }
+
+  /** Pauses the timer. Equivalent to {@link #stop()}. */
+  public void pause() {
+    clock.pause();
+  }
+
+  /** Resumes a paused timer. Equivalent to {@link #start()}. */
+  public void resume() {
+    clock.start();
   }
 
-  /** Get the time left */
+  public boolean isRunning() {
+    return clock.isRunning();
+  }
+
+  /** Get the time left in whole seconds, rounded up */
   public int getTimeLeft() {
-    return secondsLeft;
+    return clock.getRemainingSeconds();
+  }
+
+  /** Get the time left in milliseconds */
+  public long getTimeLeftMillis() {
+    return clock.getRemainingMillis();
+  }
+
+  /**
+   * Sets the time left without changing the maximum time, for example when restoring a session.
+   *
+   * @param millis the time left in milliseconds
+   */
+  public void setTimeLeftMillis(long millis) {
+    clock.setRemainingMillis(millis);
+    updateTimerDisplay();
   }
 
   /** Get the maximum time */
+  public int getMaxTime() {
+    return (int) (clock.getDurationMillis() / 1000);
+  }
+
+  /** Sets the maximum time and resets the time left to it, stopping the timer */
   public int setMaxTime(int maxTime) {
-    this.maxTime = maxTime;
-    secondsLeft = maxTime;
+    clock.reset(maxTime * 1000L);
     return maxTime;
   }
 
@@ -103,43 +138,118 @@ public class GameTimer {
 
   /**
    * Registers a Label to display the timer. Multiple labels can be registered to show the timer in
-   * different scenes.
+   * different scenes. The label is held weakly and is refreshed whenever its scene is shown.
    *
    * @param label the Label to display the timer
    */
   public void registerTimerLabel(Label label) {
-    if (!timerLabels.contains(label)) {
-      timerLabels.add(label);
+    if (register(timerLabels, label)) {
       // Update the label immediately with current time (formatted with fixed width)
-      Platform.runLater(() -> label.setText(String.format("%3d", secondsLeft)));
+      Platform.runLater(() -> label.setText(formatSeconds(getTimeLeft())));
     }
   }
 
   /**
-   * Registers a Label to display the timer. Multiple labels can be registered to show the timer in
-   * different scenes.
+   * Registers an Arc to display the timer. Multiple arcs can be registered to show the timer in
+   * different scenes. The arc is held weakly and is refreshed whenever its scene is shown.
    *
-   * @param label the Label to display the timer
+   * @param arc the Arc to display the timer
    */
   public void registerTimerArc(Arc arc) {
-    if (!timerArcs.contains(arc)) {
-      timerArcs.add(arc);
+    if (register(timerArcs, arc)) {
       // Update the arc immediately with current time
-      Platform.runLater(() -> arc.setLength(360.0 * secondsLeft / maxTime));
+      Platform.runLater(() -> arc.setLength(360.0 * clock.getRemainingFraction()));
     }
   }
 
-  /** Updates all registered timer labels with the current time. */
+  /**
+   * Updates all registered timer nodes that are currently showing. Can be called from any thread;
+   * calls made before a pending update has run are merged into it.
+   */
   public void updateTimerDisplay() {
-    String timeString = String.format("%3d", secondsLeft);
-    Platform.runLater(
-        () -> {
-          for (Label label : timerLabels) {
-            label.setText(timeString);
-          }
-          for (Arc arc : timerArcs) {
-            arc.setLength(360.0 * secondsLeft / maxTime);
+    if (displayUpdatePending.compareAndSet(false, true)) {
+      Platform.runLater(
+          () -> {
+            displayUpdatePending.set(false);
+            applyToShowingNodes();
+          });
+    }
+  }
+
+  /**
+   * Adds a node to a list of weak references unless it is already there, and arranges for the
+   * display to be refreshed when the node's scene starts showing.
+   *
+   * @param nodes the list to add to
+   * @param node the node to add
+   * @return true if the node was added
+   */
+  private <T extends Node> boolean register(List<WeakReference<T>> nodes, T node) {
+    for (WeakReference<T> reference : nodes) {
+      if (reference.get() == node) {
+        return false;
+      }
+    }
+    nodes.add(new WeakReference<>(node));
+
+    // Hidden scenes are skipped by updates, so catch up as soon as this node is shown again
+    ObservableValue<Boolean> showing =
+        node.sceneProperty()
+            .flatMap(Scene::windowProperty)
+            .flatMap(Window::showingProperty)
+            .orElse(false);
+    showing.addListener(
+        (observable, wasShowing, isShowing) -> {
+          if (isShowing) {
+            updateTimerDisplay();
           }
         });
+    return true;
+  }
+
+  /** Applies the current time to every registered node that is showing. FX thread only. */
+  private void applyToShowingNodes() {
+    String timeString = formatSeconds(getTimeLeft());
+    double arcLength = 360.0 * clock.getRemainingFraction();
+
+    for (WeakReference<Label> reference : timerLabels) {
+      Label label = reference.get();
+      if (label == null) {
+        timerLabels.remove(reference);
+      } else if (isShowing(label) && !timeString.equals(label.getText())) {
+        label.setText(timeString);
+      }
+    }
+    for (WeakReference<Arc> reference : timerArcs) {
+      Arc arc = reference.get();
+      if (arc == null) {
+        timerArcs.remove(reference);
+      } else if (isShowing(arc)) {
+        arc.setLength(arcLength);
+      }
+    }
+  }
+
+  private static boolean isShowing(Node node) {
+    Scene scene = node.getScene();
+    return scene != null && scene.getWindow() != null && scene.getWindow().isShowing();
+  }
+
+  /**
+   * Formats a number of seconds right-aligned to a width of three characters.
+   *
+   * @param seconds the number of seconds
+   * @return the formatted seconds
+   */
+  private static String formatSeconds(int seconds) {
+    String digits = Integer.toString(seconds);
+    switch (digits.length()) {
+      case 1:
+        return "  " + digits;
+      case 2:
+        return " " + digits;
+      default:
+        return digits;
+    }
   }
 }
@@ -0,0 +1,176 @@
+package nz.ac.auckland.se206;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import javafx.application.Platform;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import nz.ac.auckland.se206.concurrent.BackgroundTasks;
+
+/**
+ * Parses FXML files in the background so that the first navigation to a scene does not pay for FXML
+ * parsing and controller construction on the JavaFX Application Thread. Parsed scene graphs are
+ * handed back to the FX thread one at a time so that each attach is a small slice of work.
+ */
+public class ScenePreloader {
+
+  /** The result of parsing an FXML file: the detached root node and its controller. */
+  public static class LoadedFxml {
+    private final Parent root;
+    private final Object controller;
+
+    public LoadedFxml(Parent root, Object controller) {
+      this.root = root;
+      this.controller = controller;
+    }
+
+    public Parent getRoot() {
+      return root;
+    }
+
+    public Object getController() {
+      return controller;
+    }
+  }
+
+  /** Timing information for a single scene. */
+  private static class LoadTiming {
+    private long parseNanos = -1;
+    private long attachNanos = -1;
+    private boolean preloaded = false;
+  }
+
+  private final Map<String, CompletableFuture<LoadedFxml>> pending = new ConcurrentHashMap<>();
+  private final Set<String> claimed = ConcurrentHashMap.newKeySet();
+  private final Map<String, LoadTiming> timings = new LinkedHashMap<>();
+
+  /**
+   * Parses the given FXML files on a background thread, in order. As each one finishes, the attach
+   * callback is invoked on the JavaFX Application Thread with the parsed scene graph.
+   *
+   * @param fxmls the names of the FXML files (without extension) to preload
+   * @param attach the callback used to attach a parsed scene graph on the FX thread
+   */
+  public void preload(List<String> fxmls, BiConsumer<String, LoadedFxml> attach) {
+    Map<String, CompletableFuture<LoadedFxml>> futures = new LinkedHashMap<>();
+    for (String fxml : fxmls) {
+      CompletableFuture<LoadedFxml> future = new CompletableFuture<>();
+      futures.put(fxml, future);
+      claimed.remove(fxml);
+      pending.put(fxml, future);
+    }
+
+    // FXML parsing is CPU-bound, so it runs on the shared platform thread pool. The loop works
+    // through the futures created here rather than looking them up, because take() removes a
+    // future from the pending map before waiting on it
+    BackgroundTasks.getInstance()
+        .cpuExecutor()
+        .execute(
+            () -> {
+              for (Map.Entry<String, CompletableFuture<LoadedFxml>> entry : futures.entrySet()) {
+                String fxml = entry.getKey();
+                if (!claimed.add(fxml)) {
+                  continue; // Already taken and loaded on the FX thread
+                }
+                try {
+                  LoadedFxml loaded = parse(fxml, true);
+                  entry.getValue().complete(loaded);
+                  Platform.runLater(() -> attach.accept(fxml, loaded));
+                } catch (IOException | RuntimeException e) {
+                  entry.getValue().completeExceptionally(e);
+                }
+              }
+            });
+  }
+
+  /**
+   * Takes the parsed scene graph for the given FXML file. If it has been preloaded it is returned
+   * immediately and if it is being parsed this waits for it. Otherwise it is claimed from the
+   * background loop and parsed on the calling thread, so this never waits behind scenes that are
+   * queued ahead of it.
+   *
+   * @param fxml the name of the FXML file (without extension)
+   * @return the parsed scene graph and controller
+   * @throws IOException if the FXML file is not found or cannot be parsed
+   */
+  public LoadedFxml take(String fxml) throws IOException {
+    CompletableFuture<LoadedFxml> future = pending.remove(fxml);
+    if (future != null && claimed.add(fxml)) {
+      // The background loop has not reached this scene yet, and now never will
+      try {
+        LoadedFxml loaded = parse(fxml, false);
+        future.complete(loaded);
+        return loaded;
+      } catch (IOException | RuntimeException e) {
+        future.completeExceptionally(e);
+        throw e;
+      }
+    }
+    if (future != null) {
+      try {
+        return future.join();
+      } catch (CompletionException e) {
+        System.out.println("Preloading " + fxml + " failed, loading it directly");
+      }
+    }
+    return parse(fxml, false);
+  }
+
+  /**
+   * Records how long it took to attach a parsed scene graph to its scene.
+   *
+   * @param fxml the name of the FXML file (without extension)
+   * @param attachNanos the attach time in nanoseconds
+   */
+  public synchronized void recordAttach(String fxml, long attachNanos) {
+    timings.computeIfAbsent(fxml, k -> new LoadTiming()).attachNanos = attachNanos;
+  }
+
+  /**
+   * Builds a report of how long each scene took to parse and attach.
+   *
+   * @return the per-scene load-time report
+   */
+  public synchronized String getReport() {
+    StringBuilder report = new StringBuilder("Scene load times:");
+    for (Map.Entry<String, LoadTiming> entry : timings.entrySet()) {
+      LoadTiming timing = entry.getValue();
+      report
+          .append("\n  ")
+          .append(entry.getKey())
+          .append(": parse ")
+          .append(toMillis(timing.parseNanos))
+          .append(" ms")
+          .append(timing.preloaded ? " (background)" : " (FX thread)")
+          .append(", attach ")
+          .append(toMillis(timing.attachNanos))
+          .append(" ms");
+    }
+    return report.toString();
+  }
+
+  private LoadedFxml parse(String fxml, boolean preloaded) throws IOException {
+    long start = System.nanoTime();
+    FXMLLoader loader = new FXMLLoader(App.class.getResource("/fxml/" + fxml + ".fxml"));
+    Parent root = loader.load();
+    long parseNanos = System.nanoTime() - start;
+
+    synchronized (this) {
+      LoadTiming timing = timings.computeIfAbsent(fxml, k -> new LoadTiming());
+      timing.parseNanos = parseNanos;
+      timing.preloaded = preloaded;
+    }
+    return new LoadedFxml(root, loader.getController());
+  }
+
+  private static String toMillis(long nanos) {
+    return nanos < 0 ? "-" : Long.toString(nanos / 1_000_000);
+  }
+}
@@ -0,0 +1,179 @@
+package nz.ac.auckland.se206;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import nz.ac.auckland.se206.concurrent.BackgroundTasks;
+
+/**
+ * Runs the application's first-use work (reading the config, parsing data files, loading prompt
+ * templates and so on) as a graph of tasks on virtual threads while the start menu is showing. A
+ * task starts as soon as all of the tasks it depends on have finished, and every task is timed.
+ */
+public class StartupOrchestrator {
+
+  /** Timing and outcome of a single startup task. */
+  private static class TaskRecord {
+    private final CompletableFuture<Object> future;
+    private volatile long startNanos = -1;
+    private volatile long durationNanos = -1;
+
+    private TaskRecord(CompletableFuture<Object> future) {
+      this.future = future;
+    }
+  }
+
+  private static StartupOrchestrator instance;
+
+  /**
+   * Gets the singleton instance of the StartupOrchestrator.
+   *
+   * @return the StartupOrchestrator instance
+   */
+  public static synchronized StartupOrchestrator getInstance() {
+    if (instance == null) {
+      instance = new StartupOrchestrator();
+    }
+    return instance;
+  }
+
+  private final ExecutorService executor = BackgroundTasks.getInstance().ioExecutor();
+  private final Map<String, TaskRecord> tasks = new LinkedHashMap<>();
+  private final long createdNanos = System.nanoTime();
+
+  /** Private constructor for singleton pattern */
+  private StartupOrchestrator() {}
+
+  /**
+   * Adds a task to the graph. The task runs on its own virtual thread once every task it depends on
+   * has completed. If a dependency fails, this task fails too without running.
+   *
+   * @param name the unique name of the task
+   * @param work the work to run
+   * @param dependsOn the names of tasks that must complete before this one starts
+   * @return a future for the task's result
+   */
+  public synchronized CompletableFuture<Object> submit(
+      String name, Callable<?> work, String... dependsOn) {
+    if (tasks.containsKey(name)) {
+      throw new IllegalArgumentException("Startup task '" + name + "' already exists");
+    }
+
+    List<CompletableFuture<Object>> dependencies = new ArrayList<>();
+    for (String dependency : dependsOn) {
+      TaskRecord record = tasks.get(dependency);
+      if (record == null) {
+        throw new IllegalArgumentException(
+            "Startup task '" + name + "' depends on unknown task '" + dependency + "'");
+      }
+      dependencies.add(record.future);
+    }
+
+    CompletableFuture<Object> future = new CompletableFuture<>();
+    TaskRecord record = new TaskRecord(future);
+    tasks.put(name, record);
+
+    CompletableFuture.allOf(dependencies.toArray(new CompletableFuture<?>[0]))
+        .whenComplete(
+            (ignored, dependencyError) -> {
+              if (dependencyError != null) {
+                future.completeExceptionally(dependencyError);
+                return;
+              }
+              executor.execute(
+                  () -> {
+                    record.startNanos = System.nanoTime();
+                    Object result = null;
+                    Throwable error = null;
+                    try {
+                      result = work.call();
+                    } catch (Throwable e) {
+                      error = e;
+                    }
+                    // Record the duration before completing so reports never see a gap
+                    record.durationNanos = System.nanoTime() - record.startNanos;
+                    if (error != null) {
+                      future.completeExceptionally(error);
+                    } else {
+                      future.complete(result);
+                    }
+                  });
+            });
+    return future;
+  }
+
+  /**
+   * Gets the result of a task only if it has already finished successfully.
+   *
+   * @param name the name of the task
+   * @return the task's result, or null if it is not ready
+   */
+  public synchronized Object getIfReady(String name) {
+    TaskRecord record = tasks.get(name);
+    if (record == null || !record.future.isDone() || record.future.isCompletedExceptionally()) {
+      return null;
+    }
+    return record.future.join();
+  }
+
+  /**
+   * Returns a future that completes once every task submitted so far has finished, successfully or
+   * not.
+   *
+   * @return a future for the whole graph
+   */
+  public synchronized CompletableFuture<Void> whenAllDone() {
+    List<CompletableFuture<Object>> futures = new ArrayList<>();
+    for (TaskRecord record : tasks.values()) {
+      futures.add(record.future.exceptionally(e -> null));
+    }
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+  }
+
+  /**
+   * Gets how long each finished task took to run, in milliseconds.
+   *
+   * @return the task durations keyed by task name, in submission order
+   */
+  public synchronized Map<String, Long> getTimings() {
+    Map<String, Long> timings = new LinkedHashMap<>();
+    for (Map.Entry<String, TaskRecord> entry : tasks.entrySet()) {
+      long duration = entry.getValue().durationNanos;
+      if (duration >= 0) {
+        timings.put(entry.getKey(), duration / 1_000_000);
+      }
+    }
+    return timings;
+  }
+
+  /**
+   * Builds a report of when each task started, how long it ran and whether it succeeded.
+   *
+   * @return the startup report
+   */
+  public synchronized String getReport() {
+    StringBuilder report = new StringBuilder("Startup tasks:");
+    for (Map.Entry<String, TaskRecord> entry : tasks.entrySet()) {
+      TaskRecord record = entry.getValue();
+      report.append("\n  ").append(entry.getKey()).append(": ");
+      if (!record.future.isDone()) {
+        report.append("running");
+        continue;
+      }
+      if (record.startNanos >= 0) {
+        report
+            .append("started +")
+            .append((record.startNanos - createdNanos) / 1_000_000)
+            .append(" ms, took ")
+            .append(record.durationNanos / 1_000_000)
+            .append(" ms");
+      }
+      report.append(record.future.isCompletedExceptionally() ? " (failed)" : " (ok)");
+    }
+    return report.toString();
+  }
+}
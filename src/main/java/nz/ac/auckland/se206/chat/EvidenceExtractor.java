@@ -0,0 +1,158 @@
+package nz.ac.auckland.se206.chat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.se206.concurrent.BackgroundTasks;
+import nz.ac.auckland.se206.prompts.PromptEngineering;
+
+/**
+ * Updates the {@link EvidenceLog} in the background after every chat exchange, using a small model
+ * to fold the new exchange into the character's notes. Updates for the same character run one at a
+ * time, in order, so no exchange is lost; different characters are updated in parallel.
+ */
+public class EvidenceExtractor {
+
+  private static EvidenceExtractor instance;
+
+  /**
+   * Gets the singleton instance of the EvidenceExtractor.
+   *
+   * @return the EvidenceExtractor instance
+   */
+  public static synchronized EvidenceExtractor getInstance() {
+    if (instance == null) {
+      instance = new EvidenceExtractor();
+    }
+    return instance;
+  }
+
+  private final EvidenceLog log = new EvidenceLog();
+  // The latest pending update for each character, which the next update waits for
+  private final Map<String, CompletableFuture<Void>> pending = new HashMap<>();
+
+  /** Private constructor for singleton pattern */
+  private EvidenceExtractor() {}
+
+  /**
+   * Gets the evidence log kept by this extractor.
+   *
+   * @return the evidence log
+   */
+  public EvidenceLog getLog() {
+    return log;
+  }
+
+  /**
+   * Queues an exchange with a character to be added to the character's notes.
+   *
+   * @param character the name of the character
+   * @param question what the player asked, or null if the character spoke unprompted
+   * @param answer what the character said
+   */
+  public synchronized void submitExchange(String character, String question, String answer) {
+    CompletableFuture<Void> previous =
+        pending.getOrDefault(character, CompletableFuture.completedFuture(null));
+    // A failed update must not stop later ones for the same character
+    pending.put(
+        character,
+        previous
+            .exceptionally(e -> null)
+            .thenRunAsync(
+                () -> extract(character, question, answer),
+                BackgroundTasks.getInstance().ioExecutor()));
+  }
+
+  /**
+   * Waits for the queued updates to finish, up to the given time. The log can be read without
+   * waiting, but it may not include the latest exchanges yet.
+   *
+   * @param timeoutMillis the longest time to wait
+   * @return true if every queued update finished in time
+   */
+  public boolean awaitIdle(long timeoutMillis) {
+    Collection<CompletableFuture<Void>> updates;
+    synchronized (this) {
+      updates = new ArrayList<>(pending.values());
+    }
+    try {
+      CompletableFuture.allOf(updates.toArray(new CompletableFuture<?>[0]))
+          .get(timeoutMillis, TimeUnit.MILLISECONDS);
+      return true;
+    } catch (ExecutionException | TimeoutException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Asks the model to update a character's notes with one exchange. Failures are logged and leave
+   * the notes as they were.
+   */
+  private void extract(String character, String question, String answer) {
+    Map<String, String> data = new HashMap<>();
+    data.put("character", character);
+    data.put("maxNotes", String.valueOf(EvidenceLog.MAX_NOTES_PER_CHARACTER));
+    data.put("notes", formatNotes(log.getNotes(character)));
+    data.put(
+        "exchange",
+        (question == null ? "" : "Judge: " + question + "\n") + character + ": " + answer);
+
+    try {
+      ChatCompletionRequest request =
+          new ChatCompletionRequest(ApiProxyConfig.readConfig())
+              .setN(1)
+              .setTemperature(0)
+              .setMaxTokens(300)
+              .addMessage(new ChatMessage("system", PromptEngineering.getPrompt("evidence", data)));
+      String reply =
+          ModelRouter.getInstance()
+              .execute(ModelRouter.CallType.EVIDENCE, character, request)
+              .getChoices()
+              .iterator()
+              .next()
+              .getChatMessage()
+              .getContent();
+      List<String> notes = parseNotes(reply);
+      if (!notes.isEmpty()) {
+        log.setNotes(character, notes);
+      }
+    } catch (ApiProxyException e) {
+      System.out.println("Evidence extraction for " + character + " failed: " + e.getMessage());
+    }
+  }
+
+  private static String formatNotes(List<String> notes) {
+    if (notes.isEmpty()) {
+      return "(none yet)";
+    }
+    StringBuilder text = new StringBuilder();
+    for (String note : notes) {
+      text.append("- ").append(note).append("\n");
+    }
+    return text.toString();
+  }
+
+  private static List<String> parseNotes(String reply) {
+    List<String> notes = new ArrayList<>();
+    for (String line : reply.split("\n")) {
+      String trimmed = line.trim();
+      if (trimmed.startsWith("- ")) {
+        notes.add(trimmed.substring(2));
+      }
+    }
+    return notes;
+  }
+}
@@ -0,0 +1,93 @@
+package nz.ac.auckland.se206.chat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact notes on the claims and evidence each character has given, kept up to date as the player
+ * chats. The number and length of notes per character are capped, so the log stays the same size
+ * however long the session runs. Safe to read and update from any thread.
+ */
+public class EvidenceLog {
+
+  /** The most notes kept for one character. */
+  public static final int MAX_NOTES_PER_CHARACTER = 8;
+
+  /** The longest a single note can be, in characters. */
+  public static final int MAX_NOTE_LENGTH = 200;
+
+  // Replaced as a whole on every update, so readers always see a consistent log
+  private volatile Map<String, List<String>> notes = Collections.emptyMap();
+
+  /**
+   * Gets the notes for one character.
+   *
+   * @param character the name of the character
+   * @return the character's notes, which may be empty
+   */
+  public List<String> getNotes(String character) {
+    return notes.getOrDefault(character, Collections.emptyList());
+  }
+
+  /**
+   * Replaces the notes for one character, dropping any past the per-character limit and shortening
+   * any that are too long.
+   *
+   * @param character the name of the character
+   * @param updated the new notes
+   */
+  public synchronized void setNotes(String character, List<String> updated) {
+    List<String> capped = new ArrayList<>();
+    for (String note : updated) {
+      if (capped.size() == MAX_NOTES_PER_CHARACTER) {
+        break;
+      }
+      String trimmed = note.trim();
+      if (!trimmed.isEmpty()) {
+        capped.add(
+            trimmed.length() > MAX_NOTE_LENGTH ? trimmed.substring(0, MAX_NOTE_LENGTH) : trimmed);
+      }
+    }
+
+    Map<String, List<String>> copy = new LinkedHashMap<>(notes);
+    copy.put(character, Collections.unmodifiableList(capped));
+    notes = Collections.unmodifiableMap(copy);
+  }
+
+  /**
+   * Returns whether any notes have been recorded.
+   *
+   * @return true if there are no notes
+   */
+  public boolean isEmpty() {
+    for (List<String> characterNotes : notes.values()) {
+      if (!characterNotes.isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Formats the notes for a prompt, grouped by character.
+   *
+   * @return the formatted notes
+   */
+  public String render() {
+    StringBuilder text = new StringBuilder();
+    for (Map.Entry<String, List<String>> entry : notes.entrySet()) {
+      if (entry.getValue().isEmpty()) {
+        continue;
+      }
+      text.append(entry.getKey()).append(":\n");
+      for (String note : entry.getValue()) {
+        text.append("- ").append(note).append("\n");
+      }
+      text.append("\n");
+    }
+    return text.toString();
+  }
+}
@@ -0,0 +1,180 @@
+package nz.ac.auckland.se206.chat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Locality-sensitive hashing index over MinHash signatures. Each item is summarised by a signature
+ * of {@code bands * rows} minimum hashes of its shingles, so that the fraction of matching hashes
+ * estimates the Jaccard similarity of two shingle sets. Signatures are split into bands, and two
+ * items become candidates for each other when any band matches exactly, which finds similar items
+ * without comparing against every item in the index.
+ *
+ * <p>Not thread safe.
+ *
+ * @param <T> the type of the indexed items
+ */
+public class MinHashLsh<T> {
+
+  /** A candidate found by a query, with its estimated similarity. */
+  public static class Match<T> {
+    private final T item;
+    private final double similarity;
+
+    private Match(T item, double similarity) {
+      this.item = item;
+      this.similarity = similarity;
+    }
+
+    /**
+     * Gets the matched item.
+     *
+     * @return the item
+     */
+    public T getItem() {
+      return item;
+    }
+
+    /**
+     * Gets the estimated Jaccard similarity between the query and the item.
+     *
+     * @return the similarity between 0 and 1
+     */
+    public double getSimilarity() {
+      return similarity;
+    }
+  }
+
+  private final int bands;
+  private final int rows;
+  private final long[] seeds;
+  private final List<Map<Long, List<Integer>>> buckets = new ArrayList<>();
+  private final List<T> items = new ArrayList<>();
+  private final List<long[]> signatures = new ArrayList<>();
+
+  /**
+   * Creates an empty index. More rows per band makes candidates stricter; more bands makes them
+   * more lenient.
+   *
+   * @param bands the number of bands
+   * @param rows the number of hashes in each band
+   * @param seed the seed for the hash functions, which must match between indexes to compare
+   */
+  public MinHashLsh(int bands, int rows, long seed) {
+    if (bands < 1 || rows < 1) {
+      throw new IllegalArgumentException("Bands and rows must be at least 1");
+    }
+    this.bands = bands;
+    this.rows = rows;
+    this.seeds = new SplittableRandom(seed).longs(bands * rows).toArray();
+    for (int i = 0; i < bands; i++) {
+      buckets.add(new HashMap<>());
+    }
+  }
+
+  /**
+   * Adds an item to the index.
+   *
+   * @param shingles the item's shingles, which must not be empty
+   * @param item the item
+   */
+  public void add(Set<String> shingles, T item) {
+    long[] signature = signature(shingles);
+    int id = items.size();
+    items.add(item);
+    signatures.add(signature);
+    for (int band = 0; band < bands; band++) {
+      buckets.get(band).computeIfAbsent(bandKey(signature, band), k -> new ArrayList<>()).add(id);
+    }
+  }
+
+  /**
+   * Finds the most similar indexed item, if it is similar enough.
+   *
+   * @param shingles the query's shingles
+   * @param threshold the lowest estimated similarity to accept
+   * @return the best match, or null if no candidate reaches the threshold
+   */
+  public Match<T> findBest(Set<String> shingles, double threshold) {
+    if (shingles.isEmpty()) {
+      return null;
+    }
+    long[] signature = signature(shingles);
+    Set<Integer> candidates = new LinkedHashSet<>();
+    for (int band = 0; band < bands; band++) {
+      candidates.addAll(buckets.get(band).getOrDefault(bandKey(signature, band), List.of()));
+    }
+
+    Match<T> best = null;
+    for (int id : candidates) {
+      double similarity = similarity(signature, signatures.get(id));
+      if (similarity >= threshold && (best == null || similarity > best.similarity)) {
+        best = new Match<>(items.get(id), similarity);
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Gets the number of indexed items.
+   *
+   * @return the item count
+   */
+  public int size() {
+    return items.size();
+  }
+
+  private long[] signature(Set<String> shingles) {
+    long[] signature = new long[seeds.length];
+    Arrays.fill(signature, Long.MAX_VALUE);
+    for (String shingle : shingles) {
+      long hash = fnv1a(shingle);
+      for (int i = 0; i < seeds.length; i++) {
+        signature[i] = Math.min(signature[i], mix(hash ^ seeds[i]));
+      }
+    }
+    return signature;
+  }
+
+  private long bandKey(long[] signature, int band) {
+    long key = band;
+    for (int i = band * rows; i < (band + 1) * rows; i++) {
+      key = mix(key * 31 + signature[i]);
+    }
+    return key;
+  }
+
+  private static double similarity(long[] a, long[] b) {
+    int same = 0;
+    for (int i = 0; i < a.length; i++) {
+      if (a[i] == b[i]) {
+        same++;
+      }
+    }
+    return (double) same / a.length;
+  }
+
+  /** 64-bit FNV-1a over the UTF-8 bytes, so hashes do not depend on the JVM. */
+  private static long fnv1a(String text) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /** The SplitMix64 finaliser, which turns each seed into an independent hash function. */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,286 @@
+package nz.ac.auckland.se206.chat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionResult;
+import nz.ac.auckland.apiproxy.chat.openai.Choice;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Chooses the model for each chat completion by the kind of call. Each kind of call has a list of
+ * models in order of preference and a latency budget, read from {@code data/models.yaml}. The
+ * router keeps the recent latencies and outcomes of every model for every kind of call, and uses
+ * the first model whose 95th percentile latency fits the budget and which is not failing. If a call
+ * fails, it is retried once on the next model. Routing changes are logged.
+ */
+public class ModelRouter {
+
+  /** The kinds of call that are routed separately. */
+  public enum CallType {
+    CHAT,
+    SUGGESTION,
+    EVIDENCE,
+    DEBRIEF
+  }
+
+  /** The recent calls to one model for one kind of call. */
+  private static class Window {
+    private final Deque<long[]> calls = new ArrayDeque<>(); // {time, latency, failed}
+
+    private void add(long latencyMillis, boolean failed, int size) {
+      calls.addLast(new long[] {System.currentTimeMillis(), latencyMillis, failed ? 1 : 0});
+      while (calls.size() > size) {
+        calls.removeFirst();
+      }
+    }
+
+    private void dropOlderThan(long cutoff) {
+      while (!calls.isEmpty() && calls.peekFirst()[0] < cutoff) {
+        calls.removeFirst();
+      }
+    }
+
+    private long p95() {
+      long[] latencies = calls.stream().mapToLong(call -> call[1]).toArray();
+      Arrays.sort(latencies);
+      return latencies[(int) Math.ceil(latencies.length * 0.95) - 1];
+    }
+
+    private double failureRate() {
+      return calls.stream().filter(call -> call[2] == 1).count() / (double) calls.size();
+    }
+  }
+
+  /** The models and latency budget for one kind of call. */
+  private static class Route {
+    private final List<Model> models = new ArrayList<>();
+    private long budgetMillis = 5000;
+    private final Map<Model, Window> windows = new EnumMap<>(Model.class);
+    private Model lastChoice = null;
+  }
+
+  private static ModelRouter instance;
+
+  /**
+   * Gets the singleton instance of the ModelRouter, reading the routes the first time it is called.
+   *
+   * @return the ModelRouter instance
+   */
+  public static synchronized ModelRouter getInstance() {
+    if (instance == null) {
+      instance = new ModelRouter();
+    }
+    return instance;
+  }
+
+  private final Map<CallType, Route> routes = new EnumMap<>(CallType.class);
+  private int window = 20;
+  private long staleAfterMillis = 180000;
+  private int minSamples = 5;
+  private double maxFailureRate = 0.3;
+
+  /** Private constructor for singleton pattern */
+  @SuppressWarnings("unchecked")
+  private ModelRouter() {
+    Map<String, Object> obj = new HashMap<>();
+    try (InputStream inputStream =
+        ModelRouter.class.getClassLoader().getResourceAsStream("data/models.yaml")) {
+      obj = new Yaml().load(inputStream);
+    } catch (IOException | RuntimeException e) {
+      e.printStackTrace();
+    }
+    window = ((Number) obj.getOrDefault("window", window)).intValue();
+    staleAfterMillis =
+        ((Number) obj.getOrDefault("staleAfterMillis", staleAfterMillis)).longValue();
+    minSamples = ((Number) obj.getOrDefault("minSamples", minSamples)).intValue();
+    maxFailureRate = ((Number) obj.getOrDefault("maxFailureRate", maxFailureRate)).doubleValue();
+
+    Map<String, Map<String, Object>> configured =
+        (Map<String, Map<String, Object>>) obj.getOrDefault("routes", Map.of());
+    for (CallType type : CallType.values()) {
+      Route route = new Route();
+      Map<String, Object> settings = configured.get(type.name());
+      if (settings != null) {
+        route.budgetMillis = ((Number) settings.get("budgetMillis")).longValue();
+        for (String model : (List<String>) settings.get("models")) {
+          route.models.add(Model.valueOf(model));
+        }
+      }
+      if (route.models.isEmpty()) {
+        route.models.add(Model.GPT_4o_MINI);
+      }
+      routes.put(type, route);
+    }
+  }
+
+  /**
+   * Chooses the model for a kind of call.
+   *
+   * @param type the kind of call
+   * @return the model to use
+   */
+  public synchronized Model choose(CallType type) {
+    Route route = routes.get(type);
+    long cutoff = System.currentTimeMillis() - staleAfterMillis;
+    Model choice = null;
+    Model fastest = null;
+    long fastestP95 = Long.MAX_VALUE;
+    StringBuilder reason = new StringBuilder();
+    for (Model model : route.models) {
+      Window calls = route.windows.computeIfAbsent(model, k -> new Window());
+      calls.dropOlderThan(cutoff);
+      if (calls.calls.size() < minSamples) {
+        choice = model;
+        break;
+      }
+      long p95 = calls.p95();
+      double failureRate = calls.failureRate();
+      if (p95 <= route.budgetMillis && failureRate <= maxFailureRate) {
+        choice = model;
+        break;
+      }
+      reason.append(
+          String.format(
+              " %s p95 %d ms of %d ms budget, %.0f%% failing;",
+              model, p95, route.budgetMillis, failureRate * 100));
+      if (failureRate <= maxFailureRate && p95 < fastestP95) {
+        fastest = model;
+        fastestP95 = p95;
+      }
+    }
+    // Nothing fits the budget, so settle for the fastest working model
+    if (choice == null) {
+      choice = fastest != null ? fastest : route.models.get(0);
+    }
+
+    if (choice != route.lastChoice) {
+      System.out.println("Model routing: " + type + " uses " + choice + "." + reason);
+      route.lastChoice = choice;
+    }
+    return choice;
+  }
+
+  /**
+   * Records the outcome of a call.
+   *
+   * @param type the kind of call
+   * @param model the model that was used
+   * @param latencyMillis how long the call took
+   * @param failed whether the call failed or its reply was unusable
+   */
+  public synchronized void record(CallType type, Model model, long latencyMillis, boolean failed) {
+    routes
+        .get(type)
+        .windows
+        .computeIfAbsent(model, k -> new Window())
+        .add(latencyMillis, failed, window);
+  }
+
+  /**
+   * Executes a request on the model chosen for its kind of call, retrying once on the next model if
+   * it fails. The request itself is left unchanged.
+   *
+   * @param type the kind of call
+   * @param request the request to execute
+   * @return the result
+   * @throws ApiProxyException if the call failed on every model tried
+   */
+  public ChatCompletionResult execute(CallType type, ChatCompletionRequest request)
+      throws ApiProxyException {
+    return execute(type, null, request);
+  }
+
+  /**
+   * Executes a request for a character on the model chosen for its kind of call, retrying once on
+   * the next model if it fails, and records its usage in the {@link UsageLedger}. Once the session
+   * is over its degrade threshold, the request is sent to the ledger's degraded model instead, with
+   * its reply limit scaled down, and is not retried. The request itself is left unchanged.
+   *
+   * @param type the kind of call
+   * @param character the character the call is for, or null if it is not for one
+   * @param request the request to execute
+   * @return the result
+   * @throws ApiProxyException if the session's budget does not allow the call, or the call failed
+   *     on every model tried
+   */
+  public ChatCompletionResult execute(
+      CallType type, String character, ChatCompletionRequest request) throws ApiProxyException {
+    UsageLedger ledger = UsageLedger.getInstance();
+    if (!ledger.admit(type, character)) {
+      throw new ApiProxyException(
+          "Skipped " + type + " call, the session's token budget is " + ledger.getLevel());
+    }
+    boolean degraded = ledger.getLevel() != UsageLedger.Level.NORMAL;
+    Model model;
+    if (degraded) {
+      request = ledger.degrade(request);
+      model = ledger.getDegradedModel();
+    } else {
+      model = choose(type);
+    }
+
+    try {
+      return execute(type, character, request, model);
+    } catch (ApiProxyException e) {
+      // A degraded call is not retried, since the route's other models cost more
+      Model fallback = degraded ? null : next(type, model);
+      if (fallback == null) {
+        throw e;
+      }
+      System.out.println(
+          "Model routing: " + type + " failed on " + model + ", retrying on " + fallback);
+      return execute(type, character, request, fallback);
+    }
+  }
+
+  private ChatCompletionResult execute(
+      CallType type, String character, ChatCompletionRequest request, Model model)
+      throws ApiProxyException {
+    long start = System.currentTimeMillis();
+    try {
+      ChatCompletionResult result = request.copy().setModel(model).execute();
+      long latency = System.currentTimeMillis() - start;
+      Choice choice = result.getChoices().iterator().next();
+      // A reply cut short or left empty counts against the model even though the call worked
+      boolean unusable =
+          "length".equals(choice.getFinishReason())
+              || choice.getChatMessage().getContent() == null
+              || choice.getChatMessage().getContent().isBlank();
+      record(type, model, latency, unusable);
+      UsageLedger.getInstance()
+          .record(
+              type,
+              character,
+              model,
+              result.getUsagePromptTokens(),
+              result.getUsageCompletionTokens(),
+              latency,
+              false);
+      return result;
+    } catch (ApiProxyException | RuntimeException e) {
+      long latency = System.currentTimeMillis() - start;
+      record(type, model, latency, true);
+      UsageLedger.getInstance().record(type, character, model, 0, 0, latency, true);
+      throw e;
+    }
+  }
+
+  private synchronized Model next(CallType type, Model model) {
+    List<Model> models = routes.get(type).models;
+    if (models.size() < 2) {
+      return null;
+    }
+    return models.get((models.indexOf(model) + 1) % models.size());
+  }
+}
@@ -0,0 +1,119 @@
+package nz.ac.auckland.se206.chat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reduces a question to a canonical form so that different phrasings of the same question look
+ * alike. The question is lower-cased, punctuation is dropped, synonyms are replaced by one chosen
+ * word, filler words are removed and common endings are stripped. The result is then cut into word
+ * shingles for {@link MinHashLsh}.
+ *
+ * <p>Shingles are whole words and runs of words rather than runs of characters, since questions
+ * that differ in one word, such as "increase" and "decrease", share most of their characters but
+ * mean the opposite.
+ */
+public class QuestionNormalizer {
+
+  private final Set<String> stopWords;
+  // Longest phrases first, so "what time" is replaced before "time"
+  private final Map<String, String> synonyms = new LinkedHashMap<>();
+  private final int shingleSize;
+
+  /**
+   * Creates a normalizer.
+   *
+   * @param stopWords words that carry no meaning on their own and are dropped
+   * @param synonyms words or phrases mapped to the word that replaces them
+   * @param shingleSize the most words in one shingle
+   */
+  public QuestionNormalizer(Set<String> stopWords, Map<String, String> synonyms, int shingleSize) {
+    if (shingleSize < 1) {
+      throw new IllegalArgumentException("Shingle size must be at least 1");
+    }
+    this.stopWords = new HashSet<>(stopWords);
+    this.shingleSize = shingleSize;
+    List<String> phrases = new ArrayList<>(synonyms.keySet());
+    phrases.sort((a, b) -> b.length() - a.length());
+    for (String phrase : phrases) {
+      this.synonyms.put(" " + clean(phrase) + " ", " " + clean(synonyms.get(phrase)) + " ");
+    }
+  }
+
+  /**
+   * Gets the canonical form of a question.
+   *
+   * @param question the question as the player typed it
+   * @return the canonical words separated by single spaces, which may be empty
+   */
+  public String normalize(String question) {
+    // Pad with spaces so that phrases only match whole words
+    String text = " " + clean(question) + " ";
+    for (Map.Entry<String, String> synonym : synonyms.entrySet()) {
+      text = text.replace(synonym.getKey(), synonym.getValue());
+    }
+
+    StringBuilder normalized = new StringBuilder();
+    for (String word : text.trim().split(" ")) {
+      if (word.isEmpty() || stopWords.contains(word)) {
+        continue;
+      }
+      if (normalized.length() > 0) {
+        normalized.append(' ');
+      }
+      normalized.append(stem(word));
+    }
+    return normalized.toString();
+  }
+
+  /**
+   * Cuts a normalized question into word shingles: every word, and every run of consecutive words
+   * up to the shingle size. Runs keep some of the word order, so that "who sent the order" and "who
+   * received the order" differ in more than the one word.
+   *
+   * @param normalized the output of {@link #normalize(String)}
+   * @return the distinct shingles
+   */
+  public Set<String> shingles(String normalized) {
+    Set<String> shingles = new HashSet<>();
+    if (normalized.isEmpty()) {
+      return shingles;
+    }
+    String[] words = normalized.split(" ");
+    for (int i = 0; i < words.length; i++) {
+      StringBuilder shingle = new StringBuilder(words[i]);
+      shingles.add(shingle.toString());
+      for (int j = i + 1; j < Math.min(words.length, i + shingleSize); j++) {
+        shingle.append(' ').append(words[j]);
+        shingles.add(shingle.toString());
+      }
+    }
+    return shingles;
+  }
+
+  private static String clean(String text) {
+    return text.toLowerCase(Locale.ROOT)
+        .replaceAll("[^\\p{L}\\p{N}]+", " ")
+        .replaceAll(" +", " ")
+        .trim();
+  }
+
+  /** Strips a few common English endings. Crude, but the same words always stem the same way. */
+  private static String stem(String word) {
+    if (word.length() > 5 && word.endsWith("ing")) {
+      return word.substring(0, word.length() - 3);
+    }
+    if (word.length() > 4 && word.endsWith("ed")) {
+      return word.substring(0, word.length() - 2);
+    }
+    if (word.length() > 3 && word.endsWith("s") && !word.endsWith("ss")) {
+      return word.substring(0, word.length() - 1);
+    }
+    return word;
+  }
+}
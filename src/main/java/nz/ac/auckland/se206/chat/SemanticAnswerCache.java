@@ -0,0 +1,402 @@
+package nz.ac.auckland.se206.chat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import nz.ac.auckland.se206.App;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Remembers the answers characters gave to opening questions, so that when a later player asks a
+ * near-duplicate question at the start of a conversation the answer can be given straight away.
+ * Questions are normalized by {@link QuestionNormalizer} and looked up per character in a {@link
+ * MinHashLsh} index.
+ *
+ * <p>The index starts from a seed file of hand-written answers and grows with the answers the model
+ * gives, which are saved in the user's home directory along with their speech so the cache lasts
+ * across sessions. Thresholds and normalization rules are read from {@code semantic-cache.yaml} in
+ * the working directory if there is one, or else from the copy bundled with the game.
+ */
+public class SemanticAnswerCache {
+
+  /** A cached answer found for a question. */
+  public static class Answer {
+    private final String question;
+    private final String text;
+    private final double similarity;
+    private final Path audioFile;
+
+    private Answer(String question, String text, double similarity, Path audioFile) {
+      this.question = question;
+      this.text = text;
+      this.similarity = similarity;
+      this.audioFile = audioFile;
+    }
+
+    /**
+     * Gets the question the answer was originally given to.
+     *
+     * @return the cached question
+     */
+    public String getQuestion() {
+      return question;
+    }
+
+    /**
+     * Gets the text of the answer.
+     *
+     * @return the answer
+     */
+    public String getText() {
+      return text;
+    }
+
+    /**
+     * Gets the estimated similarity between the asked and cached questions.
+     *
+     * @return the similarity between 0 and 1
+     */
+    public double getSimilarity() {
+      return similarity;
+    }
+
+    /**
+     * Reads the saved speech for the answer.
+     *
+     * @return the MP3 audio, or null if there is none or it cannot be read
+     */
+    public byte[] loadAudio() {
+      if (audioFile == null) {
+        return null;
+      }
+      try {
+        return Files.readAllBytes(audioFile);
+      } catch (IOException e) {
+        System.out.println("Unable to read cached speech " + audioFile + ": " + e.getMessage());
+        return null;
+      }
+    }
+  }
+
+  /** One cached question and its answer. */
+  private static class Entry {
+    private final String question;
+    private final String answer;
+    private final String audio;
+
+    private Entry(String question, String answer, String audio) {
+      this.question = question;
+      this.answer = answer;
+      this.audio = audio;
+    }
+  }
+
+  private static final long HASH_SEED = 0x5e3a9c1d2b7f4e60L;
+
+  private static SemanticAnswerCache instance;
+
+  /**
+   * Gets the singleton instance of the SemanticAnswerCache, loading its settings, the seed answers
+   * and the answers learned in earlier sessions the first time it is called.
+   *
+   * @return the SemanticAnswerCache instance
+   */
+  public static synchronized SemanticAnswerCache getInstance() {
+    if (instance == null) {
+      instance =
+          new SemanticAnswerCache(
+              loadSettings(), Paths.get(System.getProperty("user.home"), ".trial-ai"));
+      instance.loadSeed();
+      instance.loadLearned();
+    }
+    return instance;
+  }
+
+  private final QuestionNormalizer normalizer;
+  private final int bands;
+  private final int rows;
+  private final double defaultThreshold;
+  private final Map<String, Double> thresholds = new HashMap<>();
+  private final int maxLearnedPerCharacter;
+  private final String seedFile;
+  private final Path cacheFile;
+  private final Path audioDirectory;
+
+  private final Map<String, MinHashLsh<Entry>> indexes = new HashMap<>();
+  private final Map<String, List<Entry>> learned = new LinkedHashMap<>();
+  private int hits = 0;
+  private int misses = 0;
+
+  /**
+   * Creates an empty cache.
+   *
+   * @param settings the settings, as read from {@code semantic-cache.yaml}
+   * @param directory the directory to save learned answers and their speech in
+   */
+  @SuppressWarnings("unchecked")
+  SemanticAnswerCache(Map<String, Object> settings, Path directory) {
+    bands = ((Number) settings.getOrDefault("bands", 16)).intValue();
+    rows = ((Number) settings.getOrDefault("rows", 4)).intValue();
+    defaultThreshold = ((Number) settings.getOrDefault("similarityThreshold", 0.6)).doubleValue();
+    maxLearnedPerCharacter =
+        ((Number) settings.getOrDefault("maxLearnedPerCharacter", 100)).intValue();
+    seedFile = (String) settings.get("seedFile");
+    Map<String, Number> characterThresholds =
+        (Map<String, Number>) settings.getOrDefault("thresholds", Map.of());
+    characterThresholds.forEach(
+        (character, value) -> thresholds.put(character, value.doubleValue()));
+
+    normalizer =
+        new QuestionNormalizer(
+            new HashSet<>((List<String>) settings.getOrDefault("stopWords", List.of())),
+            (Map<String, String>) settings.getOrDefault("synonyms", Map.of()),
+            ((Number) settings.getOrDefault("shingleSize", 2)).intValue());
+    cacheFile = directory.resolve("answer-cache.yaml");
+    audioDirectory = directory.resolve("answer-audio");
+  }
+
+  /**
+   * Looks up a cached answer to a question asked to a character.
+   *
+   * @param character the name of the character
+   * @param question the question as the player typed it
+   * @return the answer to the most similar cached question, or null if none is similar enough
+   */
+  public synchronized Answer lookup(String character, String question) {
+    MinHashLsh.Match<Entry> match = find(character, question);
+    if (match == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    Entry entry = match.getItem();
+    return new Answer(
+        entry.question,
+        entry.answer,
+        match.getSimilarity(),
+        entry.audio == null ? null : audioDirectory.resolve(entry.audio));
+  }
+
+  /**
+   * Caches the answer a character gave to a question and saves it for later sessions. Questions
+   * that are already cached, or that normalize to nothing, are ignored.
+   *
+   * @param character the name of the character
+   * @param question the question as the player typed it
+   * @param answer the character's answer
+   * @param audio the speech for the answer as MP3, or null if there is none
+   */
+  public synchronized void store(String character, String question, String answer, byte[] audio) {
+    if (!accepts(character, question)) {
+      return;
+    }
+
+    String audioName = null;
+    if (audio != null) {
+      audioName = UUID.randomUUID() + ".mp3";
+      try {
+        Files.createDirectories(audioDirectory);
+        Files.write(audioDirectory.resolve(audioName), audio);
+      } catch (IOException e) {
+        System.out.println("Unable to save cached speech: " + e.getMessage());
+        audioName = null;
+      }
+    }
+    Entry entry = new Entry(question, answer, audioName);
+    add(character, entry);
+    learned.computeIfAbsent(character, k -> new ArrayList<>()).add(entry);
+    saveLearned();
+  }
+
+  /**
+   * Returns whether an answer to a question would be stored: the character has room for more
+   * learned answers and nothing similar to the question is cached yet. Lets a caller skip the work
+   * of preparing an answer that would be thrown away.
+   *
+   * @param character the name of the character
+   * @param question the question as the player typed it
+   * @return true if {@link #store} would keep an answer to the question
+   */
+  public synchronized boolean accepts(String character, String question) {
+    return learned.getOrDefault(character, List.of()).size() < maxLearnedPerCharacter
+        && !normalizer.normalize(question).isEmpty()
+        && find(character, question) == null;
+  }
+
+  /**
+   * Adds the answers in a seed file to the cache. The seed file lists questions and answers for
+   * each character under {@code answers}, as in the bundled {@code data/answer-cache-seed.yaml}.
+   *
+   * @param file the seed file
+   * @throws IOException if the file cannot be read
+   */
+  public synchronized void loadSeed(Path file) throws IOException {
+    try (InputStream inputStream = Files.newInputStream(file)) {
+      int count = loadEntries(inputStream, false);
+      if (App.DEBUG) {
+        System.out.println("Loaded " + count + " seed answers from " + file);
+      }
+    }
+  }
+
+  /**
+   * Builds a one-line summary of the cache's size and hit rate.
+   *
+   * @return the summary
+   */
+  public synchronized String getReport() {
+    int size = 0;
+    for (MinHashLsh<Entry> index : indexes.values()) {
+      size += index.size();
+    }
+    int lookups = hits + misses;
+    return String.format(
+        "Answer cache: %d answers, %d hits from %d lookups (%.0f%%)",
+        size, hits, lookups, lookups == 0 ? 0.0 : 100.0 * hits / lookups);
+  }
+
+  private MinHashLsh.Match<Entry> find(String character, String question) {
+    MinHashLsh<Entry> index = indexes.get(character);
+    if (index == null) {
+      return null;
+    }
+    return index.findBest(
+        normalizer.shingles(normalizer.normalize(question)),
+        thresholds.getOrDefault(character, defaultThreshold));
+  }
+
+  private boolean add(String character, Entry entry) {
+    Set<String> shingles = normalizer.shingles(normalizer.normalize(entry.question));
+    if (shingles.isEmpty()) {
+      return false;
+    }
+    indexes
+        .computeIfAbsent(character, k -> new MinHashLsh<>(bands, rows, HASH_SEED))
+        .add(shingles, entry);
+    return true;
+  }
+
+  /** Loads the seed file named in the settings, or the bundled seed file if none is named. */
+  private void loadSeed() {
+    try {
+      if (seedFile != null) {
+        loadSeed(Paths.get(seedFile));
+        return;
+      }
+      try (InputStream inputStream =
+          SemanticAnswerCache.class
+              .getClassLoader()
+              .getResourceAsStream("data/answer-cache-seed.yaml")) {
+        if (inputStream != null) {
+          int count = loadEntries(inputStream, false);
+          if (App.DEBUG) {
+            System.out.println("Loaded " + count + " seed answers");
+          }
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /** Loads the answers learned in earlier sessions. */
+  private void loadLearned() {
+    if (!Files.exists(cacheFile)) {
+      return;
+    }
+    try (InputStream inputStream = Files.newInputStream(cacheFile)) {
+      int count = loadEntries(inputStream, true);
+      if (App.DEBUG) {
+        System.out.println("Loaded " + count + " learned answers");
+      }
+    } catch (IOException | RuntimeException e) {
+      System.out.println("Unable to read the answer cache: " + e.getMessage());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private int loadEntries(InputStream inputStream, boolean isLearned) {
+    Map<String, Object> obj = new Yaml().load(inputStream);
+    if (obj == null || obj.get("answers") == null) {
+      return 0;
+    }
+    int count = 0;
+    Map<String, List<Map<String, String>>> answers =
+        (Map<String, List<Map<String, String>>>) obj.get("answers");
+    for (Map.Entry<String, List<Map<String, String>>> character : answers.entrySet()) {
+      for (Map<String, String> fields : character.getValue()) {
+        Entry entry = new Entry(fields.get("question"), fields.get("answer"), fields.get("audio"));
+        if (entry.question == null || entry.answer == null || !add(character.getKey(), entry)) {
+          continue;
+        }
+        if (isLearned) {
+          learned.computeIfAbsent(character.getKey(), k -> new ArrayList<>()).add(entry);
+        }
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /** Writes the learned answers to a temporary file and moves it over the old cache file. */
+  private void saveLearned() {
+    Map<String, List<Map<String, String>>> answers = new LinkedHashMap<>();
+    for (Map.Entry<String, List<Entry>> character : learned.entrySet()) {
+      List<Map<String, String>> list = new ArrayList<>();
+      for (Entry entry : character.getValue()) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("question", entry.question);
+        fields.put("answer", entry.answer);
+        if (entry.audio != null) {
+          fields.put("audio", entry.audio);
+        }
+        list.add(fields);
+      }
+      answers.put(character.getKey(), list);
+    }
+
+    DumperOptions options = new DumperOptions();
+    options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+    try {
+      Files.createDirectories(cacheFile.getParent());
+      Path temporary = cacheFile.resolveSibling("answer-cache.yaml.tmp");
+      try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+        new Yaml(options).dump(Map.of("answers", answers), writer);
+      }
+      Files.move(temporary, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      System.out.println("Unable to save the answer cache: " + e.getMessage());
+    }
+  }
+
+  /** Reads the settings from the working directory if present, or else the bundled defaults. */
+  private static Map<String, Object> loadSettings() {
+    Path override = Paths.get("semantic-cache.yaml");
+    try (InputStream inputStream =
+        Files.exists(override)
+            ? Files.newInputStream(override)
+            : SemanticAnswerCache.class
+                .getClassLoader()
+                .getResourceAsStream("data/semantic-cache.yaml")) {
+      Map<String, Object> settings = new Yaml().load(inputStream);
+      return settings == null ? new HashMap<>() : settings;
+    } catch (IOException | RuntimeException e) {
+      e.printStackTrace();
+      return new HashMap<>();
+    }
+  }
+}
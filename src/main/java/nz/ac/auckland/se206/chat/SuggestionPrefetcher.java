@@ -0,0 +1,182 @@
+package nz.ac.auckland.se206.chat;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Fetches the replies to suggested questions before the player picks one. A batch of prefetches
+ * belongs to one snapshot of the conversation; picking a suggestion from the same snapshot hands
+ * over its reply, finished or still in flight, and every other reply in the batch is discarded.
+ * Tracks how often suggestions are used and how many tokens were spent on replies that were thrown
+ * away.
+ *
+ * @param <R> the type of a prefetched reply
+ */
+public class SuggestionPrefetcher<R> {
+
+  /** Fetches the reply to one question. Runs on the prefetch executor. */
+  public interface Fetcher<R> {
+    R fetch(String question) throws Exception;
+  }
+
+  private final Executor executor;
+  private final ToIntFunction<R> tokenCount;
+  private final Consumer<R> discard;
+
+  private Object batchSnapshot = null;
+  private final Map<String, FutureTask<R>> batch = new LinkedHashMap<>();
+
+  private int offeredBatches = 0;
+  private int picks = 0;
+  private int readyPicks = 0;
+  private int typedInstead = 0;
+  private int discardedReplies = 0;
+  private int cancelledRequests = 0;
+  private long usedTokens = 0;
+  private long wastedTokens = 0;
+
+  /**
+   * Creates a prefetcher.
+   *
+   * @param executor the low priority executor to fetch replies on
+   * @param tokenCount gets the number of tokens a reply cost
+   * @param discard releases anything a reply holds, such as its audio, when it is thrown away
+   */
+  public SuggestionPrefetcher(Executor executor, ToIntFunction<R> tokenCount, Consumer<R> discard) {
+    this.executor = executor;
+    this.tokenCount = tokenCount;
+    this.discard = discard;
+  }
+
+  /**
+   * Starts fetching the replies to a new set of suggestions, discarding the previous batch.
+   *
+   * @param snapshot the conversation the questions would be asked in, compared by identity
+   * @param questions the suggested questions
+   * @param fetcher fetches the reply to one question
+   */
+  public synchronized void prefetch(Object snapshot, List<String> questions, Fetcher<R> fetcher) {
+    discardBatch();
+    if (questions.isEmpty()) {
+      return;
+    }
+    batchSnapshot = snapshot;
+    offeredBatches++;
+    for (String question : questions) {
+      FutureTask<R> task = new FutureTask<>(() -> fetcher.fetch(question));
+      batch.put(question, task);
+      executor.execute(task);
+    }
+  }
+
+  /**
+   * Takes the prefetched reply for a picked suggestion. The rest of the batch is discarded.
+   *
+   * @param snapshot the conversation the question is being asked in
+   * @param question the picked question
+   * @return the finished or in-flight reply, or null if it was not prefetched for this snapshot
+   */
+  public synchronized Future<R> take(Object snapshot, String question) {
+    FutureTask<R> task = snapshot == batchSnapshot ? batch.remove(question) : null;
+    if (task == null) {
+      if (!batch.isEmpty()) {
+        typedInstead++;
+      }
+      discardBatch();
+      return null;
+    }
+
+    picks++;
+    if (task.isDone()) {
+      readyPicks++;
+    }
+    R reply = getIfDone(task);
+    if (reply != null) {
+      usedTokens += tokenCount.applyAsInt(reply);
+    }
+    discardBatch();
+    return task;
+  }
+
+  /** Discards the current batch, for example because the player left the chat. */
+  public synchronized void cancel() {
+    discardBatch();
+  }
+
+  /**
+   * Gets the fraction of offered suggestion batches where the player picked a suggestion rather
+   * than typing their own question.
+   *
+   * @return the hit rate between 0 and 1, or 0 if nothing has been asked yet
+   */
+  public synchronized double getHitRate() {
+    int asked = picks + typedInstead;
+    return asked == 0 ? 0 : (double) picks / asked;
+  }
+
+  /**
+   * Gets the number of tokens spent on prefetched replies that were thrown away.
+   *
+   * @return the wasted token count
+   */
+  public synchronized long getWastedTokens() {
+    return wastedTokens;
+  }
+
+  /**
+   * Builds a one-line summary of how well prefetching is working.
+   *
+   * @return the summary
+   */
+  public synchronized String getReport() {
+    return String.format(
+        "Suggestions: %d batches offered, %d picked (%d ready), %d typed instead, hit rate %.0f%%;"
+            + " %d replies discarded, %d requests cancelled, %d tokens used, %d tokens wasted",
+        offeredBatches,
+        picks,
+        readyPicks,
+        typedInstead,
+        getHitRate() * 100,
+        discardedReplies,
+        cancelledRequests,
+        usedTokens,
+        wastedTokens);
+  }
+
+  private void discardBatch() {
+    for (FutureTask<R> task : batch.values()) {
+      if (task.cancel(true)) {
+        // Still in flight, so its cost is unknown
+        cancelledRequests++;
+        continue;
+      }
+      R reply = getIfDone(task);
+      if (reply != null) {
+        discardedReplies++;
+        wastedTokens += tokenCount.applyAsInt(reply);
+        discard.accept(reply);
+      }
+    }
+    batch.clear();
+    batchSnapshot = null;
+  }
+
+  private static <R> R getIfDone(Future<R> task) {
+    if (!task.isDone()) {
+      return null;
+    }
+    try {
+      return task.get();
+    } catch (InterruptedException | ExecutionException | CancellationException e) {
+      return null;
+    }
+  }
+}
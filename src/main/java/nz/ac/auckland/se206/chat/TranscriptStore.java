@@ -0,0 +1,141 @@
+package nz.ac.auckland.se206.chat;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+/**
+ * The transcript of everything said during the game, in the form shown to the player. Entries are
+ * only ever appended, and each speaker's entries are indexed, so looking up a speaker's latest line
+ * does not scan the text. Must only be used on the JavaFX application thread.
+ */
+public class TranscriptStore {
+
+  /** One line of the transcript. */
+  public static class Entry {
+    private final int index;
+    private final String speaker;
+    private final String text;
+
+    private Entry(int index, String speaker, String text) {
+      this.index = index;
+      this.speaker = speaker;
+      this.text = text;
+    }
+
+    /**
+     * Gets the position of the entry in the transcript.
+     *
+     * @return the entry index
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    public String getSpeaker() {
+      return speaker;
+    }
+
+    public String getText() {
+      return text;
+    }
+
+    @Override
+    public String toString() {
+      return speaker + ": " + text;
+    }
+  }
+
+  /** A growable list of entry indexes, used for the per-speaker indexes. */
+  private static class IndexList extends AbstractList<Entry> {
+    private final List<Entry> entries;
+    private int[] indexes = new int[8];
+    private int size = 0;
+
+    private IndexList(List<Entry> entries) {
+      this.entries = entries;
+    }
+
+    private void add(int index) {
+      if (size == indexes.length) {
+        int[] grown = new int[size * 2];
+        System.arraycopy(indexes, 0, grown, 0, size);
+        indexes = grown;
+      }
+      indexes[size++] = index;
+    }
+
+    @Override
+    public Entry get(int position) {
+      if (position < 0 || position >= size) {
+        throw new IndexOutOfBoundsException(
+            "Index " + position + " out of bounds for size " + size);
+      }
+      return entries.get(indexes[position]);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  private final ObservableList<Entry> entries = FXCollections.observableArrayList();
+  private final ObservableList<Entry> readOnlyEntries =
+      FXCollections.unmodifiableObservableList(entries);
+  private final Map<String, IndexList> bySpeaker = new HashMap<>();
+  private final StringBuilder text = new StringBuilder();
+
+  /**
+   * Adds a line to the end of the transcript.
+   *
+   * @param speaker the name of the speaker
+   * @param line the text that was said
+   * @param separator the text that follows the line in the full transcript, such as a new line
+   * @return the new entry
+   */
+  public Entry append(String speaker, String line, String separator) {
+    Entry entry = new Entry(entries.size(), speaker, line);
+    text.append(speaker).append(": ").append(line).append(separator);
+    bySpeaker.computeIfAbsent(speaker, key -> new IndexList(entries)).add(entry.index);
+    entries.add(entry);
+    return entry;
+  }
+
+  /**
+   * Gets the entries in the order they were said. The list updates as entries are appended, so it
+   * can be given to a list view once and never reset.
+   *
+   * @return a read-only view of the entries
+   */
+  public ObservableList<Entry> getEntries() {
+    return readOnlyEntries;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Gets the most recent entry said by a speaker.
+   *
+   * @param speaker the name of the speaker
+   * @return the latest entry, or null if the speaker has not said anything
+   */
+  public Entry getLastFrom(String speaker) {
+    IndexList index = bySpeaker.get(speaker);
+    return index == null ? null : index.get(index.size() - 1);
+  }
+
+  /**
+   * Gets the full transcript text.
+   *
+   * @return the transcript text
+   */
+  public String getText() {
+    return text.toString();
+  }
+}
@@ -0,0 +1,357 @@
+package nz.ac.auckland.se206.chat;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drives one conversation turn at a time through explicit states. Every input, whether it comes
+ * from the UI or from a background request, is posted as an event to a single queue and handled in
+ * order on the dispatcher thread, so the turn's state is only ever touched by one thread. Events
+ * that belong to an earlier, cancelled turn are ignored.
+ *
+ * @param <R> the type of a finished reply, for example the reply text together with its audio
+ */
+public class TurnEngine<R> {
+
+  /** The states a conversation turn moves through. */
+  public enum State {
+    /** Waiting for the player to send a message. */
+    IDLE,
+    /** The player's message is being displayed while the reply is requested in the background. */
+    COMPOSING,
+    /** The player's message has been displayed and the reply has not arrived yet. */
+    REQUESTING,
+    /** The reply text is being displayed. */
+    REVEALING,
+    /** The reply text has been displayed but its audio is still playing. */
+    SPEAKING
+  }
+
+  /** The side effects the engine asks its owner to perform. Called on the dispatcher thread. */
+  public interface Actions<R> {
+
+    /**
+     * Displays the player's message.
+     *
+     * @param message the message to display
+     */
+    void showPlayerMessage(String message);
+
+    /**
+     * Starts requesting a reply in the background. The result must be reported with {@link
+     * TurnEngine#replyReceived} or {@link TurnEngine#replyFailed} using the given turn ID.
+     *
+     * @param turnId the ID of the turn the reply is for
+     * @param message the player's message
+     * @return a handle used to cancel the request
+     */
+    Future<?> requestReply(long turnId, String message);
+
+    /**
+     * Shows or hides the indicator that a reply is being waited for.
+     *
+     * @param thinking true to show the indicator
+     */
+    void setThinking(boolean thinking);
+
+    /**
+     * Displays a reply and starts its audio. Audio completion must be reported with {@link
+     * TurnEngine#audioFinished} using the given turn ID.
+     *
+     * @param turnId the ID of the turn the reply belongs to
+     * @param reply the reply to reveal
+     * @return true if audio was started for the reply
+     */
+    boolean revealReply(long turnId, R reply);
+
+    /** Stops any text animation and audio belonging to the current turn. */
+    void stopOutput();
+
+    /**
+     * Called after every state change.
+     *
+     * @param from the previous state
+     * @param to the new state
+     */
+    void onStateChanged(State from, State to);
+
+    /**
+     * Called when requesting a reply failed.
+     *
+     * @param error the cause of the failure
+     */
+    void onReplyFailed(Throwable error);
+  }
+
+  /** The kinds of events the engine handles. */
+  private enum EventType {
+    SEND,
+    SCRIPTED,
+    TEXT_SHOWN,
+    REPLY_RECEIVED,
+    REPLY_FAILED,
+    REVEAL_DUE,
+    AUDIO_FINISHED,
+    CANCEL
+  }
+
+  /** A queued event, tagged with the turn it was raised for. */
+  private static class Event {
+    private final EventType type;
+    private final long turnId;
+    private final Object payload;
+
+    private Event(EventType type, long turnId, Object payload) {
+      this.type = type;
+      this.turnId = turnId;
+      this.payload = payload;
+    }
+  }
+
+  private static final long ANY_TURN = -1;
+
+  private final Executor dispatcher;
+  private final Actions<R> actions;
+  private final long minimumReplyDelayMillis;
+  private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+  // Only touched while draining events on the dispatcher thread
+  private volatile State state = State.IDLE;
+  private long turnId = 0;
+  private R pendingReply = null;
+  private long playerMessageShownAt = 0;
+  private Future<?> request = null;
+  private boolean audioPlaying = false;
+
+  /**
+   * Creates a turn engine.
+   *
+   * @param dispatcher the single thread that events are handled on, such as {@code
+   *     Platform::runLater}
+   * @param actions the side effects to perform as the turn progresses
+   * @param minimumReplyDelayMillis the minimum time between the player's message being displayed
+   *     and the reply being revealed
+   */
+  public TurnEngine(Executor dispatcher, Actions<R> actions, long minimumReplyDelayMillis) {
+    this.dispatcher = dispatcher;
+    this.actions = actions;
+    this.minimumReplyDelayMillis = minimumReplyDelayMillis;
+  }
+
+  /**
+   * Gets the current state. Safe to read from any thread.
+   *
+   * @return the current state
+   */
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * Returns whether the player may send a message, which is the case once the previous reply has
+   * been fully displayed.
+   *
+   * @return true if a new turn can be started
+   */
+  public boolean canSend() {
+    State current = state;
+    return current == State.IDLE || current == State.SPEAKING;
+  }
+
+  /**
+   * Starts a new turn with the player's message.
+   *
+   * @param message the player's message
+   */
+  public void send(String message) {
+    post(EventType.SEND, ANY_TURN, message);
+  }
+
+  /**
+   * Reveals a reply that does not need a request, such as a character's opening line.
+   *
+   * @param reply the reply to reveal
+   */
+  public void revealScripted(R reply) {
+    post(EventType.SCRIPTED, ANY_TURN, reply);
+  }
+
+  /** Reports that the text currently being displayed has been fully shown. */
+  public void textShown() {
+    post(EventType.TEXT_SHOWN, ANY_TURN, null);
+  }
+
+  /**
+   * Reports that the reply for a turn has arrived. May be called from any thread.
+   *
+   * @param turnId the ID of the turn the reply is for
+   * @param reply the reply
+   */
+  public void replyReceived(long turnId, R reply) {
+    post(EventType.REPLY_RECEIVED, turnId, reply);
+  }
+
+  /**
+   * Reports that requesting the reply for a turn failed. May be called from any thread.
+   *
+   * @param turnId the ID of the turn the reply was for
+   * @param error the cause of the failure
+   */
+  public void replyFailed(long turnId, Throwable error) {
+    post(EventType.REPLY_FAILED, turnId, error);
+  }
+
+  /**
+   * Reports that the audio for a turn has finished playing. May be called from any thread.
+   *
+   * @param turnId the ID of the turn the audio belongs to
+   */
+  public void audioFinished(long turnId) {
+    post(EventType.AUDIO_FINISHED, turnId, null);
+  }
+
+  /**
+   * Cancels the current turn, including its request and any text or audio output, and returns to
+   * {@link State#IDLE}.
+   */
+  public void cancel() {
+    post(EventType.CANCEL, ANY_TURN, null);
+  }
+
+  private void post(EventType type, long turnId, Object payload) {
+    events.add(new Event(type, turnId, payload));
+    if (drainScheduled.compareAndSet(false, true)) {
+      dispatcher.execute(this::drain);
+    }
+  }
+
+  private void drain() {
+    drainScheduled.set(false);
+    Event event;
+    while ((event = events.poll()) != null) {
+      if (event.turnId != ANY_TURN && event.turnId != turnId) {
+        continue; // Left over from a cancelled turn
+      }
+      handle(event);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void handle(Event event) {
+    switch (event.type) {
+      case SEND:
+        if (!canSend()) {
+          return;
+        }
+        actions.stopOutput();
+        turnId++;
+        pendingReply = null;
+        moveTo(State.COMPOSING);
+        actions.showPlayerMessage((String) event.payload);
+        request = actions.requestReply(turnId, (String) event.payload);
+        break;
+
+      case SCRIPTED:
+        if (request != null) {
+          request.cancel(true);
+          request = null;
+        }
+        actions.stopOutput();
+        turnId++;
+        pendingReply = null;
+        reveal((R) event.payload);
+        break;
+
+      case TEXT_SHOWN:
+        if (state == State.COMPOSING) {
+          playerMessageShownAt = System.currentTimeMillis();
+          moveTo(State.REQUESTING);
+          actions.setThinking(true);
+          if (pendingReply != null) {
+            scheduleReveal();
+          }
+        } else if (state == State.REVEALING) {
+          moveTo(audioPlaying ? State.SPEAKING : State.IDLE);
+        }
+        break;
+
+      case REPLY_RECEIVED:
+        request = null;
+        pendingReply = (R) event.payload;
+        if (state == State.REQUESTING) {
+          scheduleReveal();
+        }
+        break;
+
+      case REVEAL_DUE:
+        if (state == State.REQUESTING && pendingReply != null) {
+          R reply = pendingReply;
+          pendingReply = null;
+          actions.setThinking(false);
+          reveal(reply);
+        }
+        break;
+
+      case REPLY_FAILED:
+        request = null;
+        if (state == State.COMPOSING || state == State.REQUESTING) {
+          actions.setThinking(false);
+          moveTo(State.IDLE);
+          actions.onReplyFailed((Throwable) event.payload);
+        }
+        break;
+
+      case AUDIO_FINISHED:
+        audioPlaying = false;
+        if (state == State.SPEAKING) {
+          moveTo(State.IDLE);
+        }
+        break;
+
+      case CANCEL:
+        if (request != null) {
+          request.cancel(true);
+          request = null;
+        }
+        turnId++; // Anything still in flight for the old turn is now ignored
+        pendingReply = null;
+        audioPlaying = false;
+        actions.setThinking(false);
+        actions.stopOutput();
+        moveTo(State.IDLE);
+        break;
+    }
+  }
+
+  private void reveal(R reply) {
+    moveTo(State.REVEALING);
+    audioPlaying = actions.revealReply(turnId, reply);
+  }
+
+  /** Posts a reveal event once the minimum delay after the player's message has passed. */
+  private void scheduleReveal() {
+    long elapsed = System.currentTimeMillis() - playerMessageShownAt;
+    long delay = Math.max(0, minimumReplyDelayMillis - elapsed);
+    long revealTurn = turnId;
+    if (delay == 0) {
+      post(EventType.REVEAL_DUE, revealTurn, null);
+    } else {
+      CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+          .execute(() -> post(EventType.REVEAL_DUE, revealTurn, null));
+    }
+  }
+
+  private void moveTo(State next) {
+    State previous = state;
+    state = next;
+    if (previous != next) {
+      actions.onStateChanged(previous, next);
+    }
+  }
+}
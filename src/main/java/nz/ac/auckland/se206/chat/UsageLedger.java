@@ -0,0 +1,728 @@
+package nz.ac.auckland.se206.chat;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+import nz.ac.auckland.se206.chat.ModelRouter.CallType;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Ledger of the tokens used by chat completions. Every call made through the {@link ModelRouter} is
+ * recorded with its kind, the character it was for, the model, its token usage and its latency, and
+ * appended to a file in the user's home directory, so the totals for the whole installation carry
+ * across launches. The file can be moved with {@code -Dtrialai.usage.ledger=<file>}.
+ *
+ * <p>Only the last session's calls are kept line by line. When the ledger is opened, the sessions
+ * before it are folded into running totals in a YAML file next to it, so opening the ledger does
+ * not get slower as sessions pile up.
+ *
+ * <p>Each game session has a token budget, read from {@code data/usage.yaml}. Once a set fraction
+ * of it is used the session is degraded: calls go to a cheaper model with a smaller reply limit,
+ * and optional calls such as evidence notes are skipped. Once the budget is spent, only the kinds
+ * of call the trial cannot be finished without are still made.
+ */
+public class UsageLedger {
+
+  /** How far through its budget the current session is. */
+  public enum Level {
+    NORMAL,
+    DEGRADED,
+    SPENT
+  }
+
+  /** Counts of calls and tokens for one part of the ledger. */
+  public static class Totals {
+    private int calls;
+    private int failedCalls;
+    private int skippedCalls;
+    private long promptTokens;
+    private long completionTokens;
+    private long latencyMillis;
+
+    private void add(int prompt, int completion, long latency, String outcome) {
+      switch (outcome) {
+        case SKIPPED:
+          skippedCalls++;
+          return;
+        case FAILED:
+          failedCalls++;
+          break;
+        default:
+          break;
+      }
+      calls++;
+      promptTokens += prompt;
+      completionTokens += completion;
+      latencyMillis += latency;
+    }
+
+    private void addAll(Totals other) {
+      calls += other.calls;
+      failedCalls += other.failedCalls;
+      skippedCalls += other.skippedCalls;
+      promptTokens += other.promptTokens;
+      completionTokens += other.completionTokens;
+      latencyMillis += other.latencyMillis;
+    }
+
+    private Totals copy() {
+      Totals copy = new Totals();
+      copy.addAll(this);
+      return copy;
+    }
+
+    private Map<String, Object> toMap() {
+      Map<String, Object> fields = new LinkedHashMap<>();
+      fields.put("calls", calls);
+      fields.put("failedCalls", failedCalls);
+      fields.put("skippedCalls", skippedCalls);
+      fields.put("promptTokens", promptTokens);
+      fields.put("completionTokens", completionTokens);
+      fields.put("latencyMillis", latencyMillis);
+      return fields;
+    }
+
+    private static Totals fromMap(Map<String, Number> fields) {
+      Totals totals = new Totals();
+      totals.calls = fields.getOrDefault("calls", 0).intValue();
+      totals.failedCalls = fields.getOrDefault("failedCalls", 0).intValue();
+      totals.skippedCalls = fields.getOrDefault("skippedCalls", 0).intValue();
+      totals.promptTokens = fields.getOrDefault("promptTokens", 0).longValue();
+      totals.completionTokens = fields.getOrDefault("completionTokens", 0).longValue();
+      totals.latencyMillis = fields.getOrDefault("latencyMillis", 0).longValue();
+      return totals;
+    }
+
+    /**
+     * Gets the number of calls made, including failed ones.
+     *
+     * @return the call count
+     */
+    public int getCalls() {
+      return calls;
+    }
+
+    /**
+     * Gets the number of calls that failed.
+     *
+     * @return the failed call count
+     */
+    public int getFailedCalls() {
+      return failedCalls;
+    }
+
+    /**
+     * Gets the number of calls skipped to stay within a budget.
+     *
+     * @return the skipped call count
+     */
+    public int getSkippedCalls() {
+      return skippedCalls;
+    }
+
+    /**
+     * Gets the number of prompt tokens used.
+     *
+     * @return the prompt tokens
+     */
+    public long getPromptTokens() {
+      return promptTokens;
+    }
+
+    /**
+     * Gets the number of completion tokens used.
+     *
+     * @return the completion tokens
+     */
+    public long getCompletionTokens() {
+      return completionTokens;
+    }
+
+    /**
+     * Gets the number of prompt and completion tokens used.
+     *
+     * @return the total tokens
+     */
+    public long getTotalTokens() {
+      return promptTokens + completionTokens;
+    }
+
+    /**
+     * Gets the mean latency of the calls made.
+     *
+     * @return the mean latency in milliseconds, or 0 if no calls were made
+     */
+    public long getMeanLatencyMillis() {
+      return calls == 0 ? 0 : latencyMillis / calls;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d tokens (%d prompt, %d completion) in %d calls, %d failed, %d skipped, mean %d ms",
+          getTotalTokens(),
+          promptTokens,
+          completionTokens,
+          calls,
+          failedCalls,
+          skippedCalls,
+          getMeanLatencyMillis());
+    }
+  }
+
+  /** Totals by kind of call and by model over a number of sessions. */
+  private static class Summary {
+    private int sessions;
+    private final Map<CallType, Totals> byPurpose = new EnumMap<>(CallType.class);
+    private final Map<String, Totals> byModel = new LinkedHashMap<>();
+
+    private void add(
+        CallType type, String model, int prompt, int completion, long latency, String outcome) {
+      byPurpose.computeIfAbsent(type, k -> new Totals()).add(prompt, completion, latency, outcome);
+      if (!model.equals(EMPTY_FIELD)) {
+        byModel.computeIfAbsent(model, k -> new Totals()).add(prompt, completion, latency, outcome);
+      }
+    }
+
+    private void addAll(Summary other) {
+      sessions += other.sessions;
+      other.byPurpose.forEach(
+          (type, totals) -> byPurpose.computeIfAbsent(type, k -> new Totals()).addAll(totals));
+      other.byModel.forEach(
+          (model, totals) -> byModel.computeIfAbsent(model, k -> new Totals()).addAll(totals));
+    }
+  }
+
+  private static final String HEADER =
+      "session,time,purpose,character,model,promptTokens,completionTokens,latencyMillis,outcome";
+  private static final String OK = "ok";
+  private static final String FAILED = "failed";
+  private static final String SKIPPED = "skipped";
+  private static final String EMPTY_FIELD = "-";
+
+  private static UsageLedger instance;
+
+  /**
+   * Gets the singleton instance of the UsageLedger, reading the budget and the ledger file the
+   * first time it is called.
+   *
+   * @return the UsageLedger instance
+   */
+  public static synchronized UsageLedger getInstance() {
+    if (instance == null) {
+      Map<String, Object> settings = new HashMap<>();
+      try (InputStream inputStream =
+          UsageLedger.class.getClassLoader().getResourceAsStream("data/usage.yaml")) {
+        settings = new Yaml().load(inputStream);
+      } catch (IOException | RuntimeException e) {
+        e.printStackTrace();
+      }
+      String file = System.getProperty("trialai.usage.ledger");
+      instance =
+          new UsageLedger(
+              file != null
+                  ? Paths.get(file)
+                  : Paths.get(System.getProperty("user.home"), ".trial-ai", "usage-ledger.csv"),
+              settings);
+    }
+    return instance;
+  }
+
+  private final Path path;
+  private final Path summaryPath;
+  private long sessionBudget;
+  private final double degradeAt;
+  private final Model degradedModel;
+  private final double degradedMaxTokens;
+  private final Set<CallType> optional = EnumSet.noneOf(CallType.class);
+  private final Set<CallType> essential = EnumSet.noneOf(CallType.class);
+
+  private final Totals deploymentTotals = new Totals();
+  private final Map<CallType, Totals> deploymentByPurpose = new EnumMap<>(CallType.class);
+  private final Map<String, Totals> deploymentByModel = new LinkedHashMap<>();
+  private int sessionCount;
+  private String lastSession;
+  private final Map<String, Totals> lastSessionTotals = new HashMap<>();
+
+  private String session;
+  private Totals sessionTotals = new Totals();
+  private final Map<CallType, Totals> sessionByPurpose = new EnumMap<>(CallType.class);
+  private final Map<String, Totals> sessionByCharacter = new LinkedHashMap<>();
+  private Level lastLevel = Level.NORMAL;
+  private BufferedWriter writer;
+
+  /**
+   * Creates a ledger backed by the given file, reading the totals already recorded in it.
+   *
+   * @param path the ledger file
+   * @param settings the budget settings, as in {@code data/usage.yaml}
+   */
+  @SuppressWarnings("unchecked")
+  UsageLedger(Path path, Map<String, Object> settings) {
+    this.path = path;
+    summaryPath =
+        path.resolveSibling(
+            path.getFileName().toString().replaceFirst("\\.csv$", "") + "-totals.yaml");
+    sessionBudget = ((Number) settings.getOrDefault("sessionBudget", 0)).longValue();
+    degradeAt = ((Number) settings.getOrDefault("degradeAt", 1)).doubleValue();
+    degradedModel =
+        Model.valueOf(String.valueOf(settings.getOrDefault("degradedModel", "GPT_4_1_NANO")));
+    degradedMaxTokens = ((Number) settings.getOrDefault("degradedMaxTokens", 1)).doubleValue();
+    for (String type : (List<String>) settings.getOrDefault("optional", List.of())) {
+      optional.add(CallType.valueOf(type));
+    }
+    for (String type :
+        (List<String>) settings.getOrDefault("essential", List.of("CHAT", "DEBRIEF"))) {
+      essential.add(CallType.valueOf(type));
+    }
+    readLedger();
+  }
+
+  /**
+   * Adds up the totals in the summary file and the calls in the ledger file, then folds every
+   * session but the last into the summary. A line that cannot be read is skipped.
+   */
+  private void readLedger() {
+    Summary summary = readSummary();
+    Summary folded = new Summary(); // Sessions in the ledger file before the last one
+    Summary last = null;
+    List<String> lastLines = new ArrayList<>();
+    if (Files.exists(path)) {
+      try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          String[] fields = line.split(",");
+          if (fields.length != 9 || line.equals(HEADER)) {
+            continue;
+          }
+          try {
+            CallType type = CallType.valueOf(fields[2]);
+            int prompt = Integer.parseInt(fields[5]);
+            int completion = Integer.parseInt(fields[6]);
+            long latency = Long.parseLong(fields[7]);
+            if (!fields[0].equals(lastSession)) {
+              if (last != null) {
+                folded.addAll(last);
+              }
+              last = new Summary();
+              last.sessions = 1;
+              lastLines.clear();
+              lastSession = fields[0];
+              lastSessionTotals.clear();
+            }
+            last.add(type, fields[4], prompt, completion, latency, fields[8]);
+            lastLines.add(line);
+            // Kept so the last session's budget carries on if it is resumed
+            lastSessionTotals
+                .computeIfAbsent("", k -> new Totals())
+                .add(prompt, completion, latency, fields[8]);
+            lastSessionTotals
+                .computeIfAbsent(type.name(), k -> new Totals())
+                .add(prompt, completion, latency, fields[8]);
+            lastSessionTotals
+                .computeIfAbsent("@" + fields[3], k -> new Totals())
+                .add(prompt, completion, latency, fields[8]);
+          } catch (IllegalArgumentException e) {
+            // A line cut short when the game was closed
+          }
+        }
+      } catch (IOException e) {
+        System.out.println("Usage ledger unreadable: " + e.getMessage());
+        return;
+      }
+    }
+
+    Summary all = new Summary();
+    all.addAll(summary);
+    all.addAll(folded);
+    if (last != null) {
+      all.addAll(last);
+    }
+    sessionCount = all.sessions;
+    deploymentByPurpose.putAll(all.byPurpose);
+    deploymentByModel.putAll(all.byModel);
+    for (Totals totals : all.byPurpose.values()) {
+      deploymentTotals.addAll(totals);
+    }
+
+    if (folded.sessions > 0) {
+      summary.addAll(folded);
+      compact(summary, lastLines);
+    }
+  }
+
+  /** Reads the totals of the sessions already folded out of the ledger file. */
+  @SuppressWarnings("unchecked")
+  private Summary readSummary() {
+    Summary summary = new Summary();
+    if (!Files.exists(summaryPath)) {
+      return summary;
+    }
+    try (InputStream inputStream = Files.newInputStream(summaryPath)) {
+      Map<String, Object> obj = new Yaml().load(inputStream);
+      summary.sessions = ((Number) obj.getOrDefault("sessions", 0)).intValue();
+      ((Map<String, Map<String, Number>>) obj.getOrDefault("purposes", Map.of()))
+          .forEach(
+              (type, fields) ->
+                  summary.byPurpose.put(CallType.valueOf(type), Totals.fromMap(fields)));
+      ((Map<String, Map<String, Number>>) obj.getOrDefault("models", Map.of()))
+          .forEach((model, fields) -> summary.byModel.put(model, Totals.fromMap(fields)));
+    } catch (IOException | RuntimeException e) {
+      System.out.println("Usage totals unreadable: " + e.getMessage());
+    }
+    return summary;
+  }
+
+  /**
+   * Writes the folded totals to the summary file and rewrites the ledger file with only the last
+   * session's lines, each through a temporary file moved over the old one.
+   */
+  private void compact(Summary summary, List<String> lastLines) {
+    Map<String, Object> purposes = new LinkedHashMap<>();
+    summary.byPurpose.forEach((type, totals) -> purposes.put(type.name(), totals.toMap()));
+    Map<String, Object> models = new LinkedHashMap<>();
+    summary.byModel.forEach((model, totals) -> models.put(model, totals.toMap()));
+    Map<String, Object> obj = new LinkedHashMap<>();
+    obj.put("sessions", summary.sessions);
+    obj.put("purposes", purposes);
+    obj.put("models", models);
+
+    DumperOptions options = new DumperOptions();
+    options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+    try {
+      Path temporarySummary = summaryPath.resolveSibling(summaryPath.getFileName() + ".tmp");
+      try (Writer summaryWriter =
+          Files.newBufferedWriter(temporarySummary, StandardCharsets.UTF_8)) {
+        new Yaml(options).dump(obj, summaryWriter);
+      }
+      Path temporaryLedger = path.resolveSibling(path.getFileName() + ".tmp");
+      try (BufferedWriter ledgerWriter =
+          Files.newBufferedWriter(temporaryLedger, StandardCharsets.UTF_8)) {
+        ledgerWriter.write(HEADER);
+        ledgerWriter.newLine();
+        for (String line : lastLines) {
+          ledgerWriter.write(line);
+          ledgerWriter.newLine();
+        }
+      }
+      Files.move(temporarySummary, summaryPath, StandardCopyOption.REPLACE_EXISTING);
+      Files.move(temporaryLedger, path, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      System.out.println("Unable to compact the usage ledger: " + e.getMessage());
+    }
+  }
+
+  /** Starts a new session with none of its budget used. */
+  public synchronized void startSession() {
+    session = Long.toString(System.currentTimeMillis());
+    sessionTotals = new Totals();
+    sessionByPurpose.clear();
+    sessionByCharacter.clear();
+    lastLevel = Level.NORMAL;
+    sessionCount++;
+  }
+
+  /**
+   * Carries on the last session in the ledger, with the budget it had already used. Starts a new
+   * session if the ledger is empty.
+   */
+  public synchronized void resumeSession() {
+    if (lastSession == null) {
+      startSession();
+      return;
+    }
+    session = lastSession;
+    sessionTotals = lastSessionTotals.getOrDefault("", new Totals());
+    sessionByPurpose.clear();
+    sessionByCharacter.clear();
+    for (Map.Entry<String, Totals> entry : lastSessionTotals.entrySet()) {
+      if (entry.getKey().startsWith("@")) {
+        if (!entry.getKey().equals("@" + EMPTY_FIELD)) {
+          sessionByCharacter.put(entry.getKey().substring(1), entry.getValue());
+        }
+      } else if (!entry.getKey().isEmpty()) {
+        sessionByPurpose.put(CallType.valueOf(entry.getKey()), entry.getValue());
+      }
+    }
+    lastLevel = getLevel();
+    System.out.println("Usage: resumed session with " + sessionTotals.getTotalTokens() + " tokens");
+  }
+
+  /**
+   * Sets the token budget for each session, replacing the one in {@code data/usage.yaml}.
+   *
+   * @param tokens the budget, or 0 for no limit
+   */
+  public synchronized void setSessionBudget(long tokens) {
+    sessionBudget = tokens;
+  }
+
+  /**
+   * Gets how far through its budget the current session is.
+   *
+   * @return the budget level
+   */
+  public synchronized Level getLevel() {
+    if (sessionBudget <= 0) {
+      return Level.NORMAL;
+    }
+    long used = sessionTotals.getTotalTokens();
+    if (used >= sessionBudget) {
+      return Level.SPENT;
+    }
+    return used >= sessionBudget * degradeAt ? Level.DEGRADED : Level.NORMAL;
+  }
+
+  /**
+   * Checks whether a call may be made at the current budget level. A call that may not is recorded
+   * as skipped.
+   *
+   * @param type the kind of call
+   * @param character the character the call is for, or null
+   * @return true if the call may be made
+   */
+  public synchronized boolean admit(CallType type, String character) {
+    Level level = getLevel();
+    boolean allowed =
+        level == Level.NORMAL
+            || (level == Level.DEGRADED && !optional.contains(type))
+            || essential.contains(type);
+    if (!allowed) {
+      add(type, character, null, 0, 0, 0, SKIPPED);
+    }
+    return allowed;
+  }
+
+  /**
+   * Gets the model degraded calls are made on.
+   *
+   * @return the degraded model
+   */
+  public Model getDegradedModel() {
+    return degradedModel;
+  }
+
+  /**
+   * Makes a copy of a request with its reply limit scaled down for a degraded session.
+   *
+   * @param request the request
+   * @return the degraded copy
+   */
+  public ChatCompletionRequest degrade(ChatCompletionRequest request) {
+    ChatCompletionRequest copy = request.copy();
+    if (request.getMaxTokens() > 0) {
+      copy.setMaxTokens(Math.max(1, (int) Math.round(request.getMaxTokens() * degradedMaxTokens)));
+    }
+    return copy;
+  }
+
+  /**
+   * Records a call that was made.
+   *
+   * @param type the kind of call
+   * @param character the character the call was for, or null
+   * @param model the model the call was made on
+   * @param promptTokens the prompt tokens used
+   * @param completionTokens the completion tokens used
+   * @param latencyMillis how long the call took
+   * @param failed whether the call failed
+   */
+  public synchronized void record(
+      CallType type,
+      String character,
+      Model model,
+      int promptTokens,
+      int completionTokens,
+      long latencyMillis,
+      boolean failed) {
+    add(
+        type,
+        character,
+        model,
+        promptTokens,
+        completionTokens,
+        latencyMillis,
+        failed ? FAILED : OK);
+
+    Level level = getLevel();
+    if (level != lastLevel) {
+      System.out.println(
+          "Usage: session is "
+              + level
+              + " after "
+              + sessionTotals.getTotalTokens()
+              + " of "
+              + sessionBudget
+              + " tokens");
+      lastLevel = level;
+    }
+  }
+
+  private void add(
+      CallType type,
+      String character,
+      Model model,
+      int promptTokens,
+      int completionTokens,
+      long latencyMillis,
+      String outcome) {
+    if (session == null) {
+      startSession();
+    }
+    String who = character == null ? EMPTY_FIELD : character.replace(",", " ");
+    String modelName = model == null ? EMPTY_FIELD : model.getModelName();
+    for (Totals totals :
+        List.of(
+            sessionTotals,
+            sessionByPurpose.computeIfAbsent(type, k -> new Totals()),
+            deploymentTotals,
+            deploymentByPurpose.computeIfAbsent(type, k -> new Totals()))) {
+      totals.add(promptTokens, completionTokens, latencyMillis, outcome);
+    }
+    if (model != null) {
+      deploymentByModel
+          .computeIfAbsent(modelName, k -> new Totals())
+          .add(promptTokens, completionTokens, latencyMillis, outcome);
+    }
+    if (character != null) {
+      sessionByCharacter
+          .computeIfAbsent(who, k -> new Totals())
+          .add(promptTokens, completionTokens, latencyMillis, outcome);
+    }
+
+    String line =
+        String.join(
+            ",",
+            session,
+            Long.toString(System.currentTimeMillis()),
+            type.name(),
+            who,
+            modelName,
+            Integer.toString(promptTokens),
+            Integer.toString(completionTokens),
+            Long.toString(latencyMillis),
+            outcome);
+    try {
+      if (writer == null) {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        boolean fresh = !Files.exists(path);
+        writer =
+            Files.newBufferedWriter(
+                path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (fresh) {
+          writer.write(HEADER);
+          writer.newLine();
+        }
+      }
+      writer.write(line);
+      writer.newLine();
+      writer.flush();
+    } catch (IOException e) {
+      System.out.println("Usage ledger unwritable: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Gets the totals for the current session. The totals are a copy, so they do not change as later
+   * calls are recorded.
+   *
+   * @return the session totals
+   */
+  public synchronized Totals getSessionTotals() {
+    return sessionTotals.copy();
+  }
+
+  /**
+   * Gets the totals for one kind of call in the current session.
+   *
+   * @param type the kind of call
+   * @return the totals
+   */
+  public synchronized Totals getSessionTotals(CallType type) {
+    return sessionByPurpose.getOrDefault(type, new Totals()).copy();
+  }
+
+  /**
+   * Gets the totals for one character in the current session.
+   *
+   * @param character the character
+   * @return the totals
+   */
+  public synchronized Totals getCharacterTotals(String character) {
+    return sessionByCharacter.getOrDefault(character, new Totals()).copy();
+  }
+
+  /**
+   * Gets the totals for every session recorded on this installation, including the current one.
+   *
+   * @return the deployment totals
+   */
+  public synchronized Totals getDeploymentTotals() {
+    return deploymentTotals.copy();
+  }
+
+  /**
+   * Gets the totals for one kind of call across every session recorded on this installation.
+   *
+   * @param type the kind of call
+   * @return the totals
+   */
+  public synchronized Totals getDeploymentTotals(CallType type) {
+    return deploymentByPurpose.getOrDefault(type, new Totals()).copy();
+  }
+
+  /**
+   * Gets the number of sessions recorded on this installation, including the current one.
+   *
+   * @return the session count
+   */
+  public synchronized int getSessionCount() {
+    return sessionCount;
+  }
+
+  /**
+   * Builds a summary of the current session and of the whole installation, by kind of call,
+   * character and model.
+   *
+   * @return the summary
+   */
+  public synchronized String describe() {
+    StringBuilder summary = new StringBuilder();
+    summary
+        .append("Session ")
+        .append(getLevel())
+        .append(": ")
+        .append(sessionTotals)
+        .append(sessionBudget > 0 ? " of a " + sessionBudget + " token budget" : "");
+    for (Map.Entry<CallType, Totals> entry : sessionByPurpose.entrySet()) {
+      summary.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+    }
+    for (Map.Entry<String, Totals> entry : sessionByCharacter.entrySet()) {
+      summary.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+    }
+    summary.append("\nAll ").append(sessionCount).append(" sessions: ").append(deploymentTotals);
+    for (Map.Entry<String, Totals> entry : deploymentByModel.entrySet()) {
+      summary.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+    }
+    return summary.toString();
+  }
+}
@@ -0,0 +1,209 @@
+package nz.ac.auckland.se206.concurrent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Central place where background work is run. Blocking I/O such as proxy requests runs on virtual
+ * threads, while audio playback and CPU-bound work runs on a small pool of platform threads. Work
+ * is normally submitted through a {@link TaskScope} so it can be cancelled together when the player
+ * leaves a scene.
+ */
+public class BackgroundTasks {
+
+  private static final int CPU_POOL_SIZE =
+      Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+  private static BackgroundTasks instance;
+
+  /**
+   * Gets the singleton instance of the BackgroundTasks.
+   *
+   * @return the BackgroundTasks instance
+   */
+  public static synchronized BackgroundTasks getInstance() {
+    if (instance == null) {
+      instance = new BackgroundTasks();
+    }
+    return instance;
+  }
+
+  private final AtomicInteger liveIoThreads = new AtomicInteger();
+  private final AtomicLong submittedTasks = new AtomicLong();
+  private final AtomicLong cancelledTasks = new AtomicLong();
+  private final Map<String, TaskScope> openScopes = new ConcurrentHashMap<>();
+  private final ExecutorService ioExecutor;
+  private final ThreadPoolExecutor cpuExecutor;
+  private final ExecutorService prefetchExecutor;
+
+  /** Private constructor for singleton pattern */
+  private BackgroundTasks() {
+    ThreadFactory virtualThreads = Thread.ofVirtual().name("io-", 0).factory();
+    ioExecutor =
+        Executors.newThreadPerTaskExecutor(
+            runnable ->
+                virtualThreads.newThread(
+                    () -> {
+                      liveIoThreads.incrementAndGet();
+                      try {
+                        runnable.run();
+                      } finally {
+                        liveIoThreads.decrementAndGet();
+                      }
+                    }));
+
+    AtomicInteger cpuThreadNumber = new AtomicInteger();
+    cpuExecutor =
+        new ThreadPoolExecutor(
+            CPU_POOL_SIZE,
+            CPU_POOL_SIZE,
+            30,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, "cpu-" + cpuThreadNumber.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            });
+    cpuExecutor.allowCoreThreadTimeOut(true);
+
+    prefetchExecutor =
+        Executors.newSingleThreadExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "prefetch");
+              thread.setDaemon(true);
+              thread.setPriority(Thread.MIN_PRIORITY);
+              return thread;
+            });
+  }
+
+  /**
+   * Opens a new scope for a scene. Any scope previously opened under the same name is closed first,
+   * cancelling its tasks.
+   *
+   * @param name the name of the scope, usually the name of the scene that owns it
+   * @return the new scope
+   */
+  public TaskScope openScope(String name) {
+    TaskScope scope = new TaskScope(name, this);
+    TaskScope previous = openScopes.put(name, scope);
+    if (previous != null) {
+      previous.close();
+    }
+    return scope;
+  }
+
+  /**
+   * Gets the executor for blocking I/O. Every task gets its own virtual thread.
+   *
+   * @return the I/O executor
+   */
+  public ExecutorService ioExecutor() {
+    return ioExecutor;
+  }
+
+  /**
+   * Gets the executor for audio playback and CPU-bound work, backed by a small platform thread
+   * pool.
+   *
+   * @return the audio/CPU executor
+   */
+  public ExecutorService cpuExecutor() {
+    return cpuExecutor;
+  }
+
+  /**
+   * Gets the executor for speculative work that may be thrown away, such as prefetching replies. It
+   * runs one task at a time on a low priority thread so it never competes with work the player is
+   * waiting for.
+   *
+   * @return the prefetch executor
+   */
+  public ExecutorService prefetchExecutor() {
+    return prefetchExecutor;
+  }
+
+  /**
+   * Gets the number of virtual threads currently running I/O tasks.
+   *
+   * @return the live I/O thread count
+   */
+  public int getLiveIoThreads() {
+    return liveIoThreads.get();
+  }
+
+  /**
+   * Gets the number of platform threads in the audio/CPU pool.
+   *
+   * @return the live audio/CPU thread count
+   */
+  public int getLiveCpuThreads() {
+    return cpuExecutor.getPoolSize();
+  }
+
+  /**
+   * Gets the number of tasks that are currently queued or running in any open scope.
+   *
+   * @return the live task count
+   */
+  public int getLiveTaskCount() {
+    int count = 0;
+    for (TaskScope scope : openScopes.values()) {
+      count += scope.getLiveTaskCount();
+    }
+    return count;
+  }
+
+  /**
+   * Builds a one-line summary of thread and task counts, per scope.
+   *
+   * @return the summary
+   */
+  public String describe() {
+    StringBuilder summary =
+        new StringBuilder()
+            .append("io threads=")
+            .append(getLiveIoThreads())
+            .append(", cpu threads=")
+            .append(getLiveCpuThreads())
+            .append(" (active ")
+            .append(cpuExecutor.getActiveCount())
+            .append(", queued ")
+            .append(cpuExecutor.getQueue().size())
+            .append("), submitted=")
+            .append(submittedTasks.get())
+            .append(", cancelled=")
+            .append(cancelledTasks.get());
+    for (TaskScope scope : openScopes.values()) {
+      summary.append(", ").append(scope.getName()).append("=").append(scope.getLiveTaskCount());
+    }
+    return summary.toString();
+  }
+
+  /** Records that a task was submitted through a scope. */
+  void recordSubmitted() {
+    submittedTasks.incrementAndGet();
+  }
+
+  /** Records that a scope cancelled a task. */
+  void recordCancelled() {
+    cancelledTasks.incrementAndGet();
+  }
+
+  /**
+   * Forgets a scope once it has been closed.
+   *
+   * @param scope the closed scope
+   */
+  void scopeClosed(TaskScope scope) {
+    openScopes.remove(scope.getName(), scope);
+  }
+}
@@ -0,0 +1,108 @@
+package nz.ac.auckland.se206.concurrent;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RunnableFuture;
+
+/**
+ * A group of background tasks owned by one scene. Closing the scope cancels every task in it that
+ * has not finished, interrupting the ones that are running. Tasks submitted after the scope has
+ * closed are cancelled straight away.
+ */
+public class TaskScope implements AutoCloseable {
+
+  private final String name;
+  private final BackgroundTasks tasks;
+  private final Set<Future<?>> liveTasks = ConcurrentHashMap.newKeySet();
+  private volatile boolean closed = false;
+
+  TaskScope(String name, BackgroundTasks tasks) {
+    this.name = name;
+    this.tasks = tasks;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Gets the number of tasks in this scope that are queued or running.
+   *
+   * @return the live task count
+   */
+  public int getLiveTaskCount() {
+    return liveTasks.size();
+  }
+
+  /**
+   * Runs blocking I/O work on its own virtual thread. If the work is already a future, such as a
+   * JavaFX {@code Task}, it is tracked directly so that cancelling the scope cancels it.
+   *
+   * @param work the work to run
+   * @return a future that can be used to cancel the work
+   */
+  public Future<?> submitIo(Runnable work) {
+    return submit(work, tasks.ioExecutor());
+  }
+
+  /**
+   * Runs audio playback or CPU-bound work on the shared platform thread pool.
+   *
+   * @param work the work to run
+   * @return a future that can be used to cancel the work
+   */
+  public Future<?> submitAudio(Runnable work) {
+    return submit(work, tasks.cpuExecutor());
+  }
+
+  /** Cancels every task in this scope that has not finished, without closing the scope. */
+  public void cancelAll() {
+    for (Future<?> future : liveTasks) {
+      if (future.cancel(true)) {
+        tasks.recordCancelled();
+      }
+    }
+    liveTasks.clear();
+  }
+
+  /** Closes this scope, cancelling every task in it that has not finished. */
+  @Override
+  public void close() {
+    closed = true;
+    cancelAll();
+    tasks.scopeClosed(this);
+  }
+
+  private Future<?> submit(Runnable work, Executor executor) {
+    RunnableFuture<?> future =
+        work instanceof RunnableFuture<?> ? (RunnableFuture<?>) work : new FutureTask<>(work, null);
+    if (closed) {
+      future.cancel(false);
+      return future;
+    }
+
+    tasks.recordSubmitted();
+    liveTasks.add(future);
+    executor.execute(
+        () -> {
+          try {
+            future.run();
+          } finally {
+            liveTasks.remove(future);
+          }
+        });
+
+    // The scope may have closed between the check above and adding the task
+    if (closed) {
+      future.cancel(true);
+    }
+    return future;
+  }
+}
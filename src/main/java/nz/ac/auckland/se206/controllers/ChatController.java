@@ -1,13 +1,20 @@
 package nz.ac.auckland.se206.controllers;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import javafx.animation.FadeTransition;
 import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
 import javafx.animation.Timeline;
 import javafx.animation.TranslateTransition;
 import javafx.application.Platform;
@@ -16,6 +23,8 @@ import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.image.ImageView;
@@ -23,25 +32,37 @@ import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.AnchorPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.media.AudioClip;
 import javafx.scene.shape.Arc;
 import javafx.scene.shape.Rectangle;
 import javafx.util.Duration;
-import javazoom.jl.decoder.JavaLayerException;
-import javazoom.jl.player.Player;
 import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
-import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
 import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionResult;
 import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
 import nz.ac.auckland.apiproxy.chat.openai.Choice;
+import nz.ac.auckland.apiproxy.chat.openai.Conversation;
 import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
 import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
-import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Provider;
 import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Voice;
 import nz.ac.auckland.se206.App;
 import nz.ac.auckland.se206.GameTimer;
+import nz.ac.auckland.se206.chat.EvidenceExtractor;
+import nz.ac.auckland.se206.chat.ModelRouter;
+import nz.ac.auckland.se206.chat.SemanticAnswerCache;
+import nz.ac.auckland.se206.chat.SuggestionPrefetcher;
+import nz.ac.auckland.se206.chat.TranscriptStore;
+import nz.ac.auckland.se206.chat.TurnEngine;
+import nz.ac.auckland.se206.concurrent.BackgroundTasks;
+import nz.ac.auckland.se206.concurrent.TaskScope;
+import nz.ac.auckland.se206.journal.RecoveredSession;
+import nz.ac.auckland.se206.journal.SessionJournal;
 import nz.ac.auckland.se206.prompts.PromptEngineering;
+import nz.ac.auckland.se206.speech.FillerClips;
+import nz.ac.auckland.se206.speech.Speech;
 import nz.ac.auckland.se206.speech.TextToSpeech;
+import nz.ac.auckland.se206.speech.TtsRouter;
+import org.yaml.snakeyaml.Yaml;
 
 /**
  * Controller class for the chat view. Handles user interactions and communication with the GPT
@@ -49,6 +70,81 @@ import nz.ac.auckland.se206.speech.TextToSpeech;
  */
 public class ChatController extends Controller {
 
+  /** A chat request being built ahead of time for a particular target and chat history. */
+  private static class PreparedRequest {
+    private final String target;
+    private final Conversation historySnapshot;
+    private final Future<ChatCompletionRequest> request;
+
+    private PreparedRequest(
+        String target, Conversation historySnapshot, Future<ChatCompletionRequest> request) {
+      this.target = target;
+      this.historySnapshot = historySnapshot;
+      this.request = request;
+    }
+  }
+
+  /** A finished reply from a character, with its synthesized speech if there is any. */
+  private static class GptReply {
+    private final String question;
+    private final ChatMessage message;
+    private final Speech speech;
+    private final byte[] audio; // The whole MP3, if the speech was downloaded rather than streamed
+    private final int tokens;
+
+    private GptReply(String question, ChatMessage message, Speech speech, int tokens) {
+      this(question, message, speech, null, tokens);
+    }
+
+    private GptReply(
+        String question, ChatMessage message, Speech speech, byte[] audio, int tokens) {
+      this.question = question;
+      this.message = message;
+      this.speech = speech;
+      this.audio = audio;
+      this.tokens = tokens;
+    }
+  }
+
+  /** A line of the history panel, wrapped to the width of the list. */
+  private static class TranscriptCell extends ListCell<TranscriptStore.Entry> {
+    private TranscriptCell() {
+      setWrapText(true);
+      setPrefWidth(0); // Let the list decide the width so long lines wrap instead of scrolling
+    }
+
+    @Override
+    protected void updateItem(TranscriptStore.Entry entry, boolean empty) {
+      super.updateItem(entry, empty);
+      setText(empty || entry == null ? null : entry.toString());
+    }
+  }
+
+  private static final long MINIMUM_REPLY_DELAY_MILLIS = 2000;
+  private static final int MAX_SUGGESTIONS = 3;
+
+  private static Map<String, List<String>> suggestions;
+
+  /**
+   * Loads the suggested questions for each character from the YAML data file. The file is only
+   * parsed once.
+   *
+   * @return the suggested questions, keyed by character
+   */
+  private static synchronized Map<String, List<String>> loadSuggestions() {
+    if (suggestions == null) {
+      try (InputStream inputStream =
+          ChatController.class.getClassLoader().getResourceAsStream("data/suggestions.yaml")) {
+        Map<String, Map<String, List<String>>> obj = new Yaml().load(inputStream);
+        suggestions = obj.get("suggestions");
+      } catch (IOException | RuntimeException e) {
+        e.printStackTrace();
+        suggestions = new HashMap<>();
+      }
+    }
+    return suggestions;
+  }
+
   @FXML private TextArea txtaChat;
   @FXML private TextField txtInput;
   @FXML private Button btnSend;
@@ -60,27 +156,43 @@ public class ChatController extends Controller {
   @FXML private ImageView imgComputer;
   @FXML private AnchorPane chatRoom;
   @FXML private Button btnHistory;
-  @FXML private TextArea txtaHistory;
+  @FXML private ListView<TranscriptStore.Entry> lstHistory;
   @FXML private Rectangle rectHistory;
   @FXML private Label lblTimer;
   @FXML private Arc arcTimer;
+  @FXML private HBox boxSuggestions;
 
   private ChatCompletionRequest chatCompletionRequest;
   private String target;
   private HashMap<String, String> fixedDialogue = new HashMap<>();
-  private long userMessageFinishTime = 0;
-  private boolean waitingForGptResponse = false;
-  private ChatMessage pendingGptResponse = null;
-  private Player storedTts = null;
-  private Thread ttsThread = null;
-  private String currentSpeaker = ""; // Track who is currently displaying text ("user" or "gpt")
-  private HashMap<String, List<ChatMessage>> chatHistory = new HashMap<>();
-  private String chatHistoryText = ""; // Store chat history text
-  private String chatHistoryTextSnapShot = ""; // Store chat history text snapshot
+  private final TurnEngine<GptReply> turnEngine =
+      new TurnEngine<>(Platform::runLater, new TurnActions(), MINIMUM_REPLY_DELAY_MILLIS);
+  private Speech storedTts = null;
+  private Future<?> ttsPlayback = null;
+  private PauseTransition fillerDelay = null; // Waits for a slow reply before playing a filler
+  private Speech fillerSpeech = null;
+  private TaskScope scope; // Background work for the current visit to the chat scene
+  // Every message of the game, tagged with the character it was sent to or received from
+  private Conversation conversation = Conversation.empty();
+  private final TranscriptStore transcript = new TranscriptStore(); // What the player has seen
   private boolean historyView = false;
   private boolean isAnimating = false; // Track if history animation is playing
   private boolean isFading = false; // Track if fade animation is playing
   private Timeline thinkingAnimation; // Track thinking animation
+  private PreparedRequest preparedRequest = null; // Request built during the room fade out
+  // Replies to the suggested questions, fetched while the player reads
+  private final SuggestionPrefetcher<GptReply> prefetcher =
+      new SuggestionPrefetcher<>(
+          BackgroundTasks.getInstance().prefetchExecutor(),
+          reply -> reply.tokens,
+          reply -> {
+            if (reply.speech != null) {
+              reply.speech.close();
+            }
+          });
+  private Conversation suggestionsSnapshot = null; // The request messages suggestions were made for
+  private final Set<String> askedQuestions = new HashSet<>();
+  private Future<GptReply> prefetchedReply = null; // The prefetched reply to the question just sent
 
   /**
    * Initializes the chat view.
@@ -95,7 +207,11 @@ public class ChatController extends Controller {
 
     txtInput.setVisible(false);
     btnSend.setVisible(false);
-    txtaHistory.setVisible(false);
+    lstHistory.setVisible(false);
+    boxSuggestions.setVisible(false);
+    // The list only lays out the visible lines and follows the transcript as it grows
+    lstHistory.setItems(transcript.getEntries());
+    lstHistory.setCellFactory(list -> new TranscriptCell());
     rectHistory.setVisible(false);
     rectHistory.setOpacity(0);
     rectHistory.setDisable(true);
@@ -115,9 +231,6 @@ public class ChatController extends Controller {
         "Evan",
         "It's early in the morning. I just arrived at the Greenhill Power Plant site and heard a"
             + " huge explosion.");
-    chatHistory.put("LOGOS-09", new ArrayList<>());
-    chatHistory.put("INDUS-07", new ArrayList<>());
-    chatHistory.put("Evan", new ArrayList<>());
   }
 
   /**
@@ -151,6 +264,19 @@ public class ChatController extends Controller {
 
     isFading = true; // Set flag to prevent further fade operations
 
+    // Leaving the chat, so cancel the current turn and any request or audio still in flight
+    turnEngine.cancel();
+    prefetcher.cancel();
+    suggestionsSnapshot = null;
+    boxSuggestions.setVisible(false);
+    if (App.DEBUG) {
+      System.out.println(prefetcher.getReport());
+      System.out.println(SemanticAnswerCache.getInstance().getReport());
+      System.out.println(TtsRouter.getInstance().getReport());
+    }
+    forceStopAudio();
+    closeScope();
+
     FadeTransition fadeTransition = new FadeTransition();
     fadeTransition.setDuration(Duration.millis(1000));
     fadeTransition.setNode(chatRoom);
@@ -180,6 +306,67 @@ public class ChatController extends Controller {
     return PromptEngineering.getPrompt(target, map);
   }
 
+  /**
+   * Starts building the chat request for the given target in the background. Called while the room
+   * fades out so that {@link #setTarget(String)} can use the finished request straight away.
+   *
+   * @param target the target that is about to be opened
+   */
+  public void prepareTarget(String target) {
+    Conversation historySnapshot = conversation;
+    FutureTask<ChatCompletionRequest> future =
+        new FutureTask<>(() -> buildRequest(target, historySnapshot));
+    getScope().submitIo(future);
+    preparedRequest = new PreparedRequest(target, historySnapshot, future);
+  }
+
+  /**
+   * Takes the request started by {@link #prepareTarget(String)} if it was prepared for the same
+   * target and chat history.
+   *
+   * @param target the target being opened
+   * @param historySnapshot the current chat history snapshot
+   * @return the prepared request, or null if there is no matching prepared request
+   */
+  private ChatCompletionRequest takePreparedRequest(String target, Conversation historySnapshot) {
+    PreparedRequest prepared = preparedRequest;
+    preparedRequest = null;
+    if (prepared == null
+        || !prepared.target.equals(target)
+        || prepared.historySnapshot != historySnapshot) {
+      return null;
+    }
+    try {
+      return prepared.request.get();
+    } catch (InterruptedException | ExecutionException | CancellationException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Builds the chat request for a target, including its system prompt and the chat history.
+   *
+   * @param target the target to build the request for
+   * @param historySnapshot the chat history to include in the system prompt
+   * @return the new chat request
+   * @throws ApiProxyException if the API proxy config cannot be read
+   */
+  private ChatCompletionRequest buildRequest(String target, Conversation historySnapshot)
+      throws ApiProxyException {
+    ApiProxyConfig config = ApiProxyConfig.readConfig();
+    ChatCompletionRequest request =
+        new ChatCompletionRequest(config)
+            .setN(1)
+            .setTemperature(0.8)
+            .setTopP(0.5)
+            .setMaxTokens(200);
+
+    // Add the system prompt and chat history snapshot, with the player shown as "Judge"
+    request.addMessage(
+        new ChatMessage("system", getSystemPrompt(target) + historySnapshot.toTranscript("Judge")));
+    return request;
+  }
+
   /**
    * Sets the target for the chat context and initializes the ChatCompletionRequest.
    *
@@ -196,46 +383,32 @@ public class ChatController extends Controller {
       imgComputer.setVisible(false);
       lblComputer.setVisible(false);
     }
-    chatHistoryTextSnapShot = chatHistoryText; // Store a snapshot of the chat history
+    Conversation historySnapshot = conversation;
     try {
-      ApiProxyConfig config = ApiProxyConfig.readConfig();
-      chatCompletionRequest =
-          new ChatCompletionRequest(config)
-              .setN(1)
-              .setTemperature(0.8)
-              .setTopP(0.5)
-              .setModel(Model.GPT_4o_MINI)
-              .setMaxTokens(200);
-
-      // Add the system prompt and chat history snapshot with all "You" replaced with "Judge"
-      chatCompletionRequest.addMessage(
-          new ChatMessage(
-              "system", getSystemPrompt(target) + chatHistoryTextSnapShot.replace("You", "Judge")));
-
-      currentSpeaker = "gpt";
+      chatCompletionRequest = takePreparedRequest(target, historySnapshot);
+      if (chatCompletionRequest == null) {
+        chatCompletionRequest = buildRequest(target, historySnapshot);
+      }
+
       lblWhoSpeaking.setText(target + ":");
 
-      // If the chatHistorySnapshot does not contain the targets fixed dialogue display it
-      if (!chatHistoryTextSnapShot.contains(fixedDialogue.get(target))) {
+      // If the target has not spoken yet display its fixed dialogue
+      TranscriptStore.Entry lastReply = transcript.getLastFrom(target);
+      if (lastReply == null) {
         txtInput.setVisible(false);
         btnSend.setVisible(false);
-        String message = fixedDialogue.get(target);
+        btnReturn.setDisable(true);
         // get the audio file and play it using the target name in sounds folder
         AudioClip voiceLine =
             new AudioClip(
                 App.class.getResource("/sounds/" + target + "_flashback.mp3").toExternalForm());
         voiceLine.play();
-        chatHistory.get(target).add(new ChatMessage("assistant", message));
-        chatHistoryText += target + ": " + message + "\n\n"; // Update chat history text
-        btnReturn.setDisable(true);
-        displayTextWithTypewriterEffect(txtaChat, message);
+        turnEngine.revealScripted(
+            new GptReply(null, new ChatMessage("assistant", fixedDialogue.get(target)), null, 0));
       } else {
-        // Find the last message sent by target in chatHistoryTextSnapShot
-        String lastMessage =
-            chatHistoryTextSnapShot.substring(
-                chatHistoryTextSnapShot.lastIndexOf(target + ": ") + (target + ": ").length());
-        lastMessage = lastMessage.substring(0, lastMessage.indexOf("\n\n"));
-        txtaChat.setText(lastMessage);
+        // Show the last message sent by the target
+        txtaChat.setText(lastReply.getText());
+        showSuggestions();
       }
     } catch (ApiProxyException e) {
       e.printStackTrace();
@@ -243,134 +416,150 @@ public class ChatController extends Controller {
   }
 
   /**
-   * Runs the GPT model with a given chat message.
+   * Runs the GPT model on the current chat request and synthesizes speech for the reply.
+   *
+   * @param request the chat request, including the player's latest message
+   * @param question the player's latest message
+   * @param character the character to speak the reply as
+   * @return the reply and its speech
+   * @throws ApiProxyException if there is an error communicating with the API proxy
+   */
+  private GptReply runGpt(ChatCompletionRequest request, String question, String character)
+      throws ApiProxyException {
+    ChatCompletionResult chatCompletionResult =
+        ModelRouter.getInstance().execute(ModelRouter.CallType.CHAT, character, request);
+    Choice result = chatCompletionResult.getChoices().iterator().next();
+    Speech speech = TtsRouter.getInstance().speak(character, result.getChatMessage().getContent());
+    return new GptReply(
+        question, result.getChatMessage(), speech, chatCompletionResult.getUsageTotalTokens());
+  }
+
+  /**
+   * Runs the GPT model for a suggested question the player has not picked yet. Unlike {@link
+   * #runGpt}, the reply's speech is downloaded in full rather than streamed, since most prefetched
+   * replies are thrown away and speech held in memory can be released without reading the rest of a
+   * download on the thread that discards it. The call is charged as a suggestion, which the usage
+   * ledger skips once the session's budget is degraded.
    *
-   * @param msg the chat message to process
-   * @return the response chat message
+   * @param request the chat request, including the suggested question
+   * @param question the suggested question
+   * @param character the character to speak the reply as
+   * @return the reply and its speech
    * @throws ApiProxyException if there is an error communicating with the API proxy
-   * @throws IOException
-   * @throws MalformedURLException
-   * @throws JavaLayerException
    */
-  private ChatMessage runGpt(ChatMessage msg)
-      throws ApiProxyException, MalformedURLException, IOException, JavaLayerException {
+  private GptReply prefetchReply(ChatCompletionRequest request, String question, String character)
+      throws ApiProxyException {
+    ChatCompletionResult chatCompletionResult =
+        ModelRouter.getInstance().execute(ModelRouter.CallType.SUGGESTION, character, request);
+    ChatMessage message = chatCompletionResult.getChoices().iterator().next().getChatMessage();
+    byte[] audio = TtsRouter.getInstance().synthesize(character, message.getContent());
     try {
-      ChatCompletionResult chatCompletionResult = chatCompletionRequest.execute();
-      Choice result = chatCompletionResult.getChoices().iterator().next();
-
-      Voice voice = null;
-      switch (target) {
-        case "LOGOS-09":
-          voice = Voice.OPENAI_SAGE;
-          break;
-        case "INDUS-07":
-          voice = Voice.OPENAI_ONYX;
-          break;
-        case "Evan":
-          voice = Voice.OPENAI_ASH;
-          break;
-      }
+      return new GptReply(
+          question,
+          message,
+          TextToSpeech.fromMp3(audio),
+          audio,
+          chatCompletionResult.getUsageTotalTokens());
+    } catch (IOException e) {
+      throw new ApiProxyException("Prefetched speech is unreadable: " + e.getMessage(), e);
+    }
+  }
 
-      storedTts = TextToSpeech.speak(result.getChatMessage().getContent(), Provider.OPENAI, voice);
+  /**
+   * Builds a reply from a cached answer, using its saved speech if there is any.
+   *
+   * @param answer the cached answer
+   * @param question the player's latest message
+   * @param character the character to speak the reply as if no speech was saved
+   * @return the reply and its speech
+   * @throws ApiProxyException if the speech has to be generated and that fails
+   */
+  private GptReply cachedReply(SemanticAnswerCache.Answer answer, String question, String character)
+      throws ApiProxyException {
+    if (App.DEBUG) {
+      System.out.printf(
+          "Answered \"%s\" from the cache of \"%s\" (similarity %.2f)%n",
+          question, answer.getQuestion(), answer.getSimilarity());
+    }
+    Speech speech = null;
+    byte[] audio = answer.loadAudio();
+    if (audio != null) {
+      try {
+        speech = TextToSpeech.fromMp3(audio);
+      } catch (IOException e) {
+        System.out.println("Cached speech is unreadable: " + e.getMessage());
+      }
+    }
+    if (speech == null) {
+      speech = TtsRouter.getInstance().speak(character, answer.getText());
+    }
+    return new GptReply(question, new ChatMessage("assistant", answer.getText()), speech, 0);
+  }
 
-      // Start a new thread to play the TTS audio
-      ttsThread =
-          new Thread(
-              () -> {
+  /**
+   * Saves the reply to an opening question in the answer cache, along with its speech, unless the
+   * cache would not keep it. A prefetched reply's speech is reused; streamed speech is generated
+   * again in full, so this runs at low priority.
+   *
+   * @param character the character that replied
+   * @param reply the reply
+   */
+  private void cacheOpeningReply(String character, GptReply reply) {
+    String answer = reply.message.getContent();
+    BackgroundTasks.getInstance()
+        .prefetchExecutor()
+        .execute(
+            () -> {
+              SemanticAnswerCache cache = SemanticAnswerCache.getInstance();
+              if (!cache.accepts(character, reply.question)) {
+                return;
+              }
+              byte[] audio = reply.audio;
+              if (audio == null) {
                 try {
-                  storedTts.play();
-                } catch (JavaLayerException e) {
-                  e.printStackTrace();
+                  audio = TtsRouter.getInstance().synthesize(character, answer);
+                } catch (ApiProxyException | RuntimeException e) {
+                  System.out.println("Caching the answer without speech: " + e.getMessage());
                 }
-              });
-
-      // Update UI on JavaFX Application Thread
-      Platform.runLater(
-          () -> {
-            // Add message to history
-            chatHistory.get(target).add(result.getChatMessage());
-            chatCompletionRequest.addMessage(result.getChatMessage());
-            chatHistoryText +=
-                target
-                    + ": "
-                    + result.getChatMessage().getContent()
-                    + "\n\n"; // Update chat history text
-
-            if (userMessageFinishTime > 0) {
-              System.out.println("User message has finished, displaying with delay");
-              // User message has finished, display with delay
-              displayGptResponseWithDelay(result.getChatMessage());
-            } else {
-              System.out.println("User message still typing, storing response for later");
-              // User message still typing, store response for later
-              pendingGptResponse = result.getChatMessage();
-            }
-          });
+              }
+              cache.store(character, reply.question, answer, audio);
+            });
+  }
 
-      return result.getChatMessage();
-    } catch (ApiProxyException e) {
-      e.printStackTrace();
-      return null;
+  /**
+   * Returns whether the player's latest message is the first they have asked the current target.
+   *
+   * @return true if the target has been asked exactly one question
+   */
+  private boolean isOpeningQuestion() {
+    int questions = 0;
+    for (ChatMessage message : conversation.messages(target)) {
+      if (message.getRole().equals("user")) {
+        questions++;
+      }
     }
+    return questions == 1;
   }
 
   /**
-   * Displays the GPT response with a minimum 2-second delay from when the user's message finished.
+   * Returns whether the player has talked to anyone but the current target. Every character's
+   * system prompt includes the transcript of the whole trial, so only a conversation with no other
+   * characters in it has the same context from one game to the next.
    *
-   * @param message the GPT response message to display
+   * @return true if the conversation has messages to or from another character
    */
-  private void displayGptResponseWithDelay(ChatMessage message) {
-    long elapsedSinceUserFinish = System.currentTimeMillis() - userMessageFinishTime;
-    long minimumDelay = 2000; // 2 seconds minimum delay
-    long additionalDelay = Math.max(0, minimumDelay - elapsedSinceUserFinish);
-
-    if (additionalDelay > 0) {
-      // Use Timeline to create a delay before showing GPT response
-      Timeline timeline = new Timeline();
-      timeline
-          .getKeyFrames()
-          .add(
-              new KeyFrame(
-                  Duration.millis(additionalDelay),
-                  e -> {
-                    currentSpeaker = "gpt";
-                    lblWhoSpeaking.setText(target + ":");
-                    stopThinkingAnimation();
-                    ttsThread.start();
-                    displayTextWithTypewriterEffect(txtaChat, message.getContent());
-                    waitingForGptResponse = false;
-                  }));
-      timeline.play();
-    } else {
-      // No additional delay needed
-      currentSpeaker = "gpt";
-      lblWhoSpeaking.setText(target + ":");
-      stopThinkingAnimation();
-      ttsThread.start();
-      displayTextWithTypewriterEffect(txtaChat, message.getContent());
-      waitingForGptResponse = false;
+  private boolean hasOtherCharacters() {
+    for (int i = 0; i < conversation.size(); i++) {
+      if (!target.equals(conversation.getChannel(i))) {
+        return true;
+      }
     }
+    return false;
   }
 
   @Override
   protected void onTypewriterEffectFinish() {
-    if (waitingForGptResponse && currentSpeaker.equals("user")) {
-      // User message typewriter finished, record the time
-      userMessageFinishTime = System.currentTimeMillis();
-      startThinkingAnimation();
-
-      // If GPT response is ready, display it after minimum delay
-      if (pendingGptResponse != null) {
-        displayGptResponseWithDelay(pendingGptResponse);
-        pendingGptResponse = null;
-      }
-    } else if (currentSpeaker.equals("gpt")) {
-      // GPT message typewriter finished - show input controls
-      btnSend.setVisible(true);
-      txtInput.setVisible(true);
-      btnReturn.setDisable(false);
-      currentSpeaker = ""; // Reset speaker
-    }
+    turnEngine.textShown();
   }
 
   /**
@@ -383,67 +572,147 @@ public class ChatController extends Controller {
   @FXML
   private void onSendMessage(ActionEvent event) throws ApiProxyException, IOException {
     String message = txtInput.getText().trim();
-    if (message.isEmpty()) {
+    if (message.isEmpty() || !turnEngine.canSend()) {
       return;
     }
 
-    forceStopAudio();
-
-    // Clear input and disable controls to prevent multiple requests
+    // Clear input and hide controls straight away to prevent multiple requests
     txtInput.clear();
     btnSend.setVisible(false);
     txtInput.setVisible(false);
     btnReturn.setDisable(true);
 
-    // Reset timing variables
-    userMessageFinishTime = 0;
-    pendingGptResponse = null;
-    waitingForGptResponse = true;
-    currentSpeaker = "user";
-    lblWhoSpeaking.setText("You:");
+    // Use the prefetched reply if this is one of the suggested questions
+    prefetchedReply = prefetcher.take(chatCompletionRequest.getMessages(), message);
+    askedQuestions.add(message);
+    suggestionsSnapshot = null;
+    boxSuggestions.setVisible(false);
 
     ChatMessage msg = new ChatMessage("user", message);
 
     // Add message to history
-    chatHistory.get(target).add(msg);
-    chatHistoryText += "You: " + msg.getContent() + "\n"; // Update chat history text
-
+    conversation = conversation.append(target, msg);
+    transcript.append("You", message, "\n");
+    SessionJournal.getInstance().recordTurn(target, msg);
     chatCompletionRequest.addMessage(msg);
 
-    displayTextWithTypewriterEffect(txtaChat, message, 50, true, true);
+    turnEngine.send(message);
+  }
 
-    // Create a background task to run GPT
-    Task<ChatMessage> gptTask =
-        new Task<ChatMessage>() {
-          @Override
-          protected ChatMessage call() throws Exception {
-            return runGpt(msg);
-          }
-        };
+  /** The chat scene's side of the conversation turns driven by {@link TurnEngine}. */
+  private class TurnActions implements TurnEngine.Actions<GptReply> {
 
-    // Handle task failure
-    gptTask.setOnFailed(
-        e -> {
-          stopThinkingAnimation();
-          Platform.runLater(
-              () -> {
-                // Re-enable controls even if the task failed
-                btnSend.setVisible(true);
-                txtInput.setVisible(true);
-                txtInput.requestFocus();
-                waitingForGptResponse = false;
-
-                // Log the error
-                Throwable exception = gptTask.getException();
-                if (exception != null) {
-                  exception.printStackTrace();
+    @Override
+    public void showPlayerMessage(String message) {
+      lblWhoSpeaking.setText("You:");
+      displayTextWithTypewriterEffect(txtaChat, message, 50, true, true);
+    }
+
+    @Override
+    public Future<?> requestReply(long turnId, String message) {
+      ChatCompletionRequest request = chatCompletionRequest;
+      String character = target;
+      Future<GptReply> prefetched = prefetchedReply;
+      prefetchedReply = null;
+      // An opening question asked before talking to anyone else has the same context every game,
+      // so its answer can be reused
+      boolean opening = isOpeningQuestion() && !hasOtherCharacters();
+
+      // Create a background task to run GPT, unless the reply was prefetched or cached
+      Task<GptReply> gptTask =
+          new Task<GptReply>() {
+            @Override
+            protected GptReply call() throws Exception {
+              GptReply reply = null;
+              if (prefetched != null) {
+                try {
+                  reply = prefetched.get();
+                } catch (ExecutionException | CancellationException e) {
+                  System.out.println("Prefetched reply failed, asking again");
                 }
-              });
-        });
+              }
+              if (reply == null && opening) {
+                SemanticAnswerCache.Answer answer =
+                    SemanticAnswerCache.getInstance().lookup(character, message);
+                if (answer != null) {
+                  return cachedReply(answer, message, character);
+                }
+              }
+              if (reply == null) {
+                reply = runGpt(request, message, character);
+              }
+              if (opening) {
+                cacheOpeningReply(character, reply);
+              }
+              return reply;
+            }
+          };
+      gptTask.setOnSucceeded(e -> turnEngine.replyReceived(turnId, gptTask.getValue()));
+      gptTask.setOnFailed(e -> turnEngine.replyFailed(turnId, gptTask.getException()));
+
+      // Run the task on a virtual thread owned by this scene
+      return getScope().submitIo(gptTask);
+    }
+
+    @Override
+    public void setThinking(boolean thinking) {
+      if (thinking) {
+        startThinkingAnimation();
+        scheduleFiller();
+      } else {
+        stopThinkingAnimation();
+        stopFiller();
+      }
+    }
+
+    @Override
+    public boolean revealReply(long turnId, GptReply reply) {
+      // Add message to history
+      conversation = conversation.append(target, reply.message);
+      transcript.append(target, reply.message.getContent(), "\n\n");
+      SessionJournal.getInstance().recordTurn(target, reply.message);
+      // A scripted opening line has no question and is the same every game, so it is not noted
+      if (reply.question != null) {
+        EvidenceExtractor.getInstance()
+            .submitExchange(target, reply.question, reply.message.getContent());
+      }
+      chatCompletionRequest.addMessage(reply.message);
+
+      lblWhoSpeaking.setText(target + ":");
+      storedTts = reply.speech;
+      boolean speaking = startTtsPlayback(turnId);
+      displayTextWithTypewriterEffect(txtaChat, reply.message.getContent());
+      return speaking;
+    }
+
+    @Override
+    public void stopOutput() {
+      stopTypewriterEffect();
+      forceStopAudio();
+    }
+
+    @Override
+    public void onStateChanged(TurnEngine.State from, TurnEngine.State to) {
+      // The player can type again as soon as the reply has been fully displayed
+      boolean canSend = to == TurnEngine.State.IDLE || to == TurnEngine.State.SPEAKING;
+      btnSend.setVisible(canSend);
+      txtInput.setVisible(canSend);
+      btnReturn.setDisable(!canSend);
+      if (canSend) {
+        showSuggestions();
+      } else {
+        boxSuggestions.setVisible(false);
+      }
+    }
 
-    // Start the task in a background thread
-    Thread gptThread = new Thread(gptTask);
-    gptThread.start();
+    @Override
+    public void onReplyFailed(Throwable error) {
+      // Log the error and let the player try again
+      if (error != null) {
+        error.printStackTrace();
+      }
+      txtInput.requestFocus();
+    }
   }
 
   /**
@@ -456,7 +725,7 @@ public class ChatController extends Controller {
   @FXML
   private void onGoBack(ActionEvent event) throws ApiProxyException, IOException {
     // Prevent going back if text is still displaying, GPT is running, or fade is in progress
-    if (isTyping() || waitingForGptResponse || isFading) {
+    if (!turnEngine.canSend() || isTyping() || isFading) {
       System.out.println(
           "Cannot go back: Text is still displaying, GPT is processing, or fade animation is in"
               + " progress");
@@ -468,16 +737,114 @@ public class ChatController extends Controller {
   }
 
   public void forceStopAudio() {
+    stopFiller();
+
     // Stop any ongoing TTS audio before leaving
     if (storedTts != null) {
       storedTts.close();
       storedTts = null;
     }
 
-    // Stop the TTS thread if it's still running
-    if (ttsThread != null && ttsThread.isAlive()) {
-      ttsThread.interrupt();
-      ttsThread = null;
+    // Stop the TTS playback task if it's still running
+    if (ttsPlayback != null) {
+      ttsPlayback.cancel(true);
+      ttsPlayback = null;
+    }
+  }
+
+  /**
+   * Starts playing the stored TTS audio on the audio thread pool, reporting to the turn engine when
+   * it finishes.
+   *
+   * @param turnId the ID of the turn the audio belongs to
+   * @return true if there was audio to play
+   */
+  private boolean startTtsPlayback(long turnId) {
+    Speech speech = storedTts;
+    if (speech == null) {
+      return false;
+    }
+    ttsPlayback =
+        getScope()
+            .submitAudio(
+                () -> {
+                  try {
+                    speech.play();
+                  } catch (IOException e) {
+                    e.printStackTrace();
+                  } finally {
+                    turnEngine.audioFinished(turnId);
+                  }
+                });
+    return true;
+  }
+
+  /**
+   * Plays a filler line in the target's voice if the reply has not arrived within the filler
+   * threshold.
+   */
+  private void scheduleFiller() {
+    stopFiller();
+    // Match the voice the reply will most likely be spoken with
+    Voice voice = TtsRouter.getInstance().getVoice(target);
+    fillerDelay =
+        new PauseTransition(Duration.millis(FillerClips.getInstance().getThresholdMillis()));
+    fillerDelay.setOnFinished(
+        e -> {
+          fillerDelay = null;
+          byte[] clip = FillerClips.getInstance().pick(voice);
+          if (clip == null) {
+            return;
+          }
+          try {
+            Speech speech = TextToSpeech.fromMp3(clip);
+            fillerSpeech = speech;
+            getScope()
+                .submitAudio(
+                    () -> {
+                      try {
+                        speech.play();
+                      } catch (IOException ex) {
+                        ex.printStackTrace();
+                      }
+                    });
+          } catch (IOException ex) {
+            ex.printStackTrace();
+          }
+        });
+    fillerDelay.play();
+  }
+
+  /** Cancels a pending filler and cuts off one that is playing, so the reply can be heard. */
+  private void stopFiller() {
+    if (fillerDelay != null) {
+      fillerDelay.stop();
+      fillerDelay = null;
+    }
+    if (fillerSpeech != null) {
+      fillerSpeech.close();
+      fillerSpeech = null;
+    }
+  }
+
+  /**
+   * Gets the task scope for the current visit to the chat scene, opening a new one if the previous
+   * visit's scope has been closed.
+   *
+   * @return the open task scope
+   */
+  private TaskScope getScope() {
+    if (scope == null || scope.isClosed()) {
+      scope = BackgroundTasks.getInstance().openScope("chat");
+    }
+    return scope;
+  }
+
+  /** Cancels all background work started during this visit to the chat scene. */
+  private void closeScope() {
+    if (scope != null) {
+      scope.close();
+      scope = null;
     }
   }
 
@@ -498,7 +865,7 @@ public class ChatController extends Controller {
     if (!historyView) {
       isAnimating = true; // Set flag to prevent further clicks
 
-      txtaHistory.setText(chatHistoryText); // Set chat history text
+      lstHistory.scrollTo(transcript.size() - 1); // Show the latest messages
 
       rectHistory.setVisible(true);
       // Fade rectHistory to 0.5 opacity
@@ -507,11 +874,11 @@ public class ChatController extends Controller {
       fade.setToValue(0.5);
 
       // Set initial position off-screen to the right
-      txtaHistory.setTranslateX(txtaHistory.getWidth());
+      lstHistory.setTranslateX(lstHistory.getWidth());
 
       // Create slide-in animation from the right
-      TranslateTransition slideIn = new TranslateTransition(Duration.millis(300), txtaHistory);
-      slideIn.setFromX(txtaHistory.getWidth());
+      TranslateTransition slideIn = new TranslateTransition(Duration.millis(300), lstHistory);
+      slideIn.setFromX(lstHistory.getWidth());
       slideIn.setToX(0);
 
       // Reset animation flag when complete
@@ -521,7 +888,7 @@ public class ChatController extends Controller {
       fade.play();
       slideIn.play();
 
-      txtaHistory.setVisible(true);
+      lstHistory.setVisible(true);
       historyView = true;
       btnHistory.setText("Hide History");
     } else {
@@ -534,15 +901,15 @@ public class ChatController extends Controller {
       fade.play();
 
       // Create slide-out animation to the right
-      TranslateTransition slideOut = new TranslateTransition(Duration.millis(300), txtaHistory);
+      TranslateTransition slideOut = new TranslateTransition(Duration.millis(300), lstHistory);
       slideOut.setFromX(0);
-      slideOut.setToX(txtaHistory.getWidth());
+      slideOut.setToX(lstHistory.getWidth());
       slideOut.play();
 
       // Hide elements after animation completes and reset state
       slideOut.setOnFinished(
           e -> {
-            txtaHistory.setVisible(false);
+            lstHistory.setVisible(false);
             isAnimating = false; // Reset animation flag
           });
       fade.setOnFinished(e -> rectHistory.setVisible(false));
@@ -563,7 +930,7 @@ public class ChatController extends Controller {
   @FXML
   private void onComputerClick(MouseEvent event) throws ApiProxyException, IOException {
     // Handle computer click event
-    if (currentSpeaker.equals("") && !isTyping()) {
+    if (turnEngine.getState() == TurnEngine.State.IDLE && !isTyping()) {
       txtInput.setText(
           "Did INDUS-07 receive any messages before sending the command to the workers?");
       onSendMessage(null);
@@ -574,6 +941,60 @@ public class ChatController extends Controller {
     }
   }
 
+  /**
+   * Shows the suggested questions for the current target that have not been asked yet, and starts
+   * fetching their replies in the background. Does nothing if the suggestions for the current
+   * conversation are already showing.
+   */
+  private void showSuggestions() {
+    ChatCompletionRequest request = chatCompletionRequest;
+    if (request == null || request.getMessages() == suggestionsSnapshot) {
+      return;
+    }
+    suggestionsSnapshot = request.getMessages();
+
+    List<String> questions = new ArrayList<>();
+    for (String question : loadSuggestions().getOrDefault(target, List.of())) {
+      if (questions.size() < MAX_SUGGESTIONS && !askedQuestions.contains(question)) {
+        questions.add(question);
+      }
+    }
+
+    boxSuggestions.getChildren().clear();
+    for (String question : questions) {
+      Button button = new Button(question);
+      button.setFocusTraversable(false);
+      button.setOnAction(e -> onSuggestionClick(question));
+      boxSuggestions.getChildren().add(button);
+    }
+    boxSuggestions.setVisible(!questions.isEmpty());
+
+    String character = target;
+    prefetcher.prefetch(
+        suggestionsSnapshot,
+        questions,
+        question ->
+            prefetchReply(
+                request.copy().addMessage(new ChatMessage("user", question)), question, character));
+  }
+
+  /**
+   * Sends a suggested question.
+   *
+   * @param question the suggested question
+   */
+  private void onSuggestionClick(String question) {
+    if (!turnEngine.canSend() || isTyping() || isFading) {
+      return;
+    }
+    txtInput.setText(question);
+    try {
+      onSendMessage(null);
+    } catch (ApiProxyException | IOException e) {
+      e.printStackTrace();
+    }
+  }
+
   /** Starts the thinking animation by cycling through dots appearing and disappearing. */
   private void startThinkingAnimation() {
     if (thinkingAnimation != null) {
@@ -609,6 +1030,42 @@ public class ChatController extends Controller {
    * @return the complete chat history as a string
    */
   public String getChatHistoryText() {
-    return chatHistoryText;
+    return transcript.getText();
+  }
+
+  /**
+   * Restores the messages of an earlier session that was replayed from the session journal. Must be
+   * called before the chat is first opened.
+   *
+   * @param turns the recovered messages, oldest first
+   */
+  public void restoreHistory(List<RecoveredSession.Turn> turns) {
+    Map<String, String> lastQuestions = new HashMap<>();
+    for (RecoveredSession.Turn turn : turns) {
+      ChatMessage message = turn.getMessage();
+      conversation = conversation.append(turn.getTarget(), message);
+      if (message.getRole().equals("user")) {
+        transcript.append("You", message.getContent(), "\n");
+        lastQuestions.put(turn.getTarget(), message.getContent());
+      } else {
+        transcript.append(turn.getTarget(), message.getContent(), "\n\n");
+        // Rebuild the evidence notes, which are not journaled, skipping the scripted opening lines
+        String question = lastQuestions.remove(turn.getTarget());
+        if (question != null) {
+          EvidenceExtractor.getInstance()
+              .submitExchange(turn.getTarget(), question, message.getContent());
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets a snapshot of every message sent and received in the chat so far. The snapshot never
+   * changes, so it can be read on any thread.
+   *
+   * @return the conversation so far
+   */
+  public Conversation getConversation() {
+    return conversation;
   }
 }
@@ -61,11 +61,8 @@ public abstract class Controller {
           new KeyFrame(
               Duration.millis(charIndex * delayPerCharacter),
               e -> {
-                if (clearFirst) {
-                  textArea.setText(textToDisplay.substring(0, charIndex));
-                } else {
-                  textArea.setText(existingText + textToDisplay.substring(0, charIndex));
-                }
+                textArea.setText(
+                    typewriterText(clearFirst ? "" : existingText, textToDisplay, charIndex));
 
                 // Play user talk sound if enabled
                 if (addSound) {
@@ -87,6 +84,21 @@ public abstract class Controller {
     typewriterTimeline.play();
   }
 
+  /**
+   * Gets the text shown by one frame of the typewriter effect.
+   *
+   * @param existingText the text that was in the TextArea before the effect started
+   * @param textToDisplay the text being typed
+   * @param charIndex the number of characters typed so far
+   * @return the existing text followed by the typed characters
+   */
+  static String typewriterText(String existingText, String textToDisplay, int charIndex) {
+    if (existingText.isEmpty()) {
+      return textToDisplay.substring(0, charIndex);
+    }
+    return existingText + textToDisplay.substring(0, charIndex);
+  }
+
   /**
    * Creates a typewriter effect for displaying text in a TextArea, clearing it first.
    *
@@ -137,6 +149,7 @@ public abstract class Controller {
     if (typewriterTimeline != null) {
       typewriterTimeline.stop();
     }
+    isTyping = false;
   }
 
   /** Instantly finishes the current typewriter effect by displaying the full text. */
@@ -1,7 +1,10 @@
 package nz.ac.auckland.se206.controllers;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import javafx.animation.FadeTransition;
-import javafx.application.Platform;
 import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
@@ -9,19 +12,33 @@ import javafx.scene.control.TextArea;
 import javafx.scene.layout.Pane;
 import javafx.util.Duration;
 import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
-import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
 import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionResult;
 import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
 import nz.ac.auckland.apiproxy.chat.openai.Choice;
+import nz.ac.auckland.apiproxy.chat.openai.Conversation;
 import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
 import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.se206.App;
+import nz.ac.auckland.se206.chat.EvidenceExtractor;
+import nz.ac.auckland.se206.chat.EvidenceLog;
+import nz.ac.auckland.se206.chat.ModelRouter;
+import nz.ac.auckland.se206.concurrent.BackgroundTasks;
+import nz.ac.auckland.se206.concurrent.TaskScope;
 
 public class DebriefController extends Controller {
   @FXML private TextArea txtaDebrief;
   @FXML private Label lblCorrect;
   @FXML private Pane debrief;
 
-  private ChatCompletionRequest chatCompletionRequest;
+  private static final long EVIDENCE_WAIT_MILLIS = 5000;
+  private static final int MAX_FALLBACK_TRANSCRIPT_LENGTH =
+      EvidenceLog.MAX_NOTES_PER_CHARACTER * EvidenceLog.MAX_NOTE_LENGTH * 3;
+
+  private TaskScope scope;
+  // Debriefs for both verdicts, generated while the player is deciding
+  private final Map<Boolean, Future<String>> speculatedDebriefs = new HashMap<>();
+  private Conversation speculatedConversation = null;
+  private long speculationStartTime = 0;
 
   public void fadeIn() {
     FadeTransition fadeTransition = new FadeTransition();
@@ -33,28 +50,53 @@ public class DebriefController extends Controller {
     fadeTransition.play();
   }
 
-  public void runGptDebrief(String chatHistory, boolean wasCorrect) {
-    // Create a background task for GPT analysis
+  /**
+   * Starts generating the debrief for both verdicts in the background, so that whichever verdict
+   * the player picks has a head start. Called when the guessing state begins.
+   *
+   * @param conversation the chat history the debriefs are based on
+   */
+  public void prepareDebriefs(Conversation conversation) {
+    cancelSpeculativeDebriefs();
+    speculatedConversation = conversation;
+    speculationStartTime = System.currentTimeMillis();
+    for (boolean wasCorrect : new boolean[] {true, false}) {
+      FutureTask<String> debriefTask =
+          new FutureTask<>(() -> requestDebrief(conversation, wasCorrect));
+      scope.submitIo(debriefTask);
+      speculatedDebriefs.put(wasCorrect, debriefTask);
+    }
+  }
+
+  /**
+   * Shows the debrief for the chosen verdict. If it was already being generated for the same chat
+   * history it is reused and the debrief for the other verdict is cancelled; otherwise it is
+   * generated now.
+   *
+   * @param conversation the chat history to analyse
+   * @param wasCorrect whether the player chose the correct verdict
+   */
+  public void runGptDebrief(Conversation conversation, boolean wasCorrect) {
+    Future<String> debrief =
+        conversation == speculatedConversation ? speculatedDebriefs.remove(wasCorrect) : null;
+    cancelSpeculativeDebriefs();
+
+    boolean speculative = debrief != null;
+    if (!speculative) {
+      FutureTask<String> debriefTask =
+          new FutureTask<>(() -> requestDebrief(conversation, wasCorrect));
+      scope.submitIo(debriefTask);
+      debrief = debriefTask;
+    }
+
+    // Wait for the analysis in the background, so a finished speculative debrief shows at once
+    Future<String> chosen = debrief;
+    long verdictTime = System.currentTimeMillis();
     Task<String> gptTask =
         new Task<String>() {
           @Override
           protected String call() throws Exception {
-            // Add the system prompt and chat history snapshot with all "You" replaced with "Judge"
-            chatCompletionRequest.addMessage(
-                new ChatMessage(
-                    "system",
-                    buildAnalysisPrompt(chatHistory.replace("You", "Judge"), wasCorrect)));
-
-            try {
-              ChatCompletionResult chatCompletionResult = chatCompletionRequest.execute();
-              Choice result = chatCompletionResult.getChoices().iterator().next();
-              chatCompletionRequest.addMessage(result.getChatMessage());
-
-              return result.getChatMessage().getContent();
-            } catch (ApiProxyException e) {
-              e.printStackTrace();
-              return null;
-            }
+            return chosen.get();
           }
         };
 
@@ -62,41 +104,106 @@ public class DebriefController extends Controller {
     gptTask.setOnSucceeded(
         e -> {
           String analysis = gptTask.getValue();
-          Platform.runLater(
-              () -> {
-                displayTextWithTypewriterEffect(txtaDebrief, analysis, 10);
-              });
+          if (App.DEBUG) {
+            System.out.println(
+                "Debrief shown "
+                    + (System.currentTimeMillis() - verdictTime)
+                    + " ms after the verdict"
+                    + (speculative
+                        ? " (generation started "
+                            + (verdictTime - speculationStartTime)
+                            + " ms before it)"
+                        : ""));
+          }
+          displayTextWithTypewriterEffect(txtaDebrief, analysis, 10);
         });
 
     // Handle failure
     gptTask.setOnFailed(
         e -> {
-          Platform.runLater(
-              () -> {
-                setDebriefText("Analysis failed. Please try again.");
-              });
+          if (gptTask.getException() != null) {
+            gptTask.getException().printStackTrace();
+          }
+          setDebriefText("Analysis failed. Please try again.");
         });
 
-    // Start the task in a new thread
-    Thread gptThread = new Thread(gptTask);
-    gptThread.setDaemon(true);
-    gptThread.start();
+    // Run the task on a virtual thread owned by this scene
+    scope.submitIo(gptTask);
+  }
+
+  /** Cancels any debriefs that were being generated ahead of the verdict. */
+  private void cancelSpeculativeDebriefs() {
+    for (Future<String> debrief : speculatedDebriefs.values()) {
+      debrief.cancel(true);
+    }
+    speculatedDebriefs.clear();
+    speculatedConversation = null;
   }
 
   /**
-   * Creates a prompt to feed into GPT using the chat history and whether or not the user chose the
-   * correct verdict between guilty and not guilty. It's designed to use specific quotes and
-   * evidence to give detailed feedback
+   * Asks GPT to analyse the chat history for one verdict. Runs on a background thread.
+   *
+   * @param conversation the chat history to analyse
+   * @param wasCorrect whether the verdict is the correct one
+   * @return the analysis
+   * @throws ApiProxyException if there is an error communicating with the API proxy
    */
-  private String buildAnalysisPrompt(String chatHistory, boolean wasCorrect) {
+  private String requestDebrief(Conversation conversation, boolean wasCorrect)
+      throws ApiProxyException {
+    ChatCompletionRequest request =
+        new ChatCompletionRequest(ApiProxyConfig.readConfig())
+            .setN(1)
+            .setTemperature(0.2)
+            .setTopP(0.5)
+            .setMaxTokens(2000);
+
+    request.addMessage(
+        new ChatMessage("system", buildAnalysisPrompt(getEvidence(conversation), wasCorrect)));
+
+    ChatCompletionResult chatCompletionResult =
+        ModelRouter.getInstance().execute(ModelRouter.CallType.DEBRIEF, request);
+    Choice result = chatCompletionResult.getChoices().iterator().next();
+    return result.getChatMessage().getContent();
+  }
+
+  /**
+   * Gets the evidence the debrief is based on. This is the evidence log kept while the player
+   * chatted, which has a fixed maximum size. If no evidence could be extracted, the end of the chat
+   * transcript is used instead, cut to the same size.
+   *
+   * @param conversation the chat history
+   * @return the evidence text
+   */
+  private String getEvidence(Conversation conversation) {
+    EvidenceExtractor extractor = EvidenceExtractor.getInstance();
+    if (!extractor.awaitIdle(EVIDENCE_WAIT_MILLIS)) {
+      System.out.println("Debrief is using evidence that does not include the latest exchanges");
+    }
+    if (!extractor.getLog().isEmpty()) {
+      return extractor.getLog().render();
+    }
+
+    // Use the player's name as "Judge" in the transcript
+    String transcript = conversation.toTranscript("Judge");
+    return transcript.length() <= MAX_FALLBACK_TRANSCRIPT_LENGTH
+        ? transcript
+        : transcript.substring(transcript.length() - MAX_FALLBACK_TRANSCRIPT_LENGTH);
+  }
+
+  /**
+   * Creates a prompt to feed into GPT using the evidence from the chat history and whether or not
+   * the user chose the correct verdict between guilty and not guilty. It's designed to use specific
+   * quotes and evidence to give detailed feedback
+   */
+  private String buildAnalysisPrompt(String evidence, boolean wasCorrect) {
     StringBuilder prompt = new StringBuilder();
     // Added context
     prompt.append(
-        "You are an expert trial analyst. Analyze the following conversation between a judge and"
-            + " characters in a trial simulation.\n\n");
+        "You are an expert trial analyst. Analyze the following evidence from the conversations"
+            + " between a judge and characters in a trial simulation.\n\n");
 
-    // Added chat history
-    prompt.append("Chat History:\n").append(chatHistory).append("\n\n");
+    // Added evidence from the chat history
+    prompt.append("Evidence:\n").append(evidence).append("\n\n");
 
     // If the judge was correct then we give positive feedback
     if (wasCorrect) {
@@ -125,19 +232,7 @@ public class DebriefController extends Controller {
 
   @FXML
   public void initialize() {
-    fadeIn();
-    try {
-      ApiProxyConfig config = ApiProxyConfig.readConfig();
-      chatCompletionRequest =
-          new ChatCompletionRequest(config)
-              .setN(1)
-              .setTemperature(0.2)
-              .setTopP(0.5)
-              .setModel(Model.GPT_4o_MINI)
-              .setMaxTokens(2000);
-    } catch (ApiProxyException e) {
-      e.printStackTrace();
-    }
+    scope = BackgroundTasks.getInstance().openScope("debrief");
   }
 
   public void setDebriefText(String text) {
@@ -15,9 +15,13 @@ import javafx.scene.layout.Pane;
 import javafx.scene.shape.Arc;
 import javafx.scene.shape.Rectangle;
 import javafx.util.Duration;
+import nz.ac.auckland.apiproxy.service.ConnectionWarmup;
 import nz.ac.auckland.se206.App;
 import nz.ac.auckland.se206.GameStateContext;
 import nz.ac.auckland.se206.GameTimer;
+import nz.ac.auckland.se206.concurrent.BackgroundTasks;
+import nz.ac.auckland.se206.concurrent.TaskScope;
+import nz.ac.auckland.se206.journal.SessionJournal;
 
 /**
  * Controller class for the room view. Handles user interactions within the room where the user can
@@ -95,6 +99,7 @@ public class RoomController extends Controller {
 
   private boolean isFading = false;
   private boolean isGuessing = false;
+  private TaskScope scope; // Background work owned by the room, closed once a verdict is chosen
 
   public void initializeGuessingState() {
     txtaDialogue.setVisible(true);
@@ -115,6 +120,9 @@ public class RoomController extends Controller {
                 e.printStackTrace();
               }
             });
+    // Give the debrief a head start while the player decides on a verdict
+    App.prepareDebriefs();
+
     fixedDialogue.clear();
     fixedDialogue.add("I have finished analysing the memories of the witness and defendants.");
     fixedDialogue.add("I shall now decide if defendant is GUILTY or NOT GUILTY.");
@@ -156,6 +164,13 @@ public class RoomController extends Controller {
 
     isFading = true; // Set flag to prevent further fade operations
 
+    // Use the fade to build the chat request and make sure the connection is warm
+    ChatController chatController = (ChatController) App.getController("chat");
+    if (chatController != null) {
+      chatController.prepareTarget(target);
+    }
+    scope.submitIo(ConnectionWarmup.getInstance()::warmAll);
+
     FadeTransition fadeTransition = new FadeTransition();
     fadeTransition.setDuration(Duration.millis(1000));
     fadeTransition.setNode(room);
@@ -175,28 +190,34 @@ public class RoomController extends Controller {
   }
 
   /**
-   * Initializes the room view. If it's the first time initialization, it will provide instructions
-   * via text-to-speech.
+   * Initializes the room view. The room may be loaded in the background before the player presses
+   * start, so this only sets up the nodes; the trial itself begins in {@link #startTrial()}.
    */
   @FXML
   public void initialize() {
-    fadeIn();
     context.setRoomController(this); // Set reference to this controller
+    scope = BackgroundTasks.getInstance().openScope("room");
 
     lblTimer.setAlignment(Pos.CENTER);
 
     lblTimer.setVisible(true);
     arcTimer.setVisible(true);
-    GameTimer.getInstance().start();
 
     btnGuilty.setVisible(false);
     btnNotGuilty.setVisible(false);
 
-    // Register timer label and start timer if this is the first initialization
+    // Register timer label
     GameTimer.getInstance().registerTimerLabel(lblTimer);
     GameTimer.getInstance().registerTimerArc(arcTimer);
+  }
 
+  /**
+   * Starts the timer and the introductory dialogue the first time the room is shown. Must be called
+   * on the JavaFX Application Thread.
+   */
+  public void startTrial() {
     if (isFirstTimeInit) {
+      GameTimer.getInstance().start();
       lblContinue.setVisible(false);
       lblInstructions.setVisible(false);
       initializeFixedDialogue();
@@ -207,6 +228,30 @@ public class RoomController extends Controller {
     }
   }
 
+  /**
+   * Continues a trial that was interrupted, skipping the introduction. Must be called on the JavaFX
+   * Application Thread before {@link #startTrial()}.
+   *
+   * @param stateName the name of the game state the trial was in
+   * @param timeLeftMillis the time that was left on the timer
+   */
+  public void resumeTrial(String stateName, long timeLeftMillis) {
+    isFirstTimeInit = false;
+    lblContinue.setVisible(false);
+
+    if (stateName.equals("Guessing")) {
+      context.setState(context.getGuessingState());
+      initializeGuessingState();
+    } else {
+      txtaDialogue.setVisible(false);
+      lblWhoSpeaking.setVisible(false);
+      lblInstructions.setVisible(true);
+      context.setState(context.getGameStartedState());
+      GameTimer.getInstance().start();
+    }
+    GameTimer.getInstance().setTimeLeftMillis(timeLeftMillis);
+  }
+
   /**
    * Handles mouse clicks on rectangles representing people in the room.
    *
@@ -228,6 +273,17 @@ public class RoomController extends Controller {
     }
   }
 
+  /**
+   * Handles the mouse entering a rectangle representing a person in the room. The player is likely
+   * to click next, so the proxy connections are warmed in the background.
+   *
+   * @param event the mouse event triggered by entering a rectangle
+   */
+  @FXML
+  private void handleRectangleHover(MouseEvent event) {
+    scope.submitIo(ConnectionWarmup.getInstance()::warmAll);
+  }
+
   /**
    * Handles the guess button click event.
    *
@@ -259,6 +315,8 @@ public class RoomController extends Controller {
   @FXML
   private void onChooseGuilty(ActionEvent event) throws IOException {
     GameTimer.getInstance().stop();
+    scope.close();
+    SessionJournal.getInstance().recordFinished();
     App.openDebrief(null, false);
   }
 
@@ -271,6 +329,8 @@ public class RoomController extends Controller {
   @FXML
   private void onChooseNotGuilty(ActionEvent event) throws IOException {
     GameTimer.getInstance().stop();
+    scope.close();
+    SessionJournal.getInstance().recordFinished();
     App.openDebrief(null, true);
   }
 
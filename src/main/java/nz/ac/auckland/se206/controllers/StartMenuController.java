@@ -12,6 +12,7 @@ public class StartMenuController {
 
   @FXML
   private void onStart(ActionEvent event) throws ApiProxyException, IOException {
+    App.restoreSession();
     App.openRoom(null);
   }
 }
@@ -0,0 +1,97 @@
+package nz.ac.auckland.se206.journal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+
+/** The game session rebuilt by replaying the session journal at startup. */
+public class RecoveredSession {
+
+  /** A chat message together with the character it was sent to or received from. */
+  public static class Turn {
+    private final String target;
+    private final ChatMessage message;
+
+    Turn(String target, ChatMessage message) {
+      this.target = target;
+      this.message = message;
+    }
+
+    public String getTarget() {
+      return target;
+    }
+
+    public ChatMessage getMessage() {
+      return message;
+    }
+  }
+
+  private final List<Turn> turns = new ArrayList<>();
+  private String stateName = null;
+  private long timeLeftMillis = -1;
+  private boolean finished = false;
+
+  void addTurn(String target, ChatMessage message) {
+    turns.add(new Turn(target, message));
+  }
+
+  void setStateName(String stateName) {
+    this.stateName = stateName;
+  }
+
+  void setTimeLeftMillis(long timeLeftMillis) {
+    this.timeLeftMillis = timeLeftMillis;
+  }
+
+  void setFinished() {
+    this.finished = true;
+  }
+
+  /**
+   * Gets the chat turns of the session, oldest first.
+   *
+   * @return the recovered turns
+   */
+  public List<Turn> getTurns() {
+    return Collections.unmodifiableList(turns);
+  }
+
+  /**
+   * Gets the name of the game state the session was last in, such as "GameStarted".
+   *
+   * @return the state name, or null if no state change was recorded
+   */
+  public String getStateName() {
+    return stateName;
+  }
+
+  /**
+   * Gets the time that was left on the timer at the last checkpoint.
+   *
+   * @return the time left in milliseconds, or -1 if no checkpoint was recorded
+   */
+  public long getTimeLeftMillis() {
+    return timeLeftMillis;
+  }
+
+  /**
+   * Returns whether the session ended with a verdict.
+   *
+   * @return true if the session was finished
+   */
+  public boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * Returns whether the session was interrupted part way through the trial and can be continued.
+   *
+   * @return true if the session can be resumed
+   */
+  public boolean isResumable() {
+    return !finished
+        && timeLeftMillis > 0
+        && ("GameStarted".equals(stateName) || "Guessing".equals(stateName));
+  }
+}
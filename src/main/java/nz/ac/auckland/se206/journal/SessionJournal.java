@@ -0,0 +1,310 @@
+package nz.ac.auckland.se206.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import nz.ac.auckland.se206.App;
+
+/**
+ * Write-ahead journal of the current game session. Chat turns, timer checkpoints and game state
+ * changes are appended to a memory-mapped file as they happen, so the session survives the game
+ * being closed or crashing and can be replayed on the next launch.
+ *
+ * <p>Each record is stored as its length, a CRC32 of its contents and then the contents. Records
+ * are written to the mapped pages straight away, which the operating system keeps even if the JVM
+ * dies, and the pages are forced to disk once a second and after every state change so that a power
+ * loss costs at most a second of play. A record that was only partly written fails its checksum and
+ * ends the replay.
+ */
+public class SessionJournal {
+
+  private static final int MAGIC = 0x54524a31; // "TRJ1"
+  private static final int HEADER_BYTES = 4;
+  private static final int RECORD_HEADER_BYTES = 8;
+  private static final int INITIAL_CAPACITY = 1 << 20;
+  private static final long FORCE_INTERVAL_MILLIS = 1000;
+  private static final long TIMER_CHECKPOINT_MILLIS = 1000;
+
+  private static final byte TURN = 1;
+  private static final byte TIMER = 2;
+  private static final byte STATE = 3;
+  private static final byte FINISHED = 4;
+
+  private static SessionJournal instance;
+
+  /**
+   * Gets the singleton instance of the SessionJournal, which writes to a file in the user's home
+   * directory.
+   *
+   * @return the SessionJournal instance
+   */
+  public static synchronized SessionJournal getInstance() {
+    if (instance == null) {
+      instance =
+          new SessionJournal(
+              Paths.get(System.getProperty("user.home"), ".trial-ai", "session.journal"));
+    }
+    return instance;
+  }
+
+  private final Path path;
+  private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "session-journal");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private FileChannel channel;
+  private MappedByteBuffer buffer;
+  private RecoveredSession recovered;
+  private boolean dirty = false;
+  private boolean hasTimerCheckpoint = false;
+  private long lastTimerCheckpoint;
+
+  /**
+   * Creates a journal backed by the given file. The file is not touched until {@link #open()}.
+   *
+   * @param path the journal file
+   */
+  SessionJournal(Path path) {
+    this.path = path;
+  }
+
+  /**
+   * Opens the journal file and replays the session recorded in it. Later calls return the same
+   * result without reading the file again. Until the journal is opened, records are dropped.
+   *
+   * @return the recorded session, which is empty if there was no journal
+   * @throws IOException if the journal file cannot be opened
+   */
+  public synchronized RecoveredSession open() throws IOException {
+    if (recovered != null) {
+      return recovered;
+    }
+
+    Files.createDirectories(path.getParent());
+    channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    buffer =
+        channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), INITIAL_CAPACITY));
+    recovered = replay();
+
+    scheduler.scheduleWithFixedDelay(
+        this::force, FORCE_INTERVAL_MILLIS, FORCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    return recovered;
+  }
+
+  /**
+   * Discards the recorded session and starts journaling a new one from the beginning of the file.
+   */
+  public synchronized void startNewSession() {
+    if (buffer == null) {
+      return;
+    }
+    buffer.putInt(HEADER_BYTES, 0);
+    buffer.position(HEADER_BYTES);
+    hasTimerCheckpoint = false;
+    dirty = true;
+    force();
+  }
+
+  /**
+   * Records a chat message sent to or received from a character.
+   *
+   * @param target the character the message was sent to or received from
+   * @param message the message
+   */
+  public void recordTurn(String target, ChatMessage message) {
+    byte[] content = message.getContent().getBytes(StandardCharsets.UTF_8);
+    append(
+        TURN,
+        out -> {
+          out.writeUTF(target);
+          out.writeUTF(message.getRole());
+          out.writeInt(content.length);
+          out.write(content);
+        });
+  }
+
+  /**
+   * Records the time left on the game timer. Checkpoints less than a second apart are skipped, so
+   * this can be called on every timer tick.
+   *
+   * @param timeLeftMillis the time left in milliseconds
+   */
+  public void recordTimer(long timeLeftMillis) {
+    synchronized (this) {
+      if (hasTimerCheckpoint
+          && Math.abs(lastTimerCheckpoint - timeLeftMillis) < TIMER_CHECKPOINT_MILLIS) {
+        return;
+      }
+      hasTimerCheckpoint = true;
+      lastTimerCheckpoint = timeLeftMillis;
+    }
+    append(TIMER, out -> out.writeLong(timeLeftMillis));
+  }
+
+  /**
+   * Records a game state change and forces the journal to disk.
+   *
+   * @param stateName the name of the new state
+   */
+  public void recordState(String stateName) {
+    append(STATE, out -> out.writeUTF(stateName));
+    force();
+  }
+
+  /** Records that the session ended with a verdict, so it will not be resumed. */
+  public void recordFinished() {
+    append(FINISHED, out -> {});
+    force();
+  }
+
+  /** Writes any records that have not been forced to disk yet. */
+  public synchronized void force() {
+    if (buffer != null && dirty) {
+      buffer.force();
+      dirty = false;
+    }
+  }
+
+  /** Writes the fields of one record. */
+  private interface RecordWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  private void append(byte type, RecordWriter writer) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(type);
+      writer.write(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    byte[] payload = bytes.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+
+    synchronized (this) {
+      if (buffer == null) {
+        return;
+      }
+      try {
+        // Leave room for the next record's empty length, which marks the end of the journal
+        ensureCapacity(RECORD_HEADER_BYTES + payload.length + 4);
+      } catch (IOException e) {
+        System.out.println("Unable to grow the session journal: " + e.getMessage());
+        return;
+      }
+
+      int start = buffer.position();
+      buffer.putInt(start + 4, (int) crc.getValue());
+      buffer.put(start + RECORD_HEADER_BYTES, payload);
+      buffer.putInt(start + RECORD_HEADER_BYTES + payload.length, 0);
+      // The length goes in last so that a half-written record reads as the end of the journal
+      buffer.putInt(start, payload.length);
+      buffer.position(start + RECORD_HEADER_BYTES + payload.length);
+      dirty = true;
+    }
+  }
+
+  private void ensureCapacity(int bytes) throws IOException {
+    if (buffer.remaining() >= bytes) {
+      return;
+    }
+    int position = buffer.position();
+    long capacity = Math.max((long) buffer.capacity() * 2, (long) position + bytes);
+    buffer.force();
+    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    buffer.position(position);
+  }
+
+  /**
+   * Reads every complete record in the journal, leaving the buffer positioned after the last one.
+   *
+   * @return the recorded session
+   */
+  private RecoveredSession replay() {
+    RecoveredSession session = new RecoveredSession();
+    if (buffer.getInt(0) != MAGIC) {
+      // A new or unrecognised file, so start a fresh journal
+      buffer.putInt(0, MAGIC);
+      buffer.putInt(HEADER_BYTES, 0);
+      buffer.position(HEADER_BYTES);
+      dirty = true;
+      return session;
+    }
+
+    int position = HEADER_BYTES;
+    int records = 0;
+    while (position + RECORD_HEADER_BYTES <= buffer.capacity()) {
+      int length = buffer.getInt(position);
+      if (length <= 0 || position + RECORD_HEADER_BYTES + length > buffer.capacity()) {
+        break;
+      }
+      byte[] payload = new byte[length];
+      buffer.get(position + RECORD_HEADER_BYTES, payload);
+      CRC32 crc = new CRC32();
+      crc.update(payload);
+      if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+        System.out.println("Session journal ends with a torn record at byte " + position);
+        break;
+      }
+      try {
+        apply(session, payload);
+      } catch (IOException e) {
+        System.out.println("Session journal has an unreadable record at byte " + position);
+        break;
+      }
+      position += RECORD_HEADER_BYTES + length;
+      records++;
+    }
+
+    buffer.position(position);
+    if (App.DEBUG) {
+      System.out.println("Replayed " + records + " session journal records from " + path);
+    }
+    return session;
+  }
+
+  private void apply(RecoveredSession session, byte[] payload) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    switch (in.readByte()) {
+      case TURN:
+        String target = in.readUTF();
+        String role = in.readUTF();
+        byte[] content = new byte[in.readInt()];
+        in.readFully(content);
+        session.addTurn(target, new ChatMessage(role, new String(content, StandardCharsets.UTF_8)));
+        break;
+      case TIMER:
+        session.setTimeLeftMillis(in.readLong());
+        break;
+      case STATE:
+        session.setStateName(in.readUTF());
+        break;
+      case FINISHED:
+        session.setFinished();
+        break;
+      default:
+        throw new IOException("Unknown record type");
+    }
+  }
+}
@@ -7,6 +7,7 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Utility class for prompt engineering. This class provides methods to load and fill prompt
@@ -14,6 +15,22 @@ import java.util.Map;
  */
 public class PromptEngineering {
 
+  // Templates that have already been read from disk, keyed by prompt ID
+  private static final Map<String, String> templateCache = new ConcurrentHashMap<>();
+
+  /**
+   * Reads the given prompt templates into the cache so that later calls to {@link #getPrompt} do
+   * not need to touch the disk.
+   *
+   * @param promptIds the IDs of the prompt templates to load
+   * @throws IllegalArgumentException if a template cannot be loaded
+   */
+  public static void preloadTemplates(String... promptIds) {
+    for (String promptId : promptIds) {
+      getTemplate(promptId);
+    }
+  }
+
   /**
    * Retrieves a prompt template, fills it with the provided data, and returns the filled prompt.
    *
@@ -23,17 +40,31 @@ public class PromptEngineering {
    * @throws IllegalArgumentException if there is an error loading or filling the template
    */
   public static String getPrompt(String promptId, Map<String, String> data) {
-    try {
-      // Load the prompt template file from resources
-      URL resourceUrl =
-          PromptEngineering.class.getClassLoader().getResource("prompts/" + promptId + ".txt");
-      String template = loadTemplate(resourceUrl.toURI());
-      // Fill the template with the provided data
-      return fillTemplate(template, data);
-    } catch (IOException | URISyntaxException e) {
-      e.printStackTrace();
-      throw new IllegalArgumentException("Error loading or filling the prompt template.", e);
-    }
+    // Fill the template with the provided data
+    return fillTemplate(getTemplate(promptId), data);
+  }
+
+  /**
+   * Gets a prompt template, loading it from resources the first time it is requested.
+   *
+   * @param promptId the ID of the prompt template to load
+   * @return the unfilled template
+   * @throws IllegalArgumentException if there is an error loading the template
+   */
+  private static String getTemplate(String promptId) {
+    return templateCache.computeIfAbsent(
+        promptId,
+        id -> {
+          try {
+            // Load the prompt template file from resources
+            URL resourceUrl =
+                PromptEngineering.class.getClassLoader().getResource("prompts/" + id + ".txt");
+            return loadTemplate(resourceUrl.toURI());
+          } catch (IOException | URISyntaxException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("Error loading or filling the prompt template.", e);
+          }
+        });
   }
 
   /**
@@ -55,7 +86,7 @@ public class PromptEngineering {
    * @param data the data to fill into the template
    * @return the filled template string
    */
-  private static String fillTemplate(String template, Map<String, String> data) {
+  public static String fillTemplate(String template, Map<String, String> data) {
     for (Map.Entry<String, String> entry : data.entrySet()) {
       template = template.replace("{" + entry.getKey() + "}", entry.getValue());
     }
@@ -0,0 +1,139 @@
+package nz.ac.auckland.se206.speech;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Voice;
+import nz.ac.auckland.se206.concurrent.BackgroundTasks;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * A bank of short filler lines for each voice, played while a reply is slow to arrive so the wait
+ * is not silent. The lines are listed in {@code data/fillers.yaml}, synthesized once and cached in
+ * the user's home directory, so after the first launch they load without any network requests.
+ */
+public class FillerClips {
+
+  private static FillerClips instance;
+
+  /**
+   * Gets the singleton instance of the FillerClips.
+   *
+   * @return the FillerClips instance
+   */
+  public static synchronized FillerClips getInstance() {
+    if (instance == null) {
+      instance =
+          new FillerClips(Paths.get(System.getProperty("user.home"), ".trial-ai", "fillers"));
+    }
+    return instance;
+  }
+
+  private final Path directory;
+  private final Map<Voice, List<byte[]>> clips = new EnumMap<>(Voice.class);
+  private final Map<Voice, Integer> lastPlayed = new EnumMap<>(Voice.class);
+  private final Random random = new Random();
+  private volatile long thresholdMillis = 2500;
+
+  private FillerClips(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Loads the filler lines and makes sure each has cached speech, synthesizing any that are
+   * missing. The lines are fetched in parallel, and a line that fails is left out of the bank.
+   *
+   * @return the number of clips ready to play
+   */
+  @SuppressWarnings("unchecked")
+  public int prepare() {
+    Map<String, Object> obj;
+    try (InputStream inputStream =
+        FillerClips.class.getClassLoader().getResourceAsStream("data/fillers.yaml")) {
+      obj = new Yaml().load(inputStream);
+    } catch (IOException | RuntimeException e) {
+      e.printStackTrace();
+      return 0;
+    }
+    thresholdMillis = ((Number) obj.getOrDefault("thresholdMillis", thresholdMillis)).longValue();
+
+    List<CompletableFuture<Void>> loads = new ArrayList<>();
+    Map<String, List<String>> fillers = (Map<String, List<String>>) obj.get("fillers");
+    for (Map.Entry<String, List<String>> entry : fillers.entrySet()) {
+      Voice voice = Voice.valueOf(entry.getKey());
+      for (String line : entry.getValue()) {
+        loads.add(
+            CompletableFuture.runAsync(
+                () -> load(voice, line), BackgroundTasks.getInstance().ioExecutor()));
+      }
+    }
+    CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).join();
+
+    synchronized (this) {
+      int count = 0;
+      for (List<byte[]> voiceClips : clips.values()) {
+        count += voiceClips.size();
+      }
+      return count;
+    }
+  }
+
+  /**
+   * Gets how long a reply can take before a filler is played.
+   *
+   * @return the threshold in milliseconds
+   */
+  public long getThresholdMillis() {
+    return thresholdMillis;
+  }
+
+  /**
+   * Picks a filler clip for a voice, avoiding the one played last time if there is a choice.
+   *
+   * @param voice the voice
+   * @return the MP3 audio, or null if no clip is ready for the voice
+   */
+  public synchronized byte[] pick(Voice voice) {
+    List<byte[]> voiceClips = clips.get(voice);
+    if (voiceClips == null || voiceClips.isEmpty()) {
+      return null;
+    }
+    int index = random.nextInt(voiceClips.size());
+    Integer last = lastPlayed.get(voice);
+    if (voiceClips.size() > 1 && last != null && index == last) {
+      index = (index + 1) % voiceClips.size();
+    }
+    lastPlayed.put(voice, index);
+    return voiceClips.get(index);
+  }
+
+  /** Reads one line's cached speech, or synthesizes and caches it, and adds it to the bank. */
+  private void load(Voice voice, String line) {
+    Path file =
+        directory.resolve(voice.name() + "-" + Integer.toHexString(line.hashCode()) + ".mp3");
+    try {
+      byte[] audio;
+      if (Files.exists(file)) {
+        audio = Files.readAllBytes(file);
+      } else {
+        audio = TextToSpeech.synthesize(line, TtsRouter.getProvider(voice), voice);
+        Files.createDirectories(directory);
+        Files.write(file, audio);
+      }
+      synchronized (this) {
+        clips.computeIfAbsent(voice, k -> new ArrayList<>()).add(audio);
+      }
+    } catch (ApiProxyException | IOException e) {
+      System.out.println("Unable to prepare filler \"" + line + "\": " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package nz.ac.auckland.se206.speech;
+
+import com.sun.speech.freetts.Voice;
+import com.sun.speech.freetts.VoiceManager;
+import com.sun.speech.freetts.audio.AudioPlayer;
+import java.io.ByteArrayOutputStream;
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Synthesizes speech on this machine with FreeTTS, so characters can still speak when the text to
+ * speech providers are slow or unreachable. There is one FreeTTS voice, shaped for each character
+ * by its pitch and speaking rate. The voice is loaded on first use, which takes a moment, so it
+ * should be warmed up at startup.
+ */
+public class LocalSpeech {
+
+  /** How a character's local voice is shaped. */
+  public static class VoiceSettings {
+    private final float pitch;
+    private final float pitchRange;
+    private final float rate;
+
+    /**
+     * Creates voice settings.
+     *
+     * @param pitch the baseline pitch in hertz
+     * @param pitchRange the variation in pitch in hertz, where a small range sounds flat
+     * @param rate the speaking rate in words per minute
+     */
+    public VoiceSettings(float pitch, float pitchRange, float rate) {
+      this.pitch = pitch;
+      this.pitchRange = pitchRange;
+      this.rate = rate;
+    }
+  }
+
+  /** Collects the audio FreeTTS produces instead of playing it. */
+  private static class CapturingAudioPlayer implements AudioPlayer {
+    private final ByteArrayOutputStream audio = new ByteArrayOutputStream();
+    private AudioFormat format;
+    private float volume = 1;
+
+    @Override
+    public void setAudioFormat(AudioFormat format) {
+      this.format = format;
+    }
+
+    @Override
+    public AudioFormat getAudioFormat() {
+      return format;
+    }
+
+    @Override
+    public void pause() {}
+
+    @Override
+    public void resume() {}
+
+    @Override
+    public void reset() {
+      audio.reset();
+    }
+
+    @Override
+    public boolean drain() {
+      return true;
+    }
+
+    @Override
+    public void begin(int size) {}
+
+    @Override
+    public boolean end() {
+      return true;
+    }
+
+    @Override
+    public void cancel() {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public float getVolume() {
+      return volume;
+    }
+
+    @Override
+    public void setVolume(float volume) {
+      this.volume = volume;
+    }
+
+    @Override
+    public long getTime() {
+      return 0;
+    }
+
+    @Override
+    public void resetTime() {}
+
+    @Override
+    public void startFirstSampleTimer() {}
+
+    @Override
+    public boolean write(byte[] bytes) {
+      return write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public boolean write(byte[] bytes, int offset, int length) {
+      audio.write(bytes, offset, length);
+      return true;
+    }
+
+    @Override
+    public void showMetrics() {}
+  }
+
+  private static final String VOICE_NAME = "kevin16";
+
+  private static LocalSpeech instance;
+
+  /**
+   * Gets the singleton instance of the LocalSpeech.
+   *
+   * @return the LocalSpeech instance
+   */
+  public static synchronized LocalSpeech getInstance() {
+    if (instance == null) {
+      instance = new LocalSpeech();
+    }
+    return instance;
+  }
+
+  private Voice voice;
+
+  /** Private constructor for singleton pattern */
+  private LocalSpeech() {}
+
+  /**
+   * Loads the FreeTTS voice if it has not been loaded yet.
+   *
+   * @return true if the voice is ready
+   */
+  public synchronized boolean warmUp() {
+    if (voice == null) {
+      // The voices are bundled in the FreeTTS jar, but FreeTTS only looks for listed directories
+      System.setProperty(
+          "freetts.voices", "com.sun.speech.freetts.en.us.cmu_us_kal.KevinVoiceDirectory");
+      Voice loaded = VoiceManager.getInstance().getVoice(VOICE_NAME);
+      if (loaded == null) {
+        System.out.println("FreeTTS voice " + VOICE_NAME + " is not available");
+        return false;
+      }
+      loaded.allocate();
+      voice = loaded;
+    }
+    return true;
+  }
+
+  /**
+   * Synthesizes speech for the given text. Only one piece of text is synthesized at a time.
+   *
+   * @param text the text to speak
+   * @param settings the shape of the character's voice
+   * @return the speech, or null if it could not be synthesized
+   */
+  public synchronized Speech speak(String text, VoiceSettings settings) {
+    if (!warmUp()) {
+      return null;
+    }
+    CapturingAudioPlayer capture = new CapturingAudioPlayer();
+    voice.setAudioPlayer(capture);
+    voice.setPitch(settings.pitch);
+    voice.setPitchRange(settings.pitchRange);
+    voice.setRate(settings.rate);
+    if (!voice.speak(text) || capture.format == null) {
+      return null;
+    }
+    return new PcmSpeech(capture.audio.toByteArray(), capture.format);
+  }
+}
@@ -0,0 +1,40 @@
+package nz.ac.auckland.se206.speech;
+
+import java.io.IOException;
+import java.io.InputStream;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.player.Player;
+
+/** MP3 speech, decoded and played by JLayer as it is read. */
+class Mp3Speech implements Speech {
+
+  private final Player player;
+
+  /**
+   * Creates speech that plays an MP3 stream.
+   *
+   * @param inputStream the MP3 stream
+   * @throws IOException if the stream cannot be decoded
+   */
+  Mp3Speech(InputStream inputStream) throws IOException {
+    try {
+      player = new Player(inputStream);
+    } catch (JavaLayerException e) {
+      throw new IOException("Unable to decode speech: " + e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public void play() throws IOException {
+    try {
+      player.play();
+    } catch (JavaLayerException e) {
+      throw new IOException("Unable to play speech: " + e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public void close() {
+    player.close();
+  }
+}
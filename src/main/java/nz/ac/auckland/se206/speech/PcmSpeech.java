@@ -0,0 +1,59 @@
+package nz.ac.auckland.se206.speech;
+
+import java.io.IOException;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/** Uncompressed speech held in memory, played through the default audio output. */
+class PcmSpeech implements Speech {
+
+  private static final int CHUNK_BYTES = 4096;
+
+  private final byte[] audio;
+  private final AudioFormat format;
+  private volatile boolean closed = false;
+  private volatile SourceDataLine line;
+
+  /**
+   * Creates speech from PCM samples.
+   *
+   * @param audio the samples
+   * @param format the format of the samples
+   */
+  PcmSpeech(byte[] audio, AudioFormat format) {
+    this.audio = audio;
+    this.format = format;
+  }
+
+  @Override
+  public void play() throws IOException {
+    try (SourceDataLine output = AudioSystem.getSourceDataLine(format)) {
+      line = output;
+      output.open(format);
+      output.start();
+      // Write in small chunks so that closing stops playback promptly
+      for (int offset = 0; offset < audio.length && !closed; offset += CHUNK_BYTES) {
+        output.write(audio, offset, Math.min(CHUNK_BYTES, audio.length - offset));
+      }
+      if (!closed) {
+        output.drain();
+      }
+    } catch (LineUnavailableException | IllegalArgumentException e) {
+      throw new IOException("Unable to play speech: " + e.getMessage(), e);
+    } finally {
+      line = null;
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    SourceDataLine output = line;
+    if (output != null) {
+      output.stop();
+      output.flush();
+    }
+  }
+}
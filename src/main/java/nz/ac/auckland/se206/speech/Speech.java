@@ -0,0 +1,20 @@
+package nz.ac.auckland.se206.speech;
+
+import java.io.IOException;
+
+/**
+ * Synthesized speech that is ready to play, whether it is streamed MP3 from a remote provider or
+ * audio generated on this machine.
+ */
+public interface Speech {
+
+  /**
+   * Plays the speech, blocking until it finishes or is closed.
+   *
+   * @throws IOException if the audio cannot be decoded or played
+   */
+  void play() throws IOException;
+
+  /** Stops the speech if it is playing and releases its resources. Safe to call more than once. */
+  void close();
+}
@@ -1,13 +1,12 @@
 package nz.ac.auckland.se206.speech;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
-import javazoom.jl.decoder.JavaLayerException;
-import javazoom.jl.player.Player;
 import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
 import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.ProxyHttpClient;
 import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest;
 import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Provider;
 import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Voice;
@@ -17,31 +16,80 @@ import nz.ac.auckland.apiproxy.tts.TextToSpeechResult;
 public class TextToSpeech {
 
   /**
-   * Converts the given text to speech and plays the audio.
+   * Converts the given text to speech, ready to be streamed as it plays.
    *
    * @param text the text to be converted to speech
+   * @return the speech, or null if the audio could not be opened
    * @throws ApiProxyException
    * @throws IllegalArgumentException if the text is null or empty
    */
-  public static Player speak(String text, Provider provider, Voice voice) throws ApiProxyException {
-    Player player = null;
+  public static Speech speak(String text, Provider provider, Voice voice) throws ApiProxyException {
+    Speech speech = null;
     if (text == null || text.isEmpty()) {
       throw new IllegalArgumentException("Text should not be null or empty");
     }
     try {
-      ApiProxyConfig config = ApiProxyConfig.readConfig();
-
-      TextToSpeechRequest ttsRequest = new TextToSpeechRequest(config);
-      ttsRequest.setText(text).setProvider(provider).setVoice(voice);
+      InputStream inputStream = new BufferedInputStream(openAudio(text, provider, voice));
+      speech = new Mp3Speech(inputStream);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return speech;
+  }
 
-      TextToSpeechResult ttsResult = ttsRequest.execute();
-      String audioUrl = ttsResult.getAudioUrl();
+  /**
+   * Converts the given text to speech and opens the MP3 for download. The stream is open once the
+   * audio starts arriving, which is when playback would start.
+   *
+   * @param text the text to be converted to speech
+   * @param provider the text to speech provider
+   * @param voice the voice to speak with
+   * @return the MP3 stream, which the caller must close
+   * @throws ApiProxyException if the speech could not be generated
+   * @throws IOException if the audio could not be opened
+   */
+  public static InputStream openAudio(String text, Provider provider, Voice voice)
+      throws ApiProxyException, IOException {
+    if (text == null || text.isEmpty()) {
+      throw new IllegalArgumentException("Text should not be null or empty");
+    }
+    ApiProxyConfig config = ApiProxyConfig.readConfig();
+    TextToSpeechRequest ttsRequest = new TextToSpeechRequest(config);
+    ttsRequest.setText(text).setProvider(provider).setVoice(voice);
+    TextToSpeechResult ttsResult = ttsRequest.execute();
+    return ProxyHttpClient.openStream(ttsResult.getAudioUrl());
+  }
 
-      InputStream inputStream = new BufferedInputStream(new URL(audioUrl).openStream());
-      player = new Player(inputStream);
-    } catch (JavaLayerException | IOException e) {
-      e.printStackTrace();
+  /**
+   * Converts the given text to speech and downloads the whole MP3, so that it can be stored and
+   * played later without going back to the network.
+   *
+   * @param text the text to be converted to speech
+   * @param provider the text to speech provider
+   * @param voice the voice to speak with
+   * @return the MP3 audio
+   * @throws ApiProxyException if the speech could not be generated or downloaded
+   */
+  public static byte[] synthesize(String text, Provider provider, Voice voice)
+      throws ApiProxyException {
+    if (text == null || text.isEmpty()) {
+      throw new IllegalArgumentException("Text should not be null or empty");
     }
-    return player;
+    try (InputStream inputStream = openAudio(text, provider, voice)) {
+      return inputStream.readAllBytes();
+    } catch (IOException e) {
+      throw new ApiProxyException("Unable to download speech: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Creates speech from MP3 audio that is already in memory.
+   *
+   * @param audio the MP3 audio
+   * @return the speech, ready to play
+   * @throws IOException if the audio cannot be decoded
+   */
+  public static Speech fromMp3(byte[] audio) throws IOException {
+    return new Mp3Speech(new ByteArrayInputStream(audio));
   }
 }
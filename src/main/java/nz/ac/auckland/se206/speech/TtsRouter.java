@@ -0,0 +1,405 @@
+package nz.ac.auckland.se206.speech;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Provider;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest.Voice;
+import nz.ac.auckland.se206.App;
+import nz.ac.auckland.se206.concurrent.BackgroundTasks;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Chooses the text to speech provider for each utterance. The router measures how long each
+ * provider takes to start returning audio and how often it fails, and speaks with the fastest
+ * healthy provider in the character's voice for that provider, as listed in {@code
+ * data/voices.yaml}. If the chosen provider fails, the other one is tried. Short utterances can be
+ * raced on both providers, keeping whichever audio arrives first, which also keeps the measurements
+ * of both providers fresh.
+ *
+ * <p>Remote speech has a deadline. When no provider is healthy, which acts as an open circuit, or
+ * none has produced audio by the deadline, the line is spoken by {@link LocalSpeech} instead, so
+ * the wait for a voice is capped even with no network. Very short lines can also be raced against
+ * local synthesis.
+ */
+public class TtsRouter {
+
+  /** Smoothed latency and failure rate of one provider. */
+  private static class ProviderStats {
+    private static final double SMOOTHING = 0.2;
+
+    private double latencyMillis = -1; // Not measured yet
+    private double failureRate = 0;
+    private long lastFailure = 0;
+    private int requests = 0;
+
+    private synchronized void recordSuccess(long millis) {
+      latencyMillis =
+          latencyMillis < 0 ? millis : latencyMillis + SMOOTHING * (millis - latencyMillis);
+      recordSuccess();
+    }
+
+    /** Records a success without a time to first audio, such as a download in full. */
+    private synchronized void recordSuccess() {
+      failureRate -= SMOOTHING * failureRate;
+      requests++;
+    }
+
+    private synchronized void recordFailure() {
+      failureRate += SMOOTHING * (1 - failureRate);
+      lastFailure = System.currentTimeMillis();
+      requests++;
+    }
+  }
+
+  private static final LocalSpeech.VoiceSettings DEFAULT_LOCAL_VOICE =
+      new LocalSpeech.VoiceSettings(100, 11, 150);
+
+  private static TtsRouter instance;
+
+  /**
+   * Gets the singleton instance of the TtsRouter, reading the voice settings the first time it is
+   * called.
+   *
+   * @return the TtsRouter instance
+   */
+  public static synchronized TtsRouter getInstance() {
+    if (instance == null) {
+      instance = new TtsRouter();
+    }
+    return instance;
+  }
+
+  /**
+   * Gets the provider a voice belongs to.
+   *
+   * @param voice the voice
+   * @return the voice's provider
+   */
+  public static Provider getProvider(Voice voice) {
+    return voice.name().startsWith("GOOGLE_") ? Provider.GOOGLE : Provider.OPENAI;
+  }
+
+  private final Map<String, Map<Provider, Voice>> voices = new HashMap<>();
+  private final Map<Provider, ProviderStats> stats = new EnumMap<>(Provider.class);
+  private Provider preferred = Provider.OPENAI;
+  private int raceMaxChars = 120;
+  private double maxFailureRate = 0.5;
+  private long retryAfterMillis = 30000;
+  private long remoteDeadlineMillis = 4000;
+  private int localRaceMaxChars = 0;
+  private final Map<String, LocalSpeech.VoiceSettings> localVoices = new HashMap<>();
+  private final AtomicInteger localRequests = new AtomicInteger();
+
+  /** Private constructor for singleton pattern */
+  @SuppressWarnings("unchecked")
+  private TtsRouter() {
+    for (Provider provider : Provider.values()) {
+      stats.put(provider, new ProviderStats());
+    }
+    try (InputStream inputStream =
+        TtsRouter.class.getClassLoader().getResourceAsStream("data/voices.yaml")) {
+      Map<String, Object> obj = new Yaml().load(inputStream);
+      Map<String, Map<String, String>> characters =
+          (Map<String, Map<String, String>>) obj.get("voices");
+      for (Map.Entry<String, Map<String, String>> character : characters.entrySet()) {
+        Map<Provider, Voice> characterVoices = new EnumMap<>(Provider.class);
+        character
+            .getValue()
+            .forEach(
+                (provider, voice) ->
+                    characterVoices.put(Provider.valueOf(provider), Voice.valueOf(voice)));
+        voices.put(character.getKey(), characterVoices);
+      }
+      preferred = Provider.valueOf((String) obj.getOrDefault("preferred", preferred.name()));
+      raceMaxChars = ((Number) obj.getOrDefault("raceMaxChars", raceMaxChars)).intValue();
+      maxFailureRate = ((Number) obj.getOrDefault("maxFailureRate", maxFailureRate)).doubleValue();
+      retryAfterMillis =
+          ((Number) obj.getOrDefault("retryAfterMillis", retryAfterMillis)).longValue();
+      remoteDeadlineMillis =
+          ((Number) obj.getOrDefault("remoteDeadlineMillis", remoteDeadlineMillis)).longValue();
+      localRaceMaxChars =
+          ((Number) obj.getOrDefault("localRaceMaxChars", localRaceMaxChars)).intValue();
+      Map<String, Map<String, Number>> local =
+          (Map<String, Map<String, Number>>) obj.getOrDefault("local", Map.of());
+      for (Map.Entry<String, Map<String, Number>> character : local.entrySet()) {
+        Map<String, Number> settings = character.getValue();
+        localVoices.put(
+            character.getKey(),
+            new LocalSpeech.VoiceSettings(
+                settings.get("pitch").floatValue(),
+                settings.get("pitchRange").floatValue(),
+                settings.get("rate").floatValue()));
+      }
+    } catch (IOException | RuntimeException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Gets the voice a character would currently be spoken with.
+   *
+   * @param character the name of the character
+   * @return the character's voice on the best provider, or null if the character has no voice
+   */
+  public Voice getVoice(String character) {
+    Provider provider = choose(character);
+    return provider == null ? null : voices.get(character).get(provider);
+  }
+
+  /**
+   * Converts text to speech in a character's voice. The best provider is used, falling back to the
+   * other if it fails, and short text is raced on both. If no provider is healthy, or none has
+   * started returning audio by the remote deadline, the speech is synthesized locally instead.
+   *
+   * @param character the name of the character speaking
+   * @param text the text to speak
+   * @return the speech
+   * @throws ApiProxyException if the speech could not be produced remotely or locally
+   */
+  public Speech speak(String character, String text) throws ApiProxyException {
+    Provider first = choose(character);
+    List<Supplier<Speech>> attempts = new ArrayList<>();
+    if (first != null && isHealthy(first)) {
+      Provider second = other(character, first);
+      if (second != null && text.length() <= raceMaxChars && isHealthy(second)) {
+        attempts.add(() -> speakWith(character, text, first));
+        attempts.add(() -> speakWith(character, text, second));
+      } else {
+        attempts.add(
+            () -> {
+              Speech speech = speakWith(character, text, first);
+              if (speech == null && second != null) {
+                System.out.println("Speech from " + first + " failed, trying " + second);
+                speech = speakWith(character, text, second);
+              }
+              return speech;
+            });
+      }
+    }
+    boolean raceLocal = text.length() <= localRaceMaxChars;
+    if (raceLocal) {
+      attempts.add(() -> speakLocally(character, text));
+    }
+
+    Speech speech = attempts.isEmpty() ? null : firstOf(attempts, remoteDeadlineMillis);
+    if (speech == null && !raceLocal) {
+      System.out.println(
+          attempts.isEmpty()
+              ? "No healthy speech provider, speaking locally"
+              : "No speech within " + remoteDeadlineMillis + " ms, speaking locally");
+      speech = speakLocally(character, text);
+    }
+    if (speech == null) {
+      throw new ApiProxyException("Unable to generate speech for " + character);
+    }
+    return speech;
+  }
+
+  /**
+   * Converts text to speech in a character's voice and downloads the whole MP3, using the best
+   * provider and falling back to the other if it fails.
+   *
+   * @param character the name of the character speaking
+   * @param text the text to speak
+   * @return the MP3 audio
+   * @throws ApiProxyException if no provider could produce the speech
+   */
+  public byte[] synthesize(String character, String text) throws ApiProxyException {
+    Provider first = choose(character);
+    if (first == null) {
+      throw new ApiProxyException("No voice configured for " + character);
+    }
+    try {
+      return synthesizeWith(character, text, first);
+    } catch (ApiProxyException e) {
+      Provider second = other(character, first);
+      if (second == null) {
+        throw e;
+      }
+      return synthesizeWith(character, text, second);
+    }
+  }
+
+  /**
+   * Builds a one-line summary of each provider's measurements.
+   *
+   * @return the summary
+   */
+  public String getReport() {
+    StringBuilder report = new StringBuilder("TTS providers:");
+    for (Map.Entry<Provider, ProviderStats> entry : stats.entrySet()) {
+      ProviderStats providerStats = entry.getValue();
+      synchronized (providerStats) {
+        report.append(
+            String.format(
+                " %s %d requests, %.0f ms, %.0f%% failing;",
+                entry.getKey(),
+                providerStats.requests,
+                providerStats.latencyMillis,
+                providerStats.failureRate * 100));
+      }
+    }
+    report.append(" LOCAL ").append(localRequests.get()).append(" requests");
+    return report.toString();
+  }
+
+  /**
+   * Picks the healthy provider with the lowest measured latency. A provider that has not been
+   * measured yet counts as the fastest if it is the preferred one and as the slowest otherwise.
+   */
+  private Provider choose(String character) {
+    Map<Provider, Voice> characterVoices = voices.get(character);
+    if (characterVoices == null || characterVoices.isEmpty()) {
+      return null;
+    }
+    Provider best = null;
+    double bestLatency = Double.MAX_VALUE;
+    for (Provider provider : characterVoices.keySet()) {
+      if (!isHealthy(provider)) {
+        continue;
+      }
+      double latency = stats.get(provider).latencyMillis;
+      // Until a provider has been measured, the configured preference decides
+      if (latency < 0) {
+        latency = provider == preferred ? 0 : Double.MAX_VALUE / 2;
+      }
+      if (latency < bestLatency) {
+        best = provider;
+        bestLatency = latency;
+      }
+    }
+    // Every provider is unhealthy, so try the preferred one anyway
+    if (best == null) {
+      best =
+          characterVoices.containsKey(preferred)
+              ? preferred
+              : characterVoices.keySet().iterator().next();
+    }
+    return best;
+  }
+
+  private Provider other(String character, Provider provider) {
+    for (Provider candidate : voices.get(character).keySet()) {
+      if (candidate != provider) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  private boolean isHealthy(Provider provider) {
+    ProviderStats providerStats = stats.get(provider);
+    synchronized (providerStats) {
+      return providerStats.failureRate <= maxFailureRate
+          || System.currentTimeMillis() - providerStats.lastFailure > retryAfterMillis;
+    }
+  }
+
+  /** Speaks with one provider, recording how it went. Returns null on failure. */
+  private Speech speakWith(String character, String text, Provider provider) {
+    long start = System.currentTimeMillis();
+    Speech speech = null;
+    try {
+      speech = TextToSpeech.speak(text, provider, voices.get(character).get(provider));
+    } catch (ApiProxyException | RuntimeException e) {
+      System.out.println("Speech from " + provider + " failed: " + e.getMessage());
+    }
+    if (speech == null) {
+      stats.get(provider).recordFailure();
+    } else {
+      stats.get(provider).recordSuccess(System.currentTimeMillis() - start);
+    }
+    return speech;
+  }
+
+  /** Synthesizes speech with FreeTTS in the character's local voice. Returns null on failure. */
+  private Speech speakLocally(String character, String text) {
+    long start = System.currentTimeMillis();
+    Speech speech =
+        LocalSpeech.getInstance()
+            .speak(text, localVoices.getOrDefault(character, DEFAULT_LOCAL_VOICE));
+    if (speech != null) {
+      localRequests.incrementAndGet();
+      if (App.DEBUG) {
+        System.out.println("Spoke locally in " + (System.currentTimeMillis() - start) + " ms");
+      }
+    }
+    return speech;
+  }
+
+  /**
+   * Downloads speech in full with one provider. Only the outcome is recorded, since the download
+   * time is not comparable with the time to first audio that routing measures.
+   */
+  private byte[] synthesizeWith(String character, String text, Provider provider)
+      throws ApiProxyException {
+    try {
+      byte[] audio = TextToSpeech.synthesize(text, provider, voices.get(character).get(provider));
+      stats.get(provider).recordSuccess();
+      return audio;
+    } catch (ApiProxyException | RuntimeException e) {
+      stats.get(provider).recordFailure();
+      throw e;
+    }
+  }
+
+  /**
+   * Runs the attempts at once and returns the first speech produced within the timeout. Speech that
+   * arrives after another attempt has won, or after the timeout, is closed, but the attempt still
+   * runs to the end so its provider's latency is recorded.
+   *
+   * @return the first speech, or null if every attempt failed or none finished in time
+   */
+  private Speech firstOf(List<Supplier<Speech>> attempts, long timeoutMillis)
+      throws ApiProxyException {
+    CompletableFuture<Speech> winner = new CompletableFuture<>();
+    CompletableFuture<?>[] runners = new CompletableFuture<?>[attempts.size()];
+    for (int i = 0; i < runners.length; i++) {
+      Supplier<Speech> attempt = attempts.get(i);
+      runners[i] =
+          CompletableFuture.runAsync(
+              () -> {
+                Speech speech = attempt.get();
+                if (speech != null && !winner.complete(speech)) {
+                  speech.close();
+                }
+              },
+              BackgroundTasks.getInstance().ioExecutor());
+    }
+    // If every attempt failed, finish empty-handed
+    CompletableFuture.allOf(runners).thenRun(() -> winner.complete(null));
+
+    try {
+      return winner.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      // Nobody is waiting any more, so the speech that eventually arrives must be closed
+      if (!winner.complete(null)) {
+        return winner.getNow(null);
+      }
+      return null;
+    } catch (ExecutionException e) {
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      if (!winner.complete(null)) {
+        Speech speech = winner.getNow(null);
+        if (speech != null) {
+          speech.close();
+        }
+      }
+      throw new ApiProxyException("Interrupted while generating speech", e);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package nz.ac.auckland.apiproxy.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.apiproxy.mock.MockProxyServer;
+import nz.ac.auckland.apiproxy.tts.TextToSpeechRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CassetteTest {
+
+  @TempDir Path directory;
+
+  @AfterEach
+  public void stopCassette() {
+    ProxyHttpClient.stopCassette();
+  }
+
+  @Test
+  public void testReplayMatchesRecording() throws Exception {
+    Path file = directory.resolve("session.cassette");
+    ApiProxyConfig config;
+    String recordedReply;
+    byte[] recordedAudio;
+    try (MockProxyServer proxy = MockProxyServer.start(0)) {
+      // A dripped body must still be recorded whole
+      proxy.getChatFaults().setDrip(16, 1);
+      config = proxy.createConfig();
+      ProxyHttpClient.startRecording(file);
+      recordedReply = reply(config);
+      recordedAudio = speech(config);
+      ProxyHttpClient.stopCassette();
+    }
+
+    // The mock has stopped, so these can only come from the cassette
+    ProxyHttpClient.startReplay(file, 0);
+    assertEquals(recordedReply, reply(config));
+    assertArrayEquals(recordedAudio, speech(config));
+  }
+
+  private static String reply(ApiProxyConfig config) throws Exception {
+    return new ChatCompletionRequest(config)
+        .addMessage("user", "When was the explosion?")
+        .execute()
+        .getChoices()
+        .iterator()
+        .next()
+        .getChatMessage()
+        .getContent();
+  }
+
+  private static byte[] speech(ApiProxyConfig config) throws Exception {
+    String url =
+        new TextToSpeechRequest(config).setText("It was at night.").execute().getAudioUrl();
+    try (InputStream audio = ProxyHttpClient.openStream(url)) {
+      return audio.readAllBytes();
+    }
+  }
+}
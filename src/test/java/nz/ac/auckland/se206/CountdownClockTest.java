@@ -0,0 +1,78 @@
+package nz.ac.auckland.se206;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class CountdownClockTest {
+
+  private final AtomicLong now = new AtomicLong(0);
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  @AfterEach
+  public void shutDown() {
+    scheduler.shutdownNow();
+  }
+
+  private void advanceMillis(long millis) {
+    now.addAndGet(millis * 1_000_000L);
+  }
+
+  @Test
+  public void testRemainingTimeFollowsDeadline() {
+    CountdownClock clock = new CountdownClock(10_000, 1000, now::get, scheduler);
+    clock.start();
+
+    advanceMillis(2_250);
+    assertEquals(7_750, clock.getRemainingMillis());
+    assertEquals(8, clock.getRemainingSeconds());
+    assertEquals(0.775, clock.getRemainingFraction(), 1e-9);
+  }
+
+  @Test
+  public void testPauseAndResume() {
+    CountdownClock clock = new CountdownClock(10_000, 1000, now::get, scheduler);
+    clock.start();
+    advanceMillis(3_000);
+    clock.pause();
+
+    advanceMillis(60_000);
+    assertFalse(clock.isRunning());
+    assertEquals(7_000, clock.getRemainingMillis());
+
+    clock.start();
+    advanceMillis(500);
+    assertEquals(6_500, clock.getRemainingMillis());
+  }
+
+  @Test
+  public void testExpiresOnRealTime() throws InterruptedException {
+    CountdownClock clock = new CountdownClock(200, 50);
+    CountDownLatch expired = new CountDownLatch(1);
+    clock.addListener(
+        new CountdownClock.Listener() {
+          @Override
+          public void onTick(long remainingMillis) {}
+
+          @Override
+          public void onExpired() {
+            expired.countDown();
+          }
+        });
+
+    long start = System.nanoTime();
+    clock.start();
+    assertTrue(expired.await(2, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start >= 200_000_000L);
+    assertTrue(clock.isExpired());
+    assertEquals(0, clock.getRemainingMillis());
+  }
+}
@@ -0,0 +1,48 @@
+package nz.ac.auckland.se206;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+public class StartupOrchestratorTest {
+
+  @Test
+  public void testReadyResultsAndTimings() throws Exception {
+    StartupOrchestrator startup = StartupOrchestrator.getInstance();
+    CountDownLatch release = new CountDownLatch(1);
+    startup.submit("test-first", () -> "first");
+    startup.submit(
+        "test-blocked",
+        () -> {
+          release.await();
+          return "blocked";
+        },
+        "test-first");
+    startup.submit(
+        "test-failing",
+        () -> {
+          throw new IllegalStateException("expected");
+        });
+
+    startup.submit("test-wait", () -> null, "test-first").join();
+    assertEquals("first", startup.getIfReady("test-first"));
+    assertNull(startup.getIfReady("test-blocked"));
+    assertNull(startup.getIfReady("test-unknown"));
+    assertTrue(startup.getTimings().containsKey("test-first"));
+    assertFalse(startup.getTimings().containsKey("test-blocked"));
+
+    release.countDown();
+    startup.whenAllDone().join();
+    assertEquals("blocked", startup.getIfReady("test-blocked"));
+    assertNull(startup.getIfReady("test-failing"));
+
+    Map<String, Long> timings = startup.getTimings();
+    assertTrue(timings.containsKey("test-blocked"));
+    assertTrue(timings.containsKey("test-failing"));
+  }
+}
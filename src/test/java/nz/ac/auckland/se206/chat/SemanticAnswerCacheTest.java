@@ -0,0 +1,77 @@
+package nz.ac.auckland.se206.chat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yaml.snakeyaml.Yaml;
+
+public class SemanticAnswerCacheTest {
+
+  private static final Map<String, Object> SETTINGS =
+      Map.of(
+          "similarityThreshold", 0.6,
+          "stopWords", List.of("the", "did", "you", "what", "a", "at"),
+          "synonyms", Map.of("blast", "explosion", "what time", "when"));
+
+  @TempDir Path directory;
+
+  @Test
+  public void testFindsRephrasedQuestion() {
+    SemanticAnswerCache cache = new SemanticAnswerCache(SETTINGS, directory);
+    cache.store("Evan", "What time did the explosion happen?", "Just after midnight.", null);
+
+    SemanticAnswerCache.Answer answer = cache.lookup("Evan", "when did the blast happen??");
+    assertNotNull(answer);
+    assertEquals("Just after midnight.", answer.getText());
+    assertNull(answer.loadAudio());
+  }
+
+  @Test
+  public void testKeepsCharactersAndQuestionsApart() {
+    SemanticAnswerCache cache = new SemanticAnswerCache(SETTINGS, directory);
+    cache.store("Evan", "What time did the explosion happen?", "Just after midnight.", null);
+
+    assertNull(cache.lookup("INDUS-07", "What time did the explosion happen?"));
+    assertNull(cache.lookup("Evan", "Why did you increase the output?"));
+    assertFalse(cache.accepts("Evan", "When did the blast happen?"));
+    assertTrue(cache.accepts("INDUS-07", "What time did the explosion happen?"));
+  }
+
+  @Test
+  public void testLoadsLearnedAnswersWithSpeech() throws Exception {
+    SemanticAnswerCache cache = new SemanticAnswerCache(SETTINGS, directory);
+    cache.store("Evan", "Where were you that night?", "At the plant.", new byte[] {1, 2, 3});
+
+    // A new cache reads the answers saved by the first one as a seed
+    SemanticAnswerCache reloaded = new SemanticAnswerCache(SETTINGS, directory);
+    reloaded.loadSeed(directory.resolve("answer-cache.yaml"));
+    SemanticAnswerCache.Answer answer = reloaded.lookup("Evan", "Where were you that night");
+    assertNotNull(answer);
+    assertEquals(3, answer.loadAudio().length);
+  }
+
+  @Test
+  public void testKeepsOppositeQuestionsApart() throws Exception {
+    Map<String, Object> settings;
+    try (InputStream inputStream =
+        getClass().getClassLoader().getResourceAsStream("data/semantic-cache.yaml")) {
+      settings = new Yaml().load(inputStream);
+    }
+    SemanticAnswerCache cache = new SemanticAnswerCache(settings, directory);
+    cache.store("INDUS-07", "Did you increase the output?", "Yes, for efficiency.", null);
+    cache.store("Evan", "Who sent the order to increase the output?", "INDUS-07 did.", null);
+
+    assertNull(cache.lookup("INDUS-07", "Did you decrease the output?"));
+    assertNull(cache.lookup("Evan", "Who received the order to increase the output?"));
+    assertNotNull(cache.lookup("Evan", "Who sent the instruction to raise the output?"));
+  }
+}
@@ -0,0 +1,97 @@
+package nz.ac.auckland.se206.chat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
+import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest.Model;
+import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
+import nz.ac.auckland.se206.chat.ModelRouter.CallType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class UsageLedgerTest {
+
+  private static final Map<String, Object> SETTINGS =
+      Map.of(
+          "sessionBudget",
+          1000,
+          "degradeAt",
+          0.5,
+          "degradedModel",
+          "GPT_4_1_NANO",
+          "degradedMaxTokens",
+          0.5,
+          "optional",
+          List.of("EVIDENCE"),
+          "essential",
+          List.of("DEBRIEF"));
+
+  @TempDir Path directory;
+
+  @Test
+  public void testDegradesThenRefusesAsBudgetIsUsed() {
+    UsageLedger ledger = new UsageLedger(directory.resolve("usage.csv"), SETTINGS);
+    ledger.startSession();
+    assertTrue(ledger.admit(CallType.EVIDENCE, "Evan"));
+
+    ledger.record(CallType.CHAT, "Evan", Model.GPT_4o_MINI, 500, 100, 800, false);
+    assertEquals(UsageLedger.Level.DEGRADED, ledger.getLevel());
+    assertFalse(ledger.admit(CallType.EVIDENCE, "Evan"));
+    assertTrue(ledger.admit(CallType.CHAT, "Evan"));
+    ChatCompletionRequest request =
+        new ChatCompletionRequest(ApiProxyConfig.forProxy("http://proxy.invalid", "a", "b"))
+            .setMaxTokens(200);
+    assertEquals(100, ledger.degrade(request).getMaxTokens());
+    assertEquals(200, request.getMaxTokens());
+
+    ledger.record(CallType.CHAT, "LOGOS-09", Model.GPT_4_1_NANO, 300, 100, 600, false);
+    assertEquals(UsageLedger.Level.SPENT, ledger.getLevel());
+    assertFalse(ledger.admit(CallType.CHAT, "Evan"));
+    assertTrue(ledger.admit(CallType.DEBRIEF, null));
+
+    assertEquals(600, ledger.getCharacterTotals("Evan").getTotalTokens());
+    assertEquals(2, ledger.getCharacterTotals("Evan").getSkippedCalls());
+    assertEquals(1000, ledger.getSessionTotals(CallType.CHAT).getTotalTokens());
+    assertEquals(2, ledger.getSessionTotals().getCalls());
+  }
+
+  @Test
+  public void testDeploymentTotalsCarryAcrossLaunches() throws Exception {
+    Path file = directory.resolve("usage.csv");
+    UsageLedger first = new UsageLedger(file, SETTINGS);
+    first.startSession();
+    first.record(CallType.CHAT, "Evan", Model.GPT_4o_MINI, 400, 200, 800, false);
+    first.record(CallType.DEBRIEF, null, Model.GPT_4_1_MINI, 0, 0, 5000, true);
+
+    UsageLedger resumed = new UsageLedger(file, SETTINGS);
+    resumed.resumeSession();
+    assertEquals(UsageLedger.Level.DEGRADED, resumed.getLevel());
+    assertEquals(600, resumed.getCharacterTotals("Evan").getTotalTokens());
+    assertEquals(1, resumed.getSessionCount());
+
+    UsageLedger next = new UsageLedger(file, SETTINGS);
+    next.startSession();
+    next.record(CallType.CHAT, "Evan", Model.GPT_4o_MINI, 50, 50, 700, false);
+    assertEquals(UsageLedger.Level.NORMAL, next.getLevel());
+    assertEquals(700, next.getDeploymentTotals().getTotalTokens());
+    assertEquals(3, next.getDeploymentTotals().getCalls());
+    assertEquals(1, next.getDeploymentTotals(CallType.DEBRIEF).getFailedCalls());
+    assertEquals(2, next.getSessionCount());
+
+    // Opening the ledger again folds the first session into the totals file
+    UsageLedger compacted = new UsageLedger(file, SETTINGS);
+    assertEquals(2, Files.readAllLines(file).size());
+    assertEquals(700, compacted.getDeploymentTotals().getTotalTokens());
+    assertEquals(1, compacted.getDeploymentTotals(CallType.DEBRIEF).getFailedCalls());
+    assertEquals(2, compacted.getSessionCount());
+    compacted.resumeSession();
+    assertEquals(100, compacted.getSessionTotals().getTotalTokens());
+    assertEquals(700, new UsageLedger(file, SETTINGS).getDeploymentTotals().getTotalTokens());
+  }
+}
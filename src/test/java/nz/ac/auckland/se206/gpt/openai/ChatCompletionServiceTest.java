@@ -1,7 +1,12 @@
 package nz.ac.auckland.se206.gpt.openai;
 
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashSet;
 import java.util.Set;
 import nz.ac.auckland.apiproxy.chat.openai.ChatCompletionRequest;
@@ -10,14 +15,38 @@ import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
 import nz.ac.auckland.apiproxy.chat.openai.Choice;
 import nz.ac.auckland.apiproxy.config.ApiProxyConfig;
 import nz.ac.auckland.apiproxy.exceptions.ApiProxyException;
+import nz.ac.auckland.apiproxy.service.ProxyHttpClient;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+/**
+ * Runs chat completions against a recorded cassette, so the tests need no network. The cassette was
+ * recorded from {@link nz.ac.auckland.apiproxy.mock.MockProxyServer}; record a new one with {@link
+ * ProxyHttpClient#startRecording(Path)} after changing a request.
+ */
 public class ChatCompletionServiceTest {
 
+  private static final ApiProxyConfig config =
+      ApiProxyConfig.forProxy("http://proxy.invalid", "test@example.com", "test-access-token");
+
+  @BeforeAll
+  public static void startReplay() throws IOException, URISyntaxException {
+    Path cassette =
+        Paths.get(
+            ChatCompletionServiceTest.class
+                .getResource("/cassettes/chat-completion.cassette")
+                .toURI());
+    ProxyHttpClient.startReplay(cassette, 0);
+  }
+
+  @AfterAll
+  public static void stopReplay() {
+    ProxyHttpClient.stopCassette();
+  }
+
   @Test
   public void testGptAuckland() throws ApiProxyException {
-    ApiProxyConfig config = ApiProxyConfig.readConfig();
-
     ChatCompletionRequest chatCompletionRequest = new ChatCompletionRequest(config);
 
     chatCompletionRequest
@@ -67,4 +96,20 @@ public class ChatCompletionServiceTest {
     }
     assertTrue(found);
   }
+
+  @Test
+  public void testRateLimitIsReported() {
+    ChatCompletionRequest request =
+        new ChatCompletionRequest(config).addMessage("user", "Is the proxy busy?");
+
+    assertThrows(ApiProxyException.class, request::execute);
+  }
+
+  @Test
+  public void testUnrecordedRequestFails() {
+    ChatCompletionRequest request =
+        new ChatCompletionRequest(config).addMessage("user", "This was never recorded.");
+
+    assertThrows(ApiProxyException.class, request::execute);
+  }
 }
@@ -0,0 +1,71 @@
+package nz.ac.auckland.se206.journal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import nz.ac.auckland.apiproxy.chat.openai.ChatMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SessionJournalTest {
+
+  @TempDir Path directory;
+
+  @Test
+  public void testReplaysRecordedSession() throws IOException {
+    Path file = directory.resolve("session.journal");
+    SessionJournal journal = new SessionJournal(file);
+    assertTrue(journal.open().getTurns().isEmpty());
+    journal.recordState("GameStarted");
+    journal.recordTurn("Evan", new ChatMessage("user", "Where were you?"));
+    journal.recordTurn("Evan", new ChatMessage("assistant", "At the plant, ĀE."));
+    journal.recordTimer(90_000);
+    journal.recordTimer(89_500); // Within a second of the last checkpoint, so skipped
+    journal.recordTimer(88_400);
+
+    RecoveredSession session = new SessionJournal(file).open();
+    assertEquals("GameStarted", session.getStateName());
+    assertEquals(88_400, session.getTimeLeftMillis());
+    assertEquals(2, session.getTurns().size());
+    assertEquals("Evan", session.getTurns().get(1).getTarget());
+    assertEquals("At the plant, ĀE.", session.getTurns().get(1).getMessage().getContent());
+    assertTrue(session.isResumable());
+  }
+
+  @Test
+  public void testRecordsFirstCheckpointAtZero() throws IOException {
+    Path file = directory.resolve("session.journal");
+    SessionJournal journal = new SessionJournal(file);
+    journal.open();
+    journal.recordState("GameStarted");
+    journal.recordTimer(0);
+
+    assertEquals(0, new SessionJournal(file).open().getTimeLeftMillis());
+  }
+
+  @Test
+  public void testStopsAtTornRecord() throws IOException {
+    Path file = directory.resolve("session.journal");
+    SessionJournal journal = new SessionJournal(file);
+    journal.open();
+    journal.recordState("GameStarted");
+    journal.recordTimer(60_000);
+    journal.force();
+
+    // Corrupt the last byte of the timer record, as if the write was cut short
+    int timerRecordEnd = 4 + (8 + 1 + 2 + "GameStarted".length()) + (8 + 1 + 8);
+    try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+      raw.seek(timerRecordEnd - 1);
+      raw.write(0x7f);
+    }
+
+    RecoveredSession session = new SessionJournal(file).open();
+    assertEquals("GameStarted", session.getStateName());
+    assertEquals(-1, session.getTimeLeftMillis());
+    assertFalse(session.isResumable());
+  }
+}